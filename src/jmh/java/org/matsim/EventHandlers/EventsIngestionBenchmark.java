@@ -0,0 +1,184 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Compares the ways this repository reads events files on the same task: counting link enters
+// and leaves per link and hour (as VehicleFlowAnalysis does).
+//
+//   eventsReaderXMLv1   MATSim's reader and an events manager (AverageDelayCalculator and most analyzers)
+//   stax                StAX cursor over the XML (the original VehicleFlowAnalysis)
+//   lineScanner         BufferedReader with indexOf attribute extraction (the original VehicleEventAnalyzer)
+//   eventsScanner       EventsScanner on one thread
+//   parallelScanner     ParallelEventsReader on all cores
+//   pipelined           PipelinedEventsReader and an events manager
+//   eventsStore         columns of an EventsStore converted in the setup
+//
+// Run with: mvn -P jmh package -DskipTests && java -jar target/benchmarks.jar EventsIngestionBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class EventsIngestionBenchmark {
+
+    @Param({"100000", "1000000"})
+    public long events;
+
+    @Param({"xml", "xml.gz"})
+    public String format;
+
+    private File directory;
+    private String eventsFile;
+    private String storeDirectory;
+
+    @Setup(Level.Trial)
+    public void generateEvents() throws IOException {
+        directory = Files.createTempDirectory("events-benchmark").toFile();
+        eventsFile = new File(directory, "events." + format).getPath();
+        // roughly 110 events per vehicle and day
+        int vehicles = (int) (events / 100 + 1);
+        new SyntheticEventsGenerator(100, vehicles, 4711).write(eventsFile, events);
+
+        storeDirectory = new File(directory, "store").getPath();
+        EventsStoreWriter.convert(eventsFile, storeDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteEvents() throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Map<Id<Link>, int[]> eventsReaderXMLv1() {
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        HourlyFlowHandler handler = new HourlyFlowHandler();
+        eventsManager.addHandler(handler);
+        new EventsReaderXMLv1(eventsManager).readFile(eventsFile);
+        return handler.linkCounts;
+    }
+
+    @Benchmark
+    public Map<String, int[]> stax() throws IOException, XMLStreamException {
+        Map<String, int[]> linkCounts = new HashMap<>();
+        try (InputStream inputStream = EventsScanner.openStream(eventsFile)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+            while (reader.hasNext()) {
+                int eventType = reader.next();
+                if (eventType == XMLStreamConstants.START_ELEMENT && "event".equals(reader.getLocalName())) {
+                    String type = reader.getAttributeValue(null, "type");
+                    String link = reader.getAttributeValue(null, "link");
+                    String timeStr = reader.getAttributeValue(null, "time");
+
+                    if (timeStr != null && link != null && ("entered link".equals(type) || "left link".equals(type))) {
+                        countHour(linkCounts.computeIfAbsent(link, l -> new int[24]), Double.parseDouble(timeStr));
+                    }
+                }
+            }
+            reader.close();
+        }
+        return linkCounts;
+    }
+
+    @Benchmark
+    public Map<String, int[]> lineScanner() throws IOException {
+        Map<String, int[]> linkCounts = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(EventsScanner.openStream(eventsFile)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("<event")) {
+                    String linkId = extractAttribute(line, "link");
+                    String eventType = extractAttribute(line, "type");
+                    String time = extractAttribute(line, "time");
+
+                    if (linkId != null && time != null && ("entered link".equals(eventType) || "left link".equals(eventType))) {
+                        countHour(linkCounts.computeIfAbsent(linkId, l -> new int[24]), Double.parseDouble(time));
+                    }
+                }
+            }
+        }
+        return linkCounts;
+    }
+
+    @Benchmark
+    public Map<String, int[]> eventsScanner() throws IOException {
+        return VehicleFlowAnalysis.countHourlyFlows(eventsFile);
+    }
+
+    @Benchmark
+    public Map<String, int[]> parallelScanner() throws IOException {
+        return VehicleFlowAnalysis.countHourlyFlowsParallel(eventsFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public Map<Id<Link>, int[]> pipelined() throws IOException {
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        HourlyFlowHandler handler = new HourlyFlowHandler();
+        eventsManager.addHandler(handler);
+        new PipelinedEventsReader(eventsManager).readFile(eventsFile);
+        return handler.linkCounts;
+    }
+
+    @Benchmark
+    public Map<String, int[]> eventsStore() throws IOException {
+        return VehicleFlowAnalysis.countHourlyFlows(EventsStore.open(storeDirectory));
+    }
+
+    private static void countHour(int[] hourlyCounts, double time) {
+        int hour = (int) (time / 3600);
+        if (hour >= 0 && hour < 24) {
+            hourlyCounts[hour]++;
+        }
+    }
+
+    private static String extractAttribute(String line, String attribute) {
+        String search = attribute + "=\"";
+        int start = line.indexOf(search);
+        if (start == -1) return null;
+        start += search.length();
+        int end = line.indexOf("\"", start);
+        return end == -1 ? null : line.substring(start, end);
+    }
+
+    private static class HourlyFlowHandler implements LinkEnterEventHandler, LinkLeaveEventHandler {
+        final Map<Id<Link>, int[]> linkCounts = new HashMap<>();
+
+        @Override
+        public void handleEvent(LinkEnterEvent event) {
+            countHour(linkCounts.computeIfAbsent(event.getLinkId(), l -> new int[24]), event.getTime());
+        }
+
+        @Override
+        public void handleEvent(LinkLeaveEvent event) {
+            countHour(linkCounts.computeIfAbsent(event.getLinkId(), l -> new int[24]), event.getTime());
+        }
+
+        @Override
+        public void reset(int iteration) {
+            linkCounts.clear();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package EventHandlers;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+// Writes events files that look like QSim output, for the benchmarks that need events of a given
+// size without running a simulation. Only compiled with the jmh profile.
+//
+// Every vehicle makes a morning and an evening car trip on a square grid of one-way links. A trip
+// produces the same event sequence as the QSim (actend, departure, PersonEntersVehicle, vehicle
+// enters traffic, left link / entered link per link, vehicle leaves traffic, PersonLeavesVehicle,
+// arrival, actstart), and link travel times grow around the morning and evening peaks. Events
+// are written in time order in the attribute layout of MATSim's events writer.
+//
+// Usage (from the benchmarks jar):
+//   SyntheticEventsGenerator --output <events.xml[.gz]> [--events 1000000] [--vehicles 20000]
+//                            [--grid 100] [--seed 4711]
+public class SyntheticEventsGenerator {
+
+    private static final double LINK_LENGTH = 200.0;
+    private static final double FREESPEED = 13.89;
+    private static final double[][] DIRECTIONS = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+
+    private final int gridSize;
+    private final int numberOfVehicles;
+    private final long seed;
+
+    public SyntheticEventsGenerator(int gridSize, int numberOfVehicles, long seed) {
+        if (gridSize < 2) {
+            throw new IllegalArgumentException("Grid needs at least 2 x 2 nodes, got " + gridSize);
+        }
+        this.gridSize = gridSize;
+        this.numberOfVehicles = numberOfVehicles;
+        this.seed = seed;
+    }
+
+    // Link ids are node * 4 + direction, links leaving the grid do not exist
+    private boolean hasLink(int node, int direction) {
+        int x = node % gridSize + (int) DIRECTIONS[direction][0];
+        int y = node / gridSize + (int) DIRECTIONS[direction][1];
+        return x >= 0 && x < gridSize && y >= 0 && y < gridSize;
+    }
+
+    private int toNode(int link) {
+        int node = link / 4;
+        int direction = link % 4;
+        return node + (int) DIRECTIONS[direction][0] + (int) DIRECTIONS[direction][1] * gridSize;
+    }
+
+    private int randomLinkFrom(int node, Random random) {
+        while (true) {
+            int direction = random.nextInt(4);
+            if (hasLink(node, direction)) {
+                return node * 4 + direction;
+            }
+        }
+    }
+
+    // Extra travel time factor, highest at 8:00 and 17:00
+    private static double congestion(double time) {
+        double hour = time / 3600;
+        double morning = Math.exp(-Math.pow(hour - 8, 2) / 2);
+        double evening = Math.exp(-Math.pow(hour - 17, 2) / 2);
+        return 1 + 1.5 * Math.max(morning, evening);
+    }
+
+    // One car trip, advanced one event at a time
+    private final class Trip {
+        final int person;
+        final int[] route;
+        final String fromActivity;
+        final String toActivity;
+        double time;
+        int step = 0;
+
+        Trip(int person, double departureTime, int[] route, String fromActivity, String toActivity) {
+            this.person = person;
+            this.time = departureTime;
+            this.route = route;
+            this.fromActivity = fromActivity;
+            this.toActivity = toActivity;
+        }
+
+        // Write the next event of the trip; returns false after the last one
+        boolean writeNext(Writer out, Random random) throws IOException {
+            String t = Double.toString(time);
+            String p = Integer.toString(person);
+            int last = route.length - 1;
+            switch (step) {
+                case 0:
+                    out.write(event(t, "actend") + person(p) + link(route[0]) + " actType=\"" + fromActivity + "\"  />\n");
+                    break;
+                case 1:
+                    out.write(event(t, "departure") + person(p) + link(route[0]) + " legMode=\"car\"  />\n");
+                    break;
+                case 2:
+                    out.write(event(t, "PersonEntersVehicle") + person(p) + " vehicle=\"" + p + "\"  />\n");
+                    break;
+                case 3:
+                    out.write(event(t, "vehicle enters traffic") + person(p) + link(route[0]) + " vehicle=\"" + p
+                            + "\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+                    time += 1;
+                    break;
+                default:
+                    int hop = step - 4;
+                    if (hop < 2 * last) {
+                        if (hop % 2 == 0) {
+                            out.write(event(t, "left link") + " vehicle=\"" + p + "\"" + link(route[hop / 2]) + "  />\n");
+                        } else {
+                            out.write(event(t, "entered link") + " vehicle=\"" + p + "\"" + link(route[(hop + 1) / 2]) + "  />\n");
+                            double freeFlowTime = Math.floor(LINK_LENGTH / FREESPEED) + 1;
+                            time += Math.ceil(freeFlowTime * congestion(time) * (0.8 + 0.4 * random.nextDouble()));
+                        }
+                        break;
+                    }
+                    switch (hop - 2 * last) {
+                        case 0:
+                            out.write(event(t, "vehicle leaves traffic") + person(p) + link(route[last]) + " vehicle=\"" + p
+                                    + "\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+                            break;
+                        case 1:
+                            out.write(event(t, "PersonLeavesVehicle") + person(p) + " vehicle=\"" + p + "\"  />\n");
+                            break;
+                        case 2:
+                            out.write(event(t, "arrival") + person(p) + link(route[last]) + " legMode=\"car\"  />\n");
+                            break;
+                        default:
+                            out.write(event(t, "actstart") + person(p) + link(route[last]) + " actType=\"" + toActivity + "\"  />\n");
+                            return false;
+                    }
+            }
+            step++;
+            return true;
+        }
+    }
+
+    private static String event(String time, String type) {
+        return "\t<event time=\"" + time + "\" type=\"" + type + "\"";
+    }
+
+    private static String person(String person) {
+        return " person=\"" + person + "\"";
+    }
+
+    private static String link(int link) {
+        return " link=\"" + link + "\"";
+    }
+
+    // Write events until the requested number is reached or all trips are finished; returns the number written
+    public long write(String eventsFile, long numberOfEvents) throws IOException {
+        Random random = new Random(seed);
+        int numberOfNodes = gridSize * gridSize;
+
+        // two trips per vehicle, ordered by departure time
+        Trip[] trips = new Trip[2 * numberOfVehicles];
+        for (int vehicle = 0; vehicle < numberOfVehicles; vehicle++) {
+            int home = random.nextInt(numberOfNodes);
+            int[] toWork = randomRoute(home, 5 + random.nextInt(40), random);
+            // the return trip departs from the link the first one arrived on
+            int[] toHome = randomRoute(toNode(toWork[toWork.length - 1]), 5 + random.nextInt(40), random);
+            toHome[0] = toWork[toWork.length - 1];
+            double morning = Math.max(0, Math.round(8 * 3600 + random.nextGaussian() * 3600));
+            double evening = Math.max(morning + 3600, Math.round(17 * 3600 + random.nextGaussian() * 1.5 * 3600));
+            trips[2 * vehicle] = new Trip(vehicle, morning, toWork, "home", "work");
+            trips[2 * vehicle + 1] = new Trip(vehicle, evening, toHome, "work", "home");
+        }
+        Arrays.sort(trips, (a, b) -> Double.compare(a.time, b.time));
+
+        long written = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(openOutput(eventsFile), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            PriorityQueue<Trip> running = new PriorityQueue<>((a, b) -> Double.compare(a.time, b.time));
+            int nextTrip = 0;
+            while (written < numberOfEvents && (nextTrip < trips.length || !running.isEmpty())) {
+                // start all trips departing before the next event of a running trip
+                while (nextTrip < trips.length && (running.isEmpty() || trips[nextTrip].time <= running.peek().time)) {
+                    running.add(trips[nextTrip++]);
+                }
+                Trip trip = running.poll();
+                if (trip.writeNext(out, random)) {
+                    running.add(trip);
+                }
+                written++;
+            }
+            out.write("</events>\n");
+        }
+        return written;
+    }
+
+    private int[] randomRoute(int startNode, int length, Random random) {
+        int[] route = new int[length];
+        int node = startNode;
+        for (int i = 0; i < length; i++) {
+            route[i] = randomLinkFrom(node, random);
+            node = toNode(route[i]);
+        }
+        return route;
+    }
+
+    private static OutputStream openOutput(String eventsFile) throws IOException {
+        OutputStream out = new FileOutputStream(eventsFile);
+        return eventsFile.endsWith(".gz") ? new GZIPOutputStream(out, 1 << 16) : out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String outputFile = options.get("output");
+        if (outputFile == null) {
+            System.err.println("Usage: SyntheticEventsGenerator --output <events.xml[.gz]> [--events <n>]"
+                    + " [--vehicles <n>] [--grid <nodes per side>] [--seed <n>]");
+            System.exit(1);
+        }
+        long numberOfEvents = Long.parseLong(options.getOrDefault("events", "1000000"));
+        int numberOfVehicles = Integer.parseInt(options.getOrDefault("vehicles", "20000"));
+        int gridSize = Integer.parseInt(options.getOrDefault("grid", "100"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "4711"));
+
+        long start = System.currentTimeMillis();
+        long written = new SyntheticEventsGenerator(gridSize, numberOfVehicles, seed).write(outputFile, numberOfEvents);
+        System.out.println("Wrote " + written + " events to " + outputFile + " in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s");
+    }
+}
@@ -0,0 +1,193 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+// Collects abnormal link traversals (travel times far above the free-flow travel time) with
+// bounded memory, however bad the run is:
+//   - counters per kind, per link and per vehicle, in int arrays indexed by Id.index()
+//   - the TOP_K traversals with the worst travel time ratio
+//   - a uniform random sample of SAMPLE_SIZE traversals (reservoir sampling)
+// Nothing is allocated or formatted per anomaly except for the ones that enter the top list or
+// the sample. Everything is written as one report at the end.
+public class AnomalyCollector {
+
+    public static final int TOP_K = 20;
+    public static final int SAMPLE_SIZE = 20;
+
+    public enum Kind {
+        ABNORMAL_DELAY("abnormal delay"),
+        EXTREME_TRAVEL_TIME("extremely long travel time");
+
+        private final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+    }
+
+    private static final class Anomaly {
+        final Kind kind;
+        final int vehicle;
+        final int link;
+        final double time;
+        final double travelTime;
+        final double freeFlowTravelTime;
+        final double ratio;
+
+        Anomaly(Kind kind, int vehicle, int link, double time, double travelTime, double freeFlowTravelTime, double ratio) {
+            this.kind = kind;
+            this.vehicle = vehicle;
+            this.link = link;
+            this.time = time;
+            this.travelTime = travelTime;
+            this.freeFlowTravelTime = freeFlowTravelTime;
+            this.ratio = ratio;
+        }
+    }
+
+    private final long[] countsByKind = new long[Kind.values().length];
+    private int[] countsByLink = new int[16];
+    private int[] countsByVehicle = new int[16];
+    // min-heap on the ratio, so the head is the first to be replaced
+    private final PriorityQueue<Anomaly> worst = new PriorityQueue<>(TOP_K, Comparator.comparingDouble(a -> a.ratio));
+    private final Anomaly[] sample = new Anomaly[SAMPLE_SIZE];
+    private long numberOfAnomalies = 0;
+    private final Random random = new Random(4711);
+
+    // Record one abnormal traversal; time is when the vehicle left the link
+    public void record(Kind kind, Id<?> vehicleId, Id<Link> linkId, double time, double travelTime, double freeFlowTravelTime) {
+        int vehicle = vehicleId.index();
+        int link = linkId.index();
+        countsByKind[kind.ordinal()]++;
+        countsByLink = increment(countsByLink, link);
+        countsByVehicle = increment(countsByVehicle, vehicle);
+        numberOfAnomalies++;
+
+        double ratio = travelTime / freeFlowTravelTime;
+        Anomaly anomaly = null;
+        if (worst.size() < TOP_K || ratio > worst.peek().ratio) {
+            anomaly = new Anomaly(kind, vehicle, link, time, travelTime, freeFlowTravelTime, ratio);
+            if (worst.size() == TOP_K) {
+                worst.poll();
+            }
+            worst.add(anomaly);
+        }
+
+        // keep every anomaly with probability SAMPLE_SIZE / numberOfAnomalies
+        long slot = numberOfAnomalies <= SAMPLE_SIZE ? numberOfAnomalies - 1 : (long) (random.nextDouble() * numberOfAnomalies);
+        if (slot < SAMPLE_SIZE) {
+            sample[(int) slot] = anomaly != null ? anomaly : new Anomaly(kind, vehicle, link, time, travelTime, freeFlowTravelTime, ratio);
+        }
+    }
+
+    private static int[] increment(int[] counts, int index) {
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+        return counts;
+    }
+
+    public boolean hasAnomalies() {
+        return numberOfAnomalies > 0;
+    }
+
+    public long getCount(Kind kind) {
+        return countsByKind[kind.ordinal()];
+    }
+
+    // e.g. "Abnormal delays detected: 1234 abnormal delay, 56 extremely long travel time on 78 links"
+    public String getSummary() {
+        StringJoiner kinds = new StringJoiner(", ");
+        for (Kind kind : Kind.values()) {
+            kinds.add(countsByKind[kind.ordinal()] + " " + kind.description);
+        }
+        return "Abnormal delays detected: " + kinds + " on " + numberOfNonZero(countsByLink) + " links";
+    }
+
+    public void clear() {
+        Arrays.fill(countsByKind, 0);
+        Arrays.fill(countsByLink, 0);
+        Arrays.fill(countsByVehicle, 0);
+        worst.clear();
+        Arrays.fill(sample, null);
+        numberOfAnomalies = 0;
+    }
+
+    public void writeReport(String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("# " + getSummary() + "\n");
+
+            writer.write("\n# Links with the most anomalies\nLinkId,Count\n");
+            for (int link : mostFrequent(countsByLink)) {
+                writer.write(Id.get(link, Link.class) + "," + countsByLink[link] + "\n");
+            }
+
+            writer.write("\n# Vehicles with the most anomalies\nVehicleId,Count\n");
+            for (int vehicle : mostFrequent(countsByVehicle)) {
+                writer.write(Id.get(vehicle, Vehicle.class) + "," + countsByVehicle[vehicle] + "\n");
+            }
+
+            List<Anomaly> worstFirst = new ArrayList<>(worst);
+            worstFirst.sort(Comparator.comparingDouble((Anomaly a) -> a.ratio).reversed());
+            writer.write("\n# Worst travel time ratios\n");
+            writeAnomalies(writer, worstFirst);
+
+            List<Anomaly> examples = new ArrayList<>();
+            for (Anomaly anomaly : sample) {
+                if (anomaly != null) {
+                    examples.add(anomaly);
+                }
+            }
+            examples.sort(Comparator.comparingDouble(a -> a.time));
+            writer.write("\n# Random sample\n");
+            writeAnomalies(writer, examples);
+        }
+    }
+
+    private static void writeAnomalies(BufferedWriter writer, List<Anomaly> anomalies) throws IOException {
+        writer.write("Kind,VehicleId,LinkId,LeaveTime_s,TravelTime_s,FreeFlowTravelTime_s,Ratio\n");
+        for (Anomaly anomaly : anomalies) {
+            writer.write(anomaly.kind + "," + Id.get(anomaly.vehicle, Vehicle.class) + "," + Id.get(anomaly.link, Link.class)
+                    + "," + anomaly.time + "," + anomaly.travelTime + "," + anomaly.freeFlowTravelTime + "," + anomaly.ratio + "\n");
+        }
+    }
+
+    // Indices of the TOP_K largest non-zero counts, largest first
+    private static List<Integer> mostFrequent(int[] counts) {
+        PriorityQueue<Integer> top = new PriorityQueue<>(TOP_K, Comparator.comparingInt(index -> counts[index]));
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] > 0 && (top.size() < TOP_K || counts[index] > counts[top.peek()])) {
+                if (top.size() == TOP_K) {
+                    top.poll();
+                }
+                top.add(index);
+            }
+        }
+        List<Integer> indices = new ArrayList<>(top);
+        indices.sort(Comparator.comparingInt((Integer index) -> counts[index]).reversed());
+        return indices;
+    }
+
+    private static int numberOfNonZero(int[] counts) {
+        int n = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // File next to a results file, e.g. vehicle_average_delay.csv -> vehicle_average_delay_anomalies.txt
+    public static String reportFileFor(String outputFilePath) {
+        return EventsAnalysisPipeline.siblingFile(outputFilePath, "_anomalies.txt");
+    }
+}
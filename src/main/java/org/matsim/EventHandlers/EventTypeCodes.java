@@ -0,0 +1,61 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+
+// One-byte codes for the event types used by the link and vehicle analyses
+public final class EventTypeCodes {
+
+    public static final byte OTHER = 0;
+    public static final byte LINK_ENTER = 1;
+    public static final byte LINK_LEAVE = 2;
+    public static final byte VEHICLE_ENTERS_TRAFFIC = 3;
+    public static final byte VEHICLE_LEAVES_TRAFFIC = 4;
+
+    private EventTypeCodes() {
+    }
+
+    public static byte fromTypeName(String type) {
+        if (type == null) {
+            return OTHER;
+        }
+        switch (type) {
+            case LinkEnterEvent.EVENT_TYPE:
+                return LINK_ENTER;
+            case LinkLeaveEvent.EVENT_TYPE:
+                return LINK_LEAVE;
+            case VehicleEntersTrafficEvent.EVENT_TYPE:
+                return VEHICLE_ENTERS_TRAFFIC;
+            case VehicleLeavesTrafficEvent.EVENT_TYPE:
+                return VEHICLE_LEAVES_TRAFFIC;
+            default:
+                return OTHER;
+        }
+    }
+
+    public static String toTypeName(byte code) {
+        switch (code) {
+            case LINK_ENTER:
+                return LinkEnterEvent.EVENT_TYPE;
+            case LINK_LEAVE:
+                return LinkLeaveEvent.EVENT_TYPE;
+            case VEHICLE_ENTERS_TRAFFIC:
+                return VehicleEntersTrafficEvent.EVENT_TYPE;
+            case VEHICLE_LEAVES_TRAFFIC:
+                return VehicleLeavesTrafficEvent.EVENT_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    // Enter-type events start a link traversal, leave-type events end one
+    public static boolean isEnter(byte code) {
+        return code == LINK_ENTER || code == VEHICLE_ENTERS_TRAFFIC;
+    }
+
+    public static boolean isLeave(byte code) {
+        return code == LINK_LEAVE || code == VEHICLE_LEAVES_TRAFFIC;
+    }
+}
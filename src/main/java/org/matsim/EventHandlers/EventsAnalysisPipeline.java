@@ -0,0 +1,178 @@
+package EventHandlers;
+
+import org.matsim.EventHandlers.AverageDelayCalculator;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.events.EventsManagerImpl;
+import matsim.analysis.StudyAreaAgentFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+// Reads an events file once and fans every event out to all selected analyzers.
+//
+// Usage:
+//   EventsAnalysisPipeline --network <studyNetwork.xml> --events <output_events.xml(.gz) or events store>
+//                          --output <outputDir> [--analyses congestion,delay,traveltime,...]
+//
+// Without --analyses all registered analyses are run.
+public class EventsAnalysisPipeline {
+
+    // Registered analyses with their CLI name and default output file name
+    public enum Analysis {
+        CONGESTION("congestion", "link_congestion.csv", CongestionAnalyzer::new),
+        DELAY("delay", "vehicle_average_delay.csv", AverageDelayCalculator::new),
+        TRAVEL_TIME("traveltime", "vehicle_average_travel_speeds.csv", AverageTravelTimeCalculator3::new),
+        VEHICLE_ACTIVITY("activity", "output_vehicles_with_activities.txt", VehicleActivityFilter::new),
+        LINK_FILTER("linkfilter", "output_vehicles_with_link_leave.txt", network -> new link_filter()),
+        STUDY_AREA_AGENTS("agents", "agents_in_study_area.csv", StudyAreaAgentFilter::new),
+        LINK_TIME_BINS("timebins", "link_time_bins.csv", LinkTimeBinCube::new);
+
+        private final String cliName;
+        private final String outputFileName;
+        private final Function<Network, EventsAnalyzer> factory;
+
+        Analysis(String cliName, String outputFileName, Function<Network, EventsAnalyzer> factory) {
+            this.cliName = cliName;
+            this.outputFileName = outputFileName;
+            this.factory = factory;
+        }
+
+        public String getCliName() {
+            return cliName;
+        }
+
+        public String getOutputFileName() {
+            return outputFileName;
+        }
+
+        public EventsAnalyzer create(Network network) {
+            return factory.apply(network);
+        }
+
+        public static Analysis fromCliName(String name) {
+            for (Analysis analysis : values()) {
+                if (analysis.cliName.equalsIgnoreCase(name.trim())) {
+                    return analysis;
+                }
+            }
+            throw new IllegalArgumentException("Unknown analysis '" + name + "'. Known analyses: " + cliNames());
+        }
+
+        public static String cliNames() {
+            StringJoiner joiner = new StringJoiner(",");
+            for (Analysis analysis : values()) {
+                joiner.add(analysis.cliName);
+            }
+            return joiner.toString();
+        }
+    }
+
+    private final Network network;
+    private final Map<Analysis, EventsAnalyzer> analyzers = new EnumMap<>(Analysis.class);
+
+    public EventsAnalysisPipeline(Network studyAreaNetwork) {
+        this.network = studyAreaNetwork;
+    }
+
+    public EventsAnalyzer addAnalysis(Analysis analysis) {
+        return analyzers.computeIfAbsent(analysis, a -> a.create(network));
+    }
+
+    // Read the events file once, dispatching every event to all registered analyzers,
+    // then let each analyzer write its results into the output directory
+    public void run(String eventsFile, String outputDirectory) throws IOException {
+        if (analyzers.isEmpty()) {
+            throw new IllegalStateException("No analyses registered");
+        }
+        new File(outputDirectory).mkdirs();
+
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        // The metric presets (congestion, delay, travel time, ...) share one MetricEngine, so that
+        // they cost one handler and one set of enter times however many are selected
+        List<MetricPreset> presets = new ArrayList<>();
+        List<MetricDefinition> metrics = new ArrayList<>();
+        for (EventsAnalyzer analyzer : analyzers.values()) {
+            if (analyzer instanceof MetricPreset) {
+                presets.add((MetricPreset) analyzer);
+                metrics.add(((MetricPreset) analyzer).getMetric());
+            } else {
+                eventsManager.addHandler(analyzer.getEventHandler());
+            }
+        }
+        if (!presets.isEmpty()) {
+            MetricEngine engine = new MetricEngine(network, metrics);
+            for (int i = 0; i < presets.size(); i++) {
+                presets.get(i).shareEngine(engine, i);
+            }
+            eventsManager.addHandler(engine.getEventHandler());
+        }
+
+        long start = System.currentTimeMillis();
+        if (EventsStore.isStore(eventsFile)) {
+            EventsStore.open(eventsFile).replay(eventsManager);
+        } else {
+            // Decompression and parsing run on their own threads, the analyzers on this one
+            PipelinedEventsReader reader = new PipelinedEventsReader(eventsManager);
+            reader.readFile(eventsFile);
+            reader.printStatistics();
+        }
+        System.out.println("Read events for " + analyzers.size() + " analyses in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s");
+
+        for (Map.Entry<Analysis, EventsAnalyzer> entry : analyzers.entrySet()) {
+            String outputFile = new File(outputDirectory, entry.getKey().getOutputFileName()).getPath();
+            entry.getValue().writeResults(outputFile);
+            System.out.println(entry.getKey().getCliName() + " results written to: " + outputFile);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseArguments(args);
+        String networkFile = options.get("network");
+        String eventsFile = options.get("events");
+        String outputDirectory = options.get("output");
+        if (networkFile == null || eventsFile == null || outputDirectory == null) {
+            System.err.println("Usage: EventsAnalysisPipeline --network <file> --events <file> --output <dir>"
+                    + " [--analyses " + Analysis.cliNames() + "]");
+            System.exit(1);
+        }
+
+        Network studyAreaNetwork = NetworkLoader.load(networkFile);
+
+        EventsAnalysisPipeline pipeline = new EventsAnalysisPipeline(studyAreaNetwork);
+        String selection = options.get("analyses");
+        if (selection == null) {
+            for (Analysis analysis : Analysis.values()) {
+                pipeline.addAnalysis(analysis);
+            }
+        } else {
+            for (String name : selection.split(",")) {
+                pipeline.addAnalysis(Analysis.fromCliName(name));
+            }
+        }
+
+        pipeline.run(eventsFile, outputDirectory);
+    }
+
+    // Parse "--key value" pairs
+    static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected '--key value' pairs, got: " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    // Name of a file written next to a results file: the results file without its extension plus the suffix
+    static String siblingFile(String outputFilePath, String suffix) {
+        int extension = outputFilePath.lastIndexOf('.');
+        int separator = Math.max(outputFilePath.lastIndexOf('/'), outputFilePath.lastIndexOf('\\'));
+        String base = extension > separator ? outputFilePath.substring(0, extension) : outputFilePath;
+        return base + suffix;
+    }
+}
@@ -0,0 +1,14 @@
+package EventHandlers;
+
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.IOException;
+
+// An analysis that can share a single pass over an events file with other analyses:
+// it exposes its event handler and writes its results once all events have been read.
+public interface EventsAnalyzer {
+
+    EventHandler getEventHandler();
+
+    void writeResults(String outputFilePath) throws IOException;
+}
@@ -0,0 +1,394 @@
+package EventHandlers;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+// Pull scanner over the raw bytes of an events XML file (plain or gzipped).
+//
+// Every call to next() moves to the next <event .../> tag and decodes its time, type, link,
+// vehicle, person and networkMode attributes in place: attribute names are matched as bytes,
+// times are parsed without creating Strings and ids are resolved to dense indices through
+// IdInterners. Apart from the first occurrence of an id nothing is allocated per event.
+//
+//   try (EventsScanner scanner = EventsScanner.open(eventsFile)) {
+//       while (scanner.next()) {
+//           if (scanner.getType() == EventTypeCodes.LINK_ENTER) { ... scanner.getLink() ... }
+//       }
+//   }
+public class EventsScanner implements Closeable {
+
+    private static final byte[] EVENT_TAG = "<event ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME = ascii("time");
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] LINK = ascii("link");
+    private static final byte[] VEHICLE = ascii("vehicle");
+    private static final byte[] PERSON = ascii("person");
+    private static final byte[] NETWORK_MODE = ascii("networkMode");
+    private static final byte[] LINK_ENTER = ascii("entered link");
+    private static final byte[] LINK_LEAVE = ascii("left link");
+    private static final byte[] VEHICLE_ENTERS_TRAFFIC = ascii("vehicle enters traffic");
+    private static final byte[] VEHICLE_LEAVES_TRAFFIC = ascii("vehicle leaves traffic");
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private final InputStream in;
+    private final IdInterner linkIds;
+    private final IdInterner vehicleIds;
+    private final IdInterner personIds;
+    private final IdInterner modeIds;
+
+    private byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private long bufferOffset; // offset of buffer[0] in the underlying stream
+    private boolean endOfInput = false;
+
+    // Attributes of the current event; -1 / NaN when absent
+    private long eventOffset;
+    private double time;
+    private byte type;
+    private int typeStart;
+    private int typeLength;
+    private int link;
+    private int vehicle;
+    private int person;
+    private int mode;
+
+    public EventsScanner(InputStream in, long startOffset, IdInterner linkIds, IdInterner vehicleIds,
+                         IdInterner personIds, IdInterner modeIds) {
+        this.in = in;
+        this.bufferOffset = startOffset;
+        this.linkIds = linkIds;
+        this.vehicleIds = vehicleIds;
+        this.personIds = personIds;
+        this.modeIds = modeIds;
+    }
+
+    public EventsScanner(InputStream in) {
+        this(in, 0, new IdInterner(), new IdInterner(), new IdInterner(), new IdInterner(16));
+    }
+
+    // Scanner over an events file; files ending in .gz are decompressed on the fly
+    public static EventsScanner open(String eventsFile) throws IOException {
+        return new EventsScanner(openStream(eventsFile));
+    }
+
+    // Scanner that starts at an offset of the uncompressed events, e.g. one from an EventsTimeIndex
+    public static EventsScanner open(String eventsFile, long offset) throws IOException {
+        InputStream in = openStream(eventsFile);
+        long skipped = 0;
+        while (skipped < offset) {
+            long n = in.skip(offset - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    in.close();
+                    throw new EOFException("Offset " + offset + " is behind the end of " + eventsFile);
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+        return new EventsScanner(in, offset, new IdInterner(), new IdInterner(), new IdInterner(), new IdInterner(16));
+    }
+
+    public static InputStream openStream(String eventsFile) throws IOException {
+        InputStream in = new FileInputStream(eventsFile);
+        return eventsFile.endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    // Scanner over a (memory-mapped) slice of an events file starting at the given file offset
+    public static EventsScanner of(ByteBuffer slice, long startOffset) {
+        return new EventsScanner(new ByteBufferInputStream(slice), startOffset, new IdInterner(), new IdInterner(),
+                new IdInterner(), new IdInterner(16));
+    }
+
+    // Move to the next event; returns false at the end of the input
+    public boolean next() throws IOException {
+        while (true) {
+            int start = indexOf(EVENT_TAG, position);
+            if (start < 0) {
+                if (endOfInput) {
+                    position = limit;
+                    return false;
+                }
+                // keep a possible partial "<event " at the end of the buffer
+                fill(Math.max(position, limit - EVENT_TAG.length + 1));
+                continue;
+            }
+            int end = indexOf((byte) '>', start + EVENT_TAG.length);
+            if (end < 0) {
+                if (endOfInput) {
+                    position = limit;
+                    return false;
+                }
+                fill(start);
+                continue;
+            }
+            parseTag(start, end);
+            position = end + 1;
+            return true;
+        }
+    }
+
+    // Offset of the current event's "<event" in the underlying (uncompressed) stream
+    public long getEventOffset() {
+        return eventOffset;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    // Type as one of the EventTypeCodes; types without a code are EventTypeCodes.OTHER
+    public byte getType() {
+        return type;
+    }
+
+    // Compare the raw type attribute, e.g. for event types without an EventTypeCodes constant
+    public boolean isType(byte[] typeName) {
+        return typeStart >= 0 && equals(buffer, typeStart, typeLength, typeName);
+    }
+
+    public int getLink() {
+        return link;
+    }
+
+    public int getVehicle() {
+        return vehicle;
+    }
+
+    public int getPerson() {
+        return person;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public IdInterner getLinkIds() {
+        return linkIds;
+    }
+
+    public IdInterner getVehicleIds() {
+        return vehicleIds;
+    }
+
+    public IdInterner getPersonIds() {
+        return personIds;
+    }
+
+    public IdInterner getModeIds() {
+        return modeIds;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void parseTag(int start, int end) {
+        eventOffset = bufferOffset + start;
+        time = Double.NaN;
+        type = EventTypeCodes.OTHER;
+        typeStart = -1;
+        typeLength = 0;
+        link = -1;
+        vehicle = -1;
+        person = -1;
+        mode = -1;
+
+        int i = start + EVENT_TAG.length;
+        while (i < end) {
+            // attribute name
+            while (i < end && isWhitespace(buffer[i])) i++;
+            int nameStart = i;
+            while (i < end && buffer[i] != '=' && !isWhitespace(buffer[i]) && buffer[i] != '/') i++;
+            int nameLength = i - nameStart;
+            while (i < end && buffer[i] != '"' && buffer[i] != '\'') {
+                if (buffer[i] == '/') return;
+                i++;
+            }
+            if (i >= end || nameLength == 0) return;
+
+            // attribute value
+            byte quote = buffer[i++];
+            int valueStart = i;
+            while (i < end && buffer[i] != quote) i++;
+            int valueLength = i - valueStart;
+            i++;
+
+            handleAttribute(nameStart, nameLength, valueStart, valueLength);
+        }
+    }
+
+    private void handleAttribute(int nameStart, int nameLength, int valueStart, int valueLength) {
+        switch (nameLength) {
+            case 4:
+                if (equals(buffer, nameStart, nameLength, TIME)) {
+                    time = parseDouble(buffer, valueStart, valueLength);
+                } else if (equals(buffer, nameStart, nameLength, TYPE)) {
+                    typeStart = valueStart;
+                    typeLength = valueLength;
+                    type = parseType(valueStart, valueLength);
+                } else if (equals(buffer, nameStart, nameLength, LINK)) {
+                    link = linkIds.intern(buffer, valueStart, valueLength);
+                }
+                break;
+            case 6:
+                if (equals(buffer, nameStart, nameLength, PERSON)) {
+                    person = personIds.intern(buffer, valueStart, valueLength);
+                }
+                break;
+            case 7:
+                if (equals(buffer, nameStart, nameLength, VEHICLE)) {
+                    vehicle = vehicleIds.intern(buffer, valueStart, valueLength);
+                }
+                break;
+            case 11:
+                if (equals(buffer, nameStart, nameLength, NETWORK_MODE)) {
+                    mode = modeIds.intern(buffer, valueStart, valueLength);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private byte parseType(int start, int length) {
+        if (equals(buffer, start, length, LINK_ENTER)) return EventTypeCodes.LINK_ENTER;
+        if (equals(buffer, start, length, LINK_LEAVE)) return EventTypeCodes.LINK_LEAVE;
+        if (equals(buffer, start, length, VEHICLE_ENTERS_TRAFFIC)) return EventTypeCodes.VEHICLE_ENTERS_TRAFFIC;
+        if (equals(buffer, start, length, VEHICLE_LEAVES_TRAFFIC)) return EventTypeCodes.VEHICLE_LEAVES_TRAFFIC;
+        return EventTypeCodes.OTHER;
+    }
+
+    // Parses plain decimals such as "28800.0" without allocating; other notations fall back to Double.parseDouble
+    static double parseDouble(byte[] bytes, int start, int length) {
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) digits++;
+                if (fraction) fractionDigits++;
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                // exponent, "Infinity", "NaN", ...
+                return Double.parseDouble(new String(bytes, start, length, StandardCharsets.US_ASCII));
+            }
+        }
+        if (digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            // not exactly representable as mantissa / 10^n
+            return Double.parseDouble(new String(bytes, start, length, StandardCharsets.US_ASCII));
+        }
+        if (i == start || (fraction && i == start + 1)) {
+            return Double.NaN;
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private int indexOf(byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= limit - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(byte value, int from) {
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Drop everything before keepFrom and read more input behind the remaining bytes
+    private void fill(int keepFrom) throws IOException {
+        int remaining = limit - keepFrom;
+        if (keepFrom > 0) {
+            System.arraycopy(buffer, keepFrom, buffer, 0, remaining);
+            bufferOffset += keepFrom;
+        } else if (remaining == buffer.length) {
+            // a single tag longer than the buffer
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, remaining);
+            buffer = larger;
+        }
+        position = 0;
+        limit = remaining;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private static boolean equals(byte[] bytes, int start, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+}
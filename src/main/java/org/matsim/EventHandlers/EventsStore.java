@@ -0,0 +1,180 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsReaderXMLv1;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+// Read-only, memory-mapped view of a columnar events store written by EventsStoreWriter.
+//
+// Each event is one row spread over six column files: time (float), type (byte, see
+// EventTypeCodes), link, vehicle and person (int indices into the dictionaries) and network
+// mode (byte index). Absent ids are stored as -1. A single column is limited to 2 GB, i.e.
+// roughly 500 million events.
+public class EventsStore {
+
+    static final int VERSION = 1;
+    static final String META_FILE = "store.properties";
+    static final String TIME_COLUMN = "time.f32";
+    static final String TYPE_COLUMN = "type.i8";
+    static final String LINK_COLUMN = "link.i32";
+    static final String VEHICLE_COLUMN = "vehicle.i32";
+    static final String PERSON_COLUMN = "person.i32";
+    static final String MODE_COLUMN = "mode.i8";
+    static final String LINK_DICTIONARY = "links.txt";
+    static final String VEHICLE_DICTIONARY = "vehicles.txt";
+    static final String PERSON_DICTIONARY = "persons.txt";
+    static final String MODE_DICTIONARY = "modes.txt";
+
+    private final int size;
+    private final MappedByteBuffer times;
+    private final MappedByteBuffer types;
+    private final MappedByteBuffer links;
+    private final MappedByteBuffer vehicles;
+    private final MappedByteBuffer persons;
+    private final MappedByteBuffer modes;
+
+    private final String[] linkIds;
+    private final String[] vehicleIds;
+    private final String[] personIds;
+    private final String[] modeNames;
+
+    // MATSim events are only created when events are replayed
+    private IndexedEventFactory eventFactory;
+
+    private EventsStore(File directory) throws IOException {
+        Properties meta = new Properties();
+        try (InputStream in = new FileInputStream(new File(directory, META_FILE))) {
+            meta.load(in);
+        }
+        int version = Integer.parseInt(meta.getProperty("version"));
+        if (version != VERSION) {
+            throw new IOException("Unsupported events store version " + version + " in " + directory);
+        }
+        long events = Long.parseLong(meta.getProperty("events"));
+        if (events > Integer.MAX_VALUE / Integer.BYTES) {
+            throw new IOException("Events store " + directory + " is too large to be memory-mapped (" + events + " events)");
+        }
+        this.size = (int) events;
+
+        times = map(new File(directory, TIME_COLUMN), (long) size * Float.BYTES);
+        types = map(new File(directory, TYPE_COLUMN), size);
+        links = map(new File(directory, LINK_COLUMN), (long) size * Integer.BYTES);
+        vehicles = map(new File(directory, VEHICLE_COLUMN), (long) size * Integer.BYTES);
+        persons = map(new File(directory, PERSON_COLUMN), (long) size * Integer.BYTES);
+        modes = map(new File(directory, MODE_COLUMN), size);
+
+        linkIds = readDictionary(new File(directory, LINK_DICTIONARY));
+        vehicleIds = readDictionary(new File(directory, VEHICLE_DICTIONARY));
+        personIds = readDictionary(new File(directory, PERSON_DICTIONARY));
+        modeNames = readDictionary(new File(directory, MODE_DICTIONARY));
+    }
+
+    public static EventsStore open(String directory) throws IOException {
+        return new EventsStore(new File(directory));
+    }
+
+    // A path is a store if it is a directory containing the store meta file
+    public static boolean isStore(String path) {
+        File file = new File(path);
+        return file.isDirectory() && new File(file, META_FILE).isFile();
+    }
+
+    // Feed all events from either a store directory or an events XML file into the events manager
+    public static void readEvents(String eventsFileOrStore, EventsManager eventsManager) throws IOException {
+        if (isStore(eventsFileOrStore)) {
+            open(eventsFileOrStore).replay(eventsManager);
+        } else {
+            new EventsReaderXMLv1(eventsManager).readFile(eventsFileOrStore);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long expectedLength) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() != expectedLength) {
+                throw new IOException("Column " + file + " has " + channel.size() + " bytes, expected " + expectedLength);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedLength);
+        }
+    }
+
+    private static String[] readDictionary(File file) throws IOException {
+        List<String> values = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        return values.toArray(new String[0]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getTime(int row) {
+        return times.getFloat(row * Float.BYTES);
+    }
+
+    public byte getType(int row) {
+        return types.get(row);
+    }
+
+    public int getLink(int row) {
+        return links.getInt(row * Integer.BYTES);
+    }
+
+    public int getVehicle(int row) {
+        return vehicles.getInt(row * Integer.BYTES);
+    }
+
+    public int getPerson(int row) {
+        return persons.getInt(row * Integer.BYTES);
+    }
+
+    public int getMode(int row) {
+        return modes.get(row);
+    }
+
+    public int getNumberOfLinks() {
+        return linkIds.length;
+    }
+
+    public int getNumberOfVehicles() {
+        return vehicleIds.length;
+    }
+
+    public String getLinkId(int link) {
+        return linkIds[link];
+    }
+
+    public String getVehicleId(int vehicle) {
+        return vehicleIds[vehicle];
+    }
+
+    public String getPersonId(int person) {
+        return person < 0 ? null : personIds[person];
+    }
+
+    public String getModeName(int mode) {
+        return mode < 0 ? null : modeNames[mode];
+    }
+
+    // Turn every row back into a MATSim event and hand it to the events manager
+    public void replay(EventsManager eventsManager) {
+        for (int row = 0; row < size; row++) {
+            eventsManager.processEvent(toEvent(row));
+        }
+    }
+
+    // Rebuild the MATSim event stored in a row; ids are created once per dictionary entry
+    public Event toEvent(int row) {
+        if (eventFactory == null) {
+            eventFactory = new IndexedEventFactory(this::getLinkId, this::getVehicleId, this::getPersonId, this::getModeName);
+        }
+        return eventFactory.createEvent(getType(row), getTime(row), getLink(row), getVehicle(row),
+                getPerson(row), getMode(row));
+    }
+}
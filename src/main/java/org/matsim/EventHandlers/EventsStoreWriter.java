@@ -0,0 +1,194 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.EventsReaderXMLv1;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Converts an output_events.xml(.gz) into the columnar binary store read by EventsStore.
+// Only link enter/leave and vehicle enters/leaves traffic events are kept, since these are
+// the only events the link and vehicle analyses look at.
+//
+// Usage: EventsStoreWriter <output_events.xml(.gz)> <storeDirectory>
+public class EventsStoreWriter implements
+        LinkEnterEventHandler,
+        LinkLeaveEventHandler,
+        VehicleEntersTrafficEventHandler,
+        VehicleLeavesTrafficEventHandler,
+        Closeable {
+
+    private final File storeDirectory;
+    private final DataOutputStream timeColumn;
+    private final DataOutputStream typeColumn;
+    private final DataOutputStream linkColumn;
+    private final DataOutputStream vehicleColumn;
+    private final DataOutputStream personColumn;
+    private final DataOutputStream modeColumn;
+
+    private final Dictionary links = new Dictionary();
+    private final Dictionary vehicles = new Dictionary();
+    private final Dictionary persons = new Dictionary();
+    private final Dictionary modes = new Dictionary();
+    private long numberOfEvents = 0;
+
+    public EventsStoreWriter(String storeDirectory) throws IOException {
+        this.storeDirectory = new File(storeDirectory);
+        if (!this.storeDirectory.isDirectory() && !this.storeDirectory.mkdirs()) {
+            throw new IOException("Could not create store directory " + storeDirectory);
+        }
+        timeColumn = openColumn(EventsStore.TIME_COLUMN);
+        typeColumn = openColumn(EventsStore.TYPE_COLUMN);
+        linkColumn = openColumn(EventsStore.LINK_COLUMN);
+        vehicleColumn = openColumn(EventsStore.VEHICLE_COLUMN);
+        personColumn = openColumn(EventsStore.PERSON_COLUMN);
+        modeColumn = openColumn(EventsStore.MODE_COLUMN);
+    }
+
+    private DataOutputStream openColumn(String name) throws FileNotFoundException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(storeDirectory, name)), 1 << 16));
+    }
+
+    // Append a single event row; ids are interned into dense per-store indices. The mode column
+    // has one byte per row, so a store holds at most Byte.MAX_VALUE + 1 modes.
+    public void append(byte type, double time, String linkId, String vehicleId, String personId, String mode) {
+        int modeIndex = modes.intern(mode);
+        if (modeIndex > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("An events store holds at most " + (Byte.MAX_VALUE + 1)
+                    + " modes, cannot add mode " + mode);
+        }
+        try {
+            timeColumn.writeFloat((float) time);
+            typeColumn.writeByte(type);
+            linkColumn.writeInt(links.intern(linkId));
+            vehicleColumn.writeInt(vehicles.intern(vehicleId));
+            personColumn.writeInt(persons.intern(personId));
+            modeColumn.writeByte(modeIndex);
+            numberOfEvents++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+        append(EventTypeCodes.LINK_ENTER, event.getTime(), event.getLinkId().toString(),
+                event.getVehicleId().toString(), null, null);
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+        append(EventTypeCodes.LINK_LEAVE, event.getTime(), event.getLinkId().toString(),
+                event.getVehicleId().toString(), null, null);
+    }
+
+    @Override
+    public void handleEvent(VehicleEntersTrafficEvent event) {
+        append(EventTypeCodes.VEHICLE_ENTERS_TRAFFIC, event.getTime(), event.getLinkId().toString(),
+                event.getVehicleId().toString(), idToString(event.getPersonId()), event.getNetworkMode());
+    }
+
+    @Override
+    public void handleEvent(VehicleLeavesTrafficEvent event) {
+        append(EventTypeCodes.VEHICLE_LEAVES_TRAFFIC, event.getTime(), event.getLinkId().toString(),
+                event.getVehicleId().toString(), idToString(event.getPersonId()), event.getNetworkMode());
+    }
+
+    private static String idToString(Id<?> id) {
+        return id == null ? null : id.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        timeColumn.close();
+        typeColumn.close();
+        linkColumn.close();
+        vehicleColumn.close();
+        personColumn.close();
+        modeColumn.close();
+
+        links.write(new File(storeDirectory, EventsStore.LINK_DICTIONARY));
+        vehicles.write(new File(storeDirectory, EventsStore.VEHICLE_DICTIONARY));
+        persons.write(new File(storeDirectory, EventsStore.PERSON_DICTIONARY));
+        modes.write(new File(storeDirectory, EventsStore.MODE_DICTIONARY));
+
+        // The meta file is written last, so an interrupted conversion is not mistaken for a store
+        Properties meta = new Properties();
+        meta.setProperty("version", Integer.toString(EventsStore.VERSION));
+        meta.setProperty("events", Long.toString(numberOfEvents));
+        try (OutputStream out = new FileOutputStream(new File(storeDirectory, EventsStore.META_FILE))) {
+            meta.store(out, "columnar events store");
+        }
+    }
+
+    public long getNumberOfEvents() {
+        return numberOfEvents;
+    }
+
+    // Convert an events XML file into a store directory
+    public static long convert(String eventsFile, String storeDirectory) throws IOException {
+        try (EventsStoreWriter writer = new EventsStoreWriter(storeDirectory)) {
+            EventsManagerImpl eventsManager = new EventsManagerImpl();
+            eventsManager.addHandler(writer);
+            new EventsReaderXMLv1(eventsManager).readFile(eventsFile);
+            return writer.getNumberOfEvents();
+        }
+    }
+
+    // Interns strings into dense indices in first-seen order; null maps to -1. The dictionary
+    // files have one value per line, so values cannot contain line breaks.
+    private static class Dictionary {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = indices.get(value);
+            if (index == null) {
+                if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    throw new IllegalArgumentException("Id '" + value + "' with a line break cannot be stored");
+                }
+                index = values.size();
+                indices.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+
+        void write(File file) throws IOException {
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                for (String value : values) {
+                    writer.write(value);
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: EventsStoreWriter <output_events.xml(.gz)> <storeDirectory>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        long events = convert(args[0], args[1]);
+        System.out.println("Wrote " + events + " events to " + args[1] + " in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s");
+    }
+}
@@ -0,0 +1,137 @@
+package EventHandlers;
+
+import java.io.*;
+import java.util.Arrays;
+
+// Sidecar index of an events XML file that maps time bins to the offset of the first event in
+// the bin, so analyses of a time window can skip straight to it. The index is stored next to the
+// events file as <events file>.tidx and is only valid as long as the events file keeps its size
+// and modification time.
+//
+// Offsets refer to the uncompressed events. Plain files are seeked, gzipped files still have to
+// be decompressed up to the offset, but the skipped part is not parsed.
+public class EventsTimeIndex {
+
+    static final int VERSION = 1;
+    static final String SUFFIX = ".tidx";
+    static final double DEFAULT_BIN_SIZE = 300; // 5 minutes
+
+    private final long fileSize;
+    private final long lastModified;
+    private final double binSize;
+    private final long[] offsets; // offset of the first event with time >= bin * binSize
+
+    private EventsTimeIndex(long fileSize, long lastModified, double binSize, long[] offsets) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.binSize = binSize;
+        this.offsets = offsets;
+    }
+
+    // Scan the events file once and record the offset at which every time bin starts
+    public static EventsTimeIndex build(String eventsFile, double binSize) throws IOException {
+        File file = new File(eventsFile);
+        long[] offsets = new long[(int) Math.ceil(30 * 3600 / binSize)];
+        int bins = 0;
+        try (EventsScanner scanner = EventsScanner.open(eventsFile)) {
+            while (scanner.next()) {
+                double time = scanner.getTime();
+                if (Double.isNaN(time)) {
+                    continue;
+                }
+                int bin = (int) Math.max(0, Math.floor(time / binSize));
+                if (bin >= bins) {
+                    if (bin >= offsets.length) {
+                        offsets = Arrays.copyOf(offsets, Math.max(bin + 1, offsets.length * 2));
+                    }
+                    // empty bins start where the next event is
+                    Arrays.fill(offsets, bins, bin + 1, scanner.getEventOffset());
+                    bins = bin + 1;
+                }
+            }
+        }
+        return new EventsTimeIndex(file.length(), file.lastModified(), binSize, Arrays.copyOf(offsets, bins));
+    }
+
+    // The index stored next to the events file, or null if there is none or it is out of date
+    public static EventsTimeIndex load(String eventsFile) throws IOException {
+        File indexFile = new File(eventsFile + SUFFIX);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                return null;
+            }
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            double binSize = in.readDouble();
+            long[] offsets = new long[in.readInt()];
+            for (int bin = 0; bin < offsets.length; bin++) {
+                offsets[bin] = in.readLong();
+            }
+            EventsTimeIndex index = new EventsTimeIndex(fileSize, lastModified, binSize, offsets);
+            return index.isValidFor(eventsFile) ? index : null;
+        }
+    }
+
+    // Load the index of the events file, building and storing it first if necessary
+    public static EventsTimeIndex loadOrBuild(String eventsFile) throws IOException {
+        EventsTimeIndex index = load(eventsFile);
+        if (index == null) {
+            index = build(eventsFile, DEFAULT_BIN_SIZE);
+            index.write(eventsFile + SUFFIX);
+        }
+        return index;
+    }
+
+    public void write(String indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeDouble(binSize);
+            out.writeInt(offsets.length);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    public boolean isValidFor(String eventsFile) {
+        File file = new File(eventsFile);
+        return file.length() == fileSize && file.lastModified() == lastModified;
+    }
+
+    // Offset from which all events with a time >= the given time are read; earlier events of the
+    // same bin are included and have to be filtered by the caller
+    public long getOffset(double time) {
+        if (offsets.length == 0) {
+            return 0;
+        }
+        int bin = (int) Math.max(0, Math.min(offsets.length - 1, Math.floor(time / binSize)));
+        return offsets[bin];
+    }
+
+    public double getBinSize() {
+        return binSize;
+    }
+
+    public int getNumberOfBins() {
+        return offsets.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: EventsTimeIndex <events.xml[.gz]> [binSizeSeconds]");
+            System.exit(1);
+        }
+        double binSize = args.length == 2 ? Double.parseDouble(args[1]) : DEFAULT_BIN_SIZE;
+        long start = System.currentTimeMillis();
+        EventsTimeIndex index = build(args[0], binSize);
+        index.write(args[0] + SUFFIX);
+        System.out.println("Indexed " + index.getNumberOfBins() + " time bins of " + args[0] + " in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s");
+    }
+}
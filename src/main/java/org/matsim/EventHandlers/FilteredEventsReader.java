@@ -0,0 +1,176 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.api.experimental.events.EventsManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+// Events reader that evaluates link, event type and time filters on the raw scanned values and
+// only creates MATSim events for the events that pass. Only the event types in EventTypeCodes can
+// be materialized; other events are always skipped.
+//
+// Reads both events XML files (plain or gzipped) and stores written by EventsStoreWriter. With a
+// time window, reading starts at the window: XML files are entered through their EventsTimeIndex
+// if one exists, stores through a binary search on the time column.
+//
+//   new FilteredEventsReader(eventsManager)
+//           .setLinks(studyAreaLinks)
+//           .setEventTypes(EventTypeCodes.LINK_ENTER, EventTypeCodes.LINK_LEAVE)
+//           .setTimeWindow(15 * 3600, 17 * 3600)
+//           .readFile(eventsFile);
+public class FilteredEventsReader {
+
+    private static final byte UNKNOWN_LINK = 0;
+    private static final byte ACCEPTED_LINK = 1;
+    private static final byte REJECTED_LINK = 2;
+
+    private final EventsManager eventsManager;
+    private List<String> linkIds = null; // null: all links
+    private final boolean[] acceptedTypes = new boolean[EventTypeCodes.VEHICLE_LEAVES_TRAFFIC + 1];
+    private double startTime = Double.NEGATIVE_INFINITY;
+    private double endTime = Double.POSITIVE_INFINITY;
+
+    public FilteredEventsReader(EventsManager eventsManager) {
+        this.eventsManager = eventsManager;
+        setEventTypes(EventTypeCodes.LINK_ENTER, EventTypeCodes.LINK_LEAVE,
+                EventTypeCodes.VEHICLE_ENTERS_TRAFFIC, EventTypeCodes.VEHICLE_LEAVES_TRAFFIC);
+    }
+
+    // Only pass events on these links
+    public FilteredEventsReader setLinks(Collection<? extends Id> links) {
+        linkIds = new ArrayList<>(links.size());
+        for (Id link : links) {
+            linkIds.add(link.toString());
+        }
+        return this;
+    }
+
+    // Only pass events of these EventTypeCodes
+    public FilteredEventsReader setEventTypes(byte... types) {
+        Arrays.fill(acceptedTypes, false);
+        for (byte type : types) {
+            if (type <= EventTypeCodes.OTHER || type >= acceptedTypes.length) {
+                throw new IllegalArgumentException("Event type code " + type + " cannot be read as a MATSim event");
+            }
+            acceptedTypes[type] = true;
+        }
+        return this;
+    }
+
+    // Only pass events with startTime <= time <= endTime
+    public FilteredEventsReader setTimeWindow(double startTime, double endTime) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        return this;
+    }
+
+    public void readFile(String eventsFileOrStore) {
+        try {
+            if (EventsStore.isStore(eventsFileOrStore)) {
+                readStore(EventsStore.open(eventsFileOrStore));
+            } else {
+                try (EventsScanner scanner = EventsScanner.open(eventsFileOrStore, startOffset(eventsFileOrStore))) {
+                    readEvents(scanner);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read events from " + eventsFileOrStore, e);
+        }
+    }
+
+    private long startOffset(String eventsFile) throws IOException {
+        if (startTime == Double.NEGATIVE_INFINITY) {
+            return 0;
+        }
+        EventsTimeIndex index = EventsTimeIndex.load(eventsFile);
+        return index == null ? 0 : index.getOffset(startTime);
+    }
+
+    void readEvents(EventsScanner scanner) throws IOException {
+        // Membership is decided once per interned link, on the decoded id, since the same id can be
+        // written with different entities and character references
+        Set<String> filterLinks = linkIds == null ? null : new HashSet<>(linkIds);
+        byte[] linkStates = new byte[filterLinks == null ? 0 : 1024];
+        IndexedEventFactory eventFactory = new IndexedEventFactory(scanner);
+
+        while (scanner.next()) {
+            // the time first, so that reading stops at the end of the window even when no
+            // event passes the other filters
+            double time = scanner.getTime();
+            if (time > endTime) {
+                // events files are sorted by time
+                break;
+            }
+            if (time < startTime) {
+                continue;
+            }
+            byte type = scanner.getType();
+            if (!acceptedTypes[type]) {
+                continue;
+            }
+            int link = scanner.getLink();
+            if (link < 0) {
+                continue;
+            }
+            if (filterLinks != null) {
+                if (link >= linkStates.length) {
+                    linkStates = Arrays.copyOf(linkStates, Math.max(link + 1, linkStates.length * 2));
+                }
+                if (linkStates[link] == UNKNOWN_LINK) {
+                    linkStates[link] = filterLinks.contains(scanner.getLinkIds().toString(link)) ? ACCEPTED_LINK : REJECTED_LINK;
+                }
+                if (linkStates[link] == REJECTED_LINK) {
+                    continue;
+                }
+            }
+            eventsManager.processEvent(eventFactory.createEvent(scanner));
+        }
+    }
+
+    private void readStore(EventsStore store) {
+        BitSet links = null;
+        if (linkIds != null) {
+            links = new BitSet(store.getNumberOfLinks());
+            Map<String, Integer> linkIndices = new HashMap<>();
+            for (int link = 0; link < store.getNumberOfLinks(); link++) {
+                linkIndices.put(store.getLinkId(link), link);
+            }
+            for (String linkId : linkIds) {
+                Integer index = linkIndices.get(linkId);
+                if (index != null) {
+                    links.set(index);
+                }
+            }
+        }
+
+        for (int row = firstRowAtOrAfter(store, startTime); row < store.size(); row++) {
+            if (store.getTime(row) > endTime) {
+                break;
+            }
+            if (!acceptedTypes[store.getType(row)]) {
+                continue;
+            }
+            if (links != null && !links.get(store.getLink(row))) {
+                continue;
+            }
+            eventsManager.processEvent(store.toEvent(row));
+        }
+    }
+
+    // Rows are sorted by time, so the first row of the window can be found by binary search
+    private static int firstRowAtOrAfter(EventsStore store, double time) {
+        int low = 0;
+        int high = store.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (store.getTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,268 @@
+package EventHandlers;
+
+import org.locationtech.jts.geom.*;
+
+import java.util.*;
+
+// Reads the polygons of a GeoJSON document (FeatureCollection, Feature, GeometryCollection,
+// Polygon or MultiPolygon) into JTS geometries; other geometry types are skipped. Coordinates are
+// taken as they are, so the file has to use the coordinate system of the network.
+class GeoJsonPolygons {
+
+    private final String json;
+    private int position = 0;
+
+    private GeoJsonPolygons(String json) {
+        this.json = json;
+    }
+
+    static List<Polygon> read(String json, GeometryFactory geometryFactory) {
+        GeoJsonPolygons parser = new GeoJsonPolygons(json);
+        Object document = parser.parseValue();
+        parser.skipWhitespace();
+        if (parser.position < json.length()) {
+            throw parser.error("Unexpected content after the document");
+        }
+        List<Polygon> polygons = new ArrayList<>();
+        collectPolygons(document, geometryFactory, polygons);
+        return polygons;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectPolygons(Object node, GeometryFactory geometryFactory, List<Polygon> polygons) {
+        if (!(node instanceof Map)) {
+            return;
+        }
+        Map<String, Object> object = (Map<String, Object>) node;
+        Object type = object.get("type");
+        if ("FeatureCollection".equals(type)) {
+            for (Object feature : array(object.getOrDefault("features", Collections.emptyList()), "features")) {
+                collectPolygons(feature, geometryFactory, polygons);
+            }
+        } else if ("Feature".equals(type)) {
+            collectPolygons(object.get("geometry"), geometryFactory, polygons);
+        } else if ("GeometryCollection".equals(type)) {
+            for (Object geometry : array(object.getOrDefault("geometries", Collections.emptyList()), "geometries")) {
+                collectPolygons(geometry, geometryFactory, polygons);
+            }
+        } else if ("Polygon".equals(type)) {
+            polygons.add(polygon(array(object.get("coordinates"), "Polygon coordinates"), geometryFactory));
+        } else if ("MultiPolygon".equals(type)) {
+            for (Object rings : array(object.get("coordinates"), "MultiPolygon coordinates")) {
+                polygons.add(polygon(array(rings, "MultiPolygon coordinates"), geometryFactory));
+            }
+        }
+    }
+
+    // First ring is the shell, the others are holes
+    private static Polygon polygon(List<Object> rings, GeometryFactory geometryFactory) {
+        if (rings.isEmpty()) {
+            throw invalid("Polygon without rings");
+        }
+        LinearRing shell = ring(array(rings.get(0), "ring"), geometryFactory);
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 1; i < rings.size(); i++) {
+            holes[i - 1] = ring(array(rings.get(i), "ring"), geometryFactory);
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    // Rings have to be closed and have at least 4 positions, which JTS checks
+    private static LinearRing ring(List<Object> positions, GeometryFactory geometryFactory) {
+        Coordinate[] coordinates = new Coordinate[positions.size()];
+        for (int i = 0; i < coordinates.length; i++) {
+            List<Object> position = array(positions.get(i), "position");
+            if (position.size() < 2 || !(position.get(0) instanceof Double) || !(position.get(1) instanceof Double)) {
+                throw invalid("Expected a position of at least two numbers, got " + position);
+            }
+            coordinates[i] = new Coordinate((Double) position.get(0), (Double) position.get(1));
+        }
+        return geometryFactory.createLinearRing(coordinates);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Object value, String what) {
+        if (!(value instanceof List)) {
+            throw invalid("Expected an array of " + what + ", got " + value);
+        }
+        return (List<Object>) value;
+    }
+
+    private static IllegalArgumentException invalid(String message) {
+        return new IllegalArgumentException(message + " in the GeoJSON document");
+    }
+
+    // A minimal JSON parser: objects become maps, arrays lists and numbers doubles
+
+    private Object parseValue() {
+        skipWhitespace();
+        if (position >= json.length()) {
+            throw error("Unexpected end of the document");
+        }
+        char c = json.charAt(position);
+        switch (c) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+                return parseString();
+            case 't':
+                return parseLiteral("true", Boolean.TRUE);
+            case 'f':
+                return parseLiteral("false", Boolean.FALSE);
+            case 'n':
+                return parseLiteral("null", null);
+            default:
+                return parseNumber();
+        }
+    }
+
+    private Map<String, Object> parseObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = parseString();
+            skipWhitespace();
+            expect(':');
+            object.put(name, parseValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> parseArray() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(parseValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String parseString() {
+        StringBuilder builder = new StringBuilder();
+        position++;
+        while (position < json.length()) {
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(position++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > json.length()) {
+                        throw error("Incomplete unicode escape");
+                    }
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(json.charAt(position + i), 16);
+                        if (digit < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    builder.append((char) code);
+                    position += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Object parseLiteral(String literal, Object value) {
+        if (!json.startsWith(literal, position)) {
+            throw error("Unexpected character '" + json.charAt(position) + "'");
+        }
+        position += literal.length();
+        return value;
+    }
+
+    private Double parseNumber() {
+        int start = position;
+        while (position < json.length() && "+-0123456789.eE".indexOf(json.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Unexpected character '" + json.charAt(position) + "'");
+        }
+        try {
+            return Double.parseDouble(json.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + json.substring(start, position) + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek() {
+        if (position >= json.length()) {
+            throw error("Unexpected end of the document");
+        }
+        return json.charAt(position);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at character " + position + " of the GeoJSON document");
+    }
+}
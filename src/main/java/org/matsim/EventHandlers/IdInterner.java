@@ -0,0 +1,204 @@
+package EventHandlers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Maps id strings to dense int indices (0, 1, 2, ... in first-seen order) directly from their
+// bytes, so ids read from an events file can be resolved without creating a String per event.
+// The bytes of an id are only copied the first time the id is seen.
+//
+// Not thread-safe; use one interner per thread and translate indices through toString when merging.
+public final class IdInterner {
+
+    private int[] slots;      // open-addressing table of index + 1, 0 marks an empty slot
+    private int[] hashes;     // hash per index
+    private byte[][] keys;    // raw bytes per index
+    private String[] strings; // decoded ids, created on demand
+    private int size = 0;
+
+    public IdInterner() {
+        this(1024);
+    }
+
+    public IdInterner(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        slots = new int[capacity];
+        hashes = new int[Math.max(16, expectedSize)];
+        keys = new byte[hashes.length][];
+        strings = new String[hashes.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Index of the id stored in bytes [offset, offset + length), adding it if it is new
+    public int intern(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                int index = add(Arrays.copyOfRange(bytes, offset, offset + length), hash);
+                slots[slot] = index + 1;
+                if (size * 2 > slots.length) {
+                    rehash();
+                }
+                return index;
+            }
+            int index = entry - 1;
+            if (hashes[index] == hash && matches(keys[index], bytes, offset, length)) {
+                return index;
+            }
+        }
+    }
+
+    public int intern(String id) {
+        byte[] bytes = escape(id).getBytes(StandardCharsets.UTF_8);
+        int index = intern(bytes, 0, bytes.length);
+        if (strings[index] == null) {
+            strings[index] = id;
+        }
+        return index;
+    }
+
+    // Index of the id stored in bytes [offset, offset + length), or -1 if it has not been interned
+    public int find(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int index = entry - 1;
+            if (hashes[index] == hash && matches(keys[index], bytes, offset, length)) {
+                return index;
+            }
+        }
+    }
+
+    public int find(String id) {
+        byte[] bytes = escape(id).getBytes(StandardCharsets.UTF_8);
+        return find(bytes, 0, bytes.length);
+    }
+
+    public String toString(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No id with index " + index);
+        }
+        String id = strings[index];
+        if (id == null) {
+            id = unescape(new String(keys[index], StandardCharsets.UTF_8));
+            strings[index] = id;
+        }
+        return id;
+    }
+
+    private int add(byte[] key, int hash) {
+        if (size == hashes.length) {
+            int capacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+        hashes[size] = hash;
+        keys[size] = key;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashes[index] & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = index + 1;
+        }
+        slots = newSlots;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Ids are stored as they appear in the XML, so entities have to be encoded when interning
+    // a plain id and resolved when decoding
+    private static String escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '&' || c == '<' || c == '>' || c == '"' || c == '\'') {
+                return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                        .replace("\"", "&quot;").replace("'", "&apos;");
+            }
+        }
+        return value;
+    }
+
+    static String unescape(String value) {
+        int ampersand = value.indexOf('&');
+        if (ampersand < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        int from = 0;
+        while (ampersand >= 0) {
+            int semicolon = value.indexOf(';', ampersand);
+            if (semicolon < 0) {
+                break;
+            }
+            unescaped.append(value, from, ampersand);
+            String entity = value.substring(ampersand + 1, semicolon);
+            String resolved = resolve(entity);
+            unescaped.append(resolved != null ? resolved : "&" + entity + ";");
+            from = semicolon + 1;
+            ampersand = value.indexOf('&', from);
+        }
+        return unescaped.append(value, from, value.length()).toString();
+    }
+
+    // Predefined XML entities and character references such as &#38; or &#x26;
+    private static String resolve(String entity) {
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            default:
+                if (entity.length() < 2 || entity.charAt(0) != '#') {
+                    return null;
+                }
+                try {
+                    int codePoint = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                            ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+                    return new String(Character.toChars(codePoint));
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// Builds MATSim events from id indices (of an IdInterner or an EventsStore dictionary).
+// Every MATSim Id is created once per index and then reused.
+public class IndexedEventFactory {
+
+    private final IntFunction<String> linkIds;
+    private final IntFunction<String> vehicleIds;
+    private final IntFunction<String> personIds;
+    private final IntFunction<String> modeNames;
+
+    private Id<Link>[] links = newIdArray();
+    private Id<Vehicle>[] vehicles = newIdArray();
+    private Id<Person>[] persons = newIdArray();
+
+    public IndexedEventFactory(IntFunction<String> linkIds, IntFunction<String> vehicleIds,
+                               IntFunction<String> personIds, IntFunction<String> modeNames) {
+        this.linkIds = linkIds;
+        this.vehicleIds = vehicleIds;
+        this.personIds = personIds;
+        this.modeNames = modeNames;
+    }
+
+    public IndexedEventFactory(EventsScanner scanner) {
+        this(scanner.getLinkIds()::toString, scanner.getVehicleIds()::toString,
+                scanner.getPersonIds()::toString, scanner.getModeIds()::toString);
+    }
+
+    // The event for one of the EventTypeCodes, or null for EventTypeCodes.OTHER
+    public Event createEvent(byte type, double time, int link, int vehicle, int person, int mode) {
+        switch (type) {
+            case EventTypeCodes.LINK_ENTER:
+                return new LinkEnterEvent(time, vehicleId(vehicle), linkId(link));
+            case EventTypeCodes.LINK_LEAVE:
+                return new LinkLeaveEvent(time, vehicleId(vehicle), linkId(link));
+            case EventTypeCodes.VEHICLE_ENTERS_TRAFFIC:
+                return new VehicleEntersTrafficEvent(time, personId(person), linkId(link), vehicleId(vehicle),
+                        modeName(mode), 1.0);
+            case EventTypeCodes.VEHICLE_LEAVES_TRAFFIC:
+                return new VehicleLeavesTrafficEvent(time, personId(person), linkId(link), vehicleId(vehicle),
+                        modeName(mode), 1.0);
+            default:
+                return null;
+        }
+    }
+
+    // The event the scanner is currently positioned on, or null if it has no EventTypeCodes constant
+    public Event createEvent(EventsScanner scanner) {
+        return createEvent(scanner.getType(), scanner.getTime(), scanner.getLink(), scanner.getVehicle(),
+                scanner.getPerson(), scanner.getMode());
+    }
+
+    private Id<Link> linkId(int index) {
+        if (index < 0) {
+            return null;
+        }
+        if (index >= links.length) {
+            links = Arrays.copyOf(links, Math.max(index + 1, links.length * 2));
+        }
+        if (links[index] == null) {
+            links[index] = Id.createLinkId(linkIds.apply(index));
+        }
+        return links[index];
+    }
+
+    private Id<Vehicle> vehicleId(int index) {
+        if (index < 0) {
+            return null;
+        }
+        if (index >= vehicles.length) {
+            vehicles = Arrays.copyOf(vehicles, Math.max(index + 1, vehicles.length * 2));
+        }
+        if (vehicles[index] == null) {
+            vehicles[index] = Id.createVehicleId(vehicleIds.apply(index));
+        }
+        return vehicles[index];
+    }
+
+    private Id<Person> personId(int index) {
+        if (index < 0) {
+            return null;
+        }
+        if (index >= persons.length) {
+            persons = Arrays.copyOf(persons, Math.max(index + 1, persons.length * 2));
+        }
+        if (persons[index] == null) {
+            persons[index] = Id.createPersonId(personIds.apply(index));
+        }
+        return persons[index];
+    }
+
+    private String modeName(int index) {
+        return index < 0 ? null : modeNames.apply(index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Id<T>[] newIdArray() {
+        return new Id[1024];
+    }
+}
@@ -0,0 +1,322 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+// Merges chains of links that pass through degree-2 nodes into single links, so the QSim updates
+// and the router relaxes fewer links. A node is passed through by a link if it either has exactly
+// one in- and one out-link, or is the middle of a two-way road (two in- and two out-links to
+// the same two neighbours). Links are only merged if freespeed, capacity, lanes, allowed modes
+// and attributes (except the ignored ones, by default "origid") are equal.
+//
+// A merged link keeps the id and the attributes of the first link of its chain and the summed
+// length, so the free-flow travel time and the storage capacity of the chain are unchanged.
+// The Result maps the original links to the merged ones, with the offset of each original link
+// from the start of the merged link, so that link results can be projected back.
+//
+// Everything else that refers to links has to be simplified along with the network: the Result
+// moves the activities of a population and drops its routes over merged links, and rejects
+// facilities on removed links, which cannot be moved through the ActivityFacility interface.
+// Counts and network change events are not adapted; a network with either should not be
+// simplified (RunMatsim4Munich refuses to).
+public class LinkChainSimplifier {
+
+    private final Set<String> ignoredAttributes;
+
+    public LinkChainSimplifier() {
+        this(Collections.singleton("origid"));
+    }
+
+    public LinkChainSimplifier(Set<String> ignoredAttributes) {
+        this.ignoredAttributes = new HashSet<>(ignoredAttributes);
+    }
+
+    public static final class Result {
+        private final Map<Id<Link>, List<Id<Link>>> chains = new LinkedHashMap<>();
+        private final Map<Id<Link>, Id<Link>> simplifiedLinks = new HashMap<>();
+        private final Map<Id<Link>, Double> offsets = new HashMap<>();
+        private final Map<Id<Link>, Double> lengths = new HashMap<>();
+        private int linksBefore;
+        private int nodesBefore;
+        private int linksAfter;
+        private int nodesAfter;
+
+        // The merged link an original link is part of, the link itself if it was not merged
+        public Id<Link> getSimplifiedLinkId(Id<Link> originalLinkId) {
+            return simplifiedLinks.getOrDefault(originalLinkId, originalLinkId);
+        }
+
+        // The original links of a merged link in driving order, the link itself if it was not merged
+        public List<Id<Link>> getOriginalLinkIds(Id<Link> simplifiedLinkId) {
+            List<Id<Link>> chain = chains.get(simplifiedLinkId);
+            return chain != null ? Collections.unmodifiableList(chain) : Collections.singletonList(simplifiedLinkId);
+        }
+
+        // Distance from the start of the merged link to the start of the original link
+        public double getOffset(Id<Link> originalLinkId) {
+            return offsets.getOrDefault(originalLinkId, 0.0);
+        }
+
+        public boolean isMerged(Id<Link> originalLinkId) {
+            return simplifiedLinks.containsKey(originalLinkId);
+        }
+
+        // Whether the link is gone from the network: merged, but not the first link of its chain
+        public boolean isRemoved(Id<Link> originalLinkId) {
+            return isMerged(originalLinkId) && !simplifiedLinks.get(originalLinkId).equals(originalLinkId);
+        }
+
+        public int getNumberOfChains() {
+            return chains.size();
+        }
+
+        public String getSummary() {
+            return "Merged " + chains.size() + " chains: " + linksBefore + " -> " + linksAfter + " links ("
+                    + String.format(Locale.ROOT, "%.1f", linksBefore > 0 ? 100.0 * (linksBefore - linksAfter) / linksBefore : 0.0)
+                    + "% fewer), " + nodesBefore + " -> " + nodesAfter + " nodes";
+        }
+
+        // One line per original link of a merged link
+        public void writeMapping(String outputFilePath) throws IOException {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+                writer.write("OriginalLinkId,SimplifiedLinkId,Offset_m,Length_m\n");
+                for (Map.Entry<Id<Link>, List<Id<Link>>> chain : chains.entrySet()) {
+                    for (Id<Link> originalLinkId : chain.getValue()) {
+                        writer.write(originalLinkId + "," + chain.getKey() + "," + offsets.get(originalLinkId) + ","
+                                + lengths.get(originalLinkId) + "\n");
+                    }
+                }
+            }
+        }
+
+        // Move activities from merged links to the merged link and drop the routes that use
+        // merged links, so that they are routed again on the simplified network
+        public void adaptPopulation(Population population) {
+            for (Person person : population.getPersons().values()) {
+                for (Plan plan : person.getPlans()) {
+                    for (PlanElement element : plan.getPlanElements()) {
+                        if (element instanceof Activity) {
+                            Activity activity = (Activity) element;
+                            if (activity.getLinkId() != null && isMerged(activity.getLinkId())) {
+                                activity.setLinkId(getSimplifiedLinkId(activity.getLinkId()));
+                            }
+                        } else if (element instanceof Leg) {
+                            Leg leg = (Leg) element;
+                            if (leg.getRoute() != null && usesMergedLink(leg.getRoute())) {
+                                leg.setRoute(null);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // Facilities on removed links would refer to links that no longer exist
+        public void checkFacilities(ActivityFacilities facilities) {
+            List<Id<ActivityFacility>> invalid = new ArrayList<>();
+            for (ActivityFacility facility : facilities.getFacilities().values()) {
+                if (facility.getLinkId() != null && isRemoved(facility.getLinkId())) {
+                    invalid.add(facility.getId());
+                }
+            }
+            if (!invalid.isEmpty()) {
+                throw new IllegalArgumentException(invalid.size() + " facilities are on links that were merged into other links, e.g. "
+                        + invalid.subList(0, Math.min(5, invalid.size())) + "; remove their link ids or do not simplify the network");
+            }
+        }
+
+        private boolean usesMergedLink(Route route) {
+            if (isMerged(route.getStartLinkId()) || isMerged(route.getEndLinkId())) {
+                return true;
+            }
+            if (route instanceof NetworkRoute) {
+                for (Id<Link> linkId : ((NetworkRoute) route).getLinkIds()) {
+                    if (isMerged(linkId)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    public Result simplify(Network network) {
+        Result result = new Result();
+        result.linksBefore = network.getLinks().size();
+        result.nodesBefore = network.getNodes().size();
+
+        // every link has at most one continuation and is the continuation of at most one link
+        Map<Link, Link> continuations = new HashMap<>();
+        Set<Link> continued = new HashSet<>();
+        for (Link link : network.getLinks().values()) {
+            Link next = continuationOf(link);
+            if (next != null) {
+                continuations.put(link, next);
+                continued.add(next);
+            }
+        }
+
+        // chains start at links that do not continue another one; rings without such a link stay
+        List<List<Link>> chains = new ArrayList<>();
+        for (Link link : network.getLinks().values()) {
+            if (continued.contains(link) || !continuations.containsKey(link)) {
+                continue;
+            }
+            List<Link> chain = new ArrayList<>();
+            for (Link current = link; current != null; current = continuations.get(current)) {
+                if (chain.size() > 0 && current.getToNode() == link.getFromNode()) {
+                    // would end where it starts
+                    break;
+                }
+                chain.add(current);
+            }
+            if (chain.size() > 1) {
+                chains.add(chain);
+            }
+        }
+
+        Set<Id<Node>> passedNodes = new HashSet<>();
+        for (List<Link> chain : chains) {
+            merge(network, chain, result);
+            for (int i = 1; i < chain.size(); i++) {
+                passedNodes.add(chain.get(i).getFromNode().getId());
+            }
+        }
+        for (Id<Node> nodeId : passedNodes) {
+            Node node = network.getNodes().get(nodeId);
+            if (node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+                network.removeNode(nodeId);
+            }
+        }
+
+        result.linksAfter = network.getLinks().size();
+        result.nodesAfter = network.getNodes().size();
+        return result;
+    }
+
+    // The only link a vehicle on the given link can continue on without turning around, if it
+    // can be merged with the link
+    private Link continuationOf(Link link) {
+        Node node = link.getToNode();
+        Map<Id<Link>, ? extends Link> inLinks = node.getInLinks();
+        Map<Id<Link>, ? extends Link> outLinks = node.getOutLinks();
+        Node previous = link.getFromNode();
+        Link next = null;
+        for (Link inLink : inLinks.values()) {
+            if (inLink.getFromNode() == node) {
+                // a loop on the node is a way to continue as well
+                return null;
+            }
+        }
+
+        if (inLinks.size() == 1 && outLinks.size() == 1) {
+            next = outLinks.values().iterator().next();
+        } else if (inLinks.size() == 2 && outLinks.size() == 2) {
+            // two-way road: in from the previous and the next node, out to both of them
+            Node other = null;
+            for (Link inLink : inLinks.values()) {
+                if (inLink != link) {
+                    other = inLink.getFromNode();
+                }
+            }
+            if (other == null || other == previous) {
+                return null;
+            }
+            boolean backToPrevious = false;
+            for (Link outLink : outLinks.values()) {
+                if (outLink.getToNode() == other) {
+                    next = outLink;
+                } else if (outLink.getToNode() == previous) {
+                    backToPrevious = true;
+                }
+            }
+            if (!backToPrevious) {
+                return null;
+            }
+        }
+
+        // merging must neither create a loop on one node nor pass through a node twice
+        if (next == null || next == link || next.getToNode() == previous || next.getToNode() == node) {
+            return null;
+        }
+        return matches(link, next) ? next : null;
+    }
+
+    private boolean matches(Link link, Link next) {
+        if (link.getFreespeed() != next.getFreespeed() || link.getCapacity() != next.getCapacity()
+                || link.getNumberOfLanes() != next.getNumberOfLanes() || !link.getAllowedModes().equals(next.getAllowedModes())) {
+            return false;
+        }
+        return relevantAttributes(link).equals(relevantAttributes(next));
+    }
+
+    private Map<String, Object> relevantAttributes(Link link) {
+        Map<String, Object> attributes = new HashMap<>(link.getAttributes().getAsMap());
+        attributes.keySet().removeAll(ignoredAttributes);
+        return attributes;
+    }
+
+    private static void merge(Network network, List<Link> chain, Result result) {
+        Link first = chain.get(0);
+        Link last = chain.get(chain.size() - 1);
+
+        List<Id<Link>> originalLinkIds = new ArrayList<>();
+        double length = 0.0;
+        for (Link link : chain) {
+            originalLinkIds.add(link.getId());
+            result.simplifiedLinks.put(link.getId(), first.getId());
+            result.offsets.put(link.getId(), length);
+            result.lengths.put(link.getId(), link.getLength());
+            length += link.getLength();
+            network.removeLink(link.getId());
+        }
+        result.chains.put(first.getId(), originalLinkIds);
+
+        Link merged = network.getFactory().createLink(first.getId(), first.getFromNode(), last.getToNode());
+        merged.setLength(length);
+        merged.setFreespeed(first.getFreespeed());
+        merged.setCapacity(first.getCapacity());
+        merged.setNumberOfLanes(first.getNumberOfLanes());
+        merged.setAllowedModes(first.getAllowedModes());
+        first.getAttributes().getAsMap().forEach(merged.getAttributes()::putAttribute);
+        network.addLink(merged);
+    }
+
+    // Mapping file of a simplified network file: network.xml.gz -> network_link_mapping.csv
+    public static String mappingFileFor(String networkFile) {
+        String base = networkFile.endsWith(".gz") ? networkFile.substring(0, networkFile.length() - 3) : networkFile;
+        return EventsAnalysisPipeline.siblingFile(base, "_link_mapping.csv");
+    }
+
+    // Simplify a network file and write the id mapping next to the output
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String networkFile = options.get("network");
+        String outputFile = options.get("output");
+        if (networkFile == null || outputFile == null) {
+            System.err.println("Usage: LinkChainSimplifier --network <file> --output <file>");
+            System.exit(1);
+        }
+
+        Network network = NetworkLoader.load(networkFile);
+        Result result = new LinkChainSimplifier().simplify(network);
+        System.out.println(result.getSummary());
+
+        NetworkUtils.writeNetwork(network, outputFile);
+        String mappingFile = mappingFileFor(outputFile);
+        result.writeMapping(mappingFile);
+        System.out.println("Simplified network written to: " + outputFile + ", link mapping to: " + mappingFile);
+    }
+}
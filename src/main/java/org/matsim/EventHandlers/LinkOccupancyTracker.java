@@ -0,0 +1,145 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+
+import java.util.Arrays;
+
+// Enter times of the vehicles currently on a link, keyed by (vehicle, link) so that every
+// traversal is matched with its own enter time, also when many vehicles are on the same link.
+//
+// Open addressing with linear probing over a long[] of packed (Id.index() of vehicle, Id.index()
+// of link) keys and a double[] of times; nothing is boxed. Leaving removes the entry by shifting
+// the rest of its probe run back, so the table only holds the vehicles that are on the network
+// at the same time.
+public class LinkOccupancyTracker {
+
+    private static final long EMPTY = -1L;
+    private static final int MIN_CAPACITY = 1024;
+
+    private long[] keys;
+    private double[] enterTimes;
+    private int size = 0;
+
+    public LinkOccupancyTracker() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    public LinkOccupancyTracker(int expectedVehiclesOnNetwork) {
+        allocate(Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedVehiclesOnNetwork * 2 - 1)) << 1);
+    }
+
+    // Record that the vehicle entered the link; returns the enter time it replaces or NaN
+    public double enter(Id<?> vehicleId, Id<?> linkId, double time) {
+        return enter(vehicleId.index(), linkId.index(), time);
+    }
+
+    public double enter(int vehicle, int link, double time) {
+        long key = key(vehicle, link);
+        int slot = find(key);
+        if (keys[slot] == key) {
+            double previous = enterTimes[slot];
+            enterTimes[slot] = time;
+            return previous;
+        }
+        keys[slot] = key;
+        enterTimes[slot] = time;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return Double.NaN;
+    }
+
+    // Remove the vehicle from the link; returns its enter time or NaN if it was not on the link
+    public double leave(Id<?> vehicleId, Id<?> linkId) {
+        return leave(vehicleId.index(), linkId.index());
+    }
+
+    public double leave(int vehicle, int link) {
+        long key = key(vehicle, link);
+        int slot = find(key);
+        if (keys[slot] != key) {
+            return Double.NaN;
+        }
+        double time = enterTimes[slot];
+        removeSlot(slot);
+        size--;
+        return time;
+    }
+
+    public boolean isOnLink(Id<?> vehicleId, Id<?> linkId) {
+        long key = key(vehicleId.index(), linkId.index());
+        return keys[find(key)] == key;
+    }
+
+    // Number of vehicles currently on a link
+    public int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    static long key(int vehicle, int link) {
+        return ((long) vehicle << 32) | (link & 0xffffffffL);
+    }
+
+    // Slot a key is probed from first; package-private so tests can pick colliding keys
+    int home(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+    }
+
+    // Slot holding the key, or the empty slot where it would be inserted
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = home(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Close the gap left by a removed entry, so lookups never need tombstones
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = home(keys[next]);
+            // the entry may move into the gap if its home slot is not between the gap and its slot
+            boolean movable = gap <= next ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (movable) {
+                keys[gap] = keys[next];
+                enterTimes[gap] = enterTimes[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        double[] oldTimes = enterTimes;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                enterTimes[slot] = oldTimes[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        enterTimes = new double[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+}
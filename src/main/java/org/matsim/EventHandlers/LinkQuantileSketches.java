@@ -0,0 +1,159 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A QuantileSketch per link and time bin, e.g. of the travel times of the vehicles that entered a
+// link within the hour. Links are indexed by Id.index(); the bins of a link and the sketch of a
+// bin are only allocated once a value arrives, so links and hours without traffic cost nothing.
+// Values at or after the end time go into the last bin.
+public class LinkQuantileSketches {
+
+    public static final double[] REPORTED_QUANTILES = {0.5, 0.85, 0.95};
+
+    private final double binSize;
+    private final int numberOfBins;
+    private final double minValue;
+    private QuantileSketch[][] sketchesByLink;
+
+    public LinkQuantileSketches() {
+        this(3600, 30 * 3600);
+    }
+
+    public LinkQuantileSketches(double binSize, double endTime) {
+        this(binSize, endTime, QuantileSketch.DEFAULT_MIN_VALUE);
+    }
+
+    // Sketches that resolve values down to minValue, see QuantileSketch
+    public LinkQuantileSketches(double binSize, double endTime, double minValue) {
+        if (binSize <= 0 || endTime <= 0) {
+            throw new IllegalArgumentException("Bin size and end time must be positive, got " + binSize + " and " + endTime);
+        }
+        this.binSize = binSize;
+        this.numberOfBins = (int) Math.ceil(endTime / binSize);
+        this.minValue = minValue;
+        this.sketchesByLink = new QuantileSketch[Math.max(16, Id.getNumberOfIds(Link.class))][];
+    }
+
+    public void add(Id<Link> linkId, double time, double value) {
+        int index = linkId.index();
+        if (index >= sketchesByLink.length) {
+            sketchesByLink = Arrays.copyOf(sketchesByLink, Math.max(index + 1, sketchesByLink.length * 2));
+        }
+        QuantileSketch[] bins = sketchesByLink[index];
+        if (bins == null) {
+            bins = sketchesByLink[index] = new QuantileSketch[numberOfBins];
+        }
+        int bin = binOf(time);
+        if (bins[bin] == null) {
+            bins[bin] = new QuantileSketch(minValue);
+        }
+        bins[bin].add(value);
+    }
+
+    private int binOf(double time) {
+        return time <= 0 ? 0 : Math.min(numberOfBins - 1, (int) (time / binSize));
+    }
+
+    public double getBinSize() {
+        return binSize;
+    }
+
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+
+    // Sketch of one link and bin, null if no value was added there
+    public QuantileSketch getSketch(Id<Link> linkId, int bin) {
+        int index = linkId.index();
+        return index < sketchesByLink.length && sketchesByLink[index] != null ? sketchesByLink[index][bin] : null;
+    }
+
+    // All bins of a link merged into a new sketch
+    public QuantileSketch getLinkSketch(Id<Link> linkId) {
+        QuantileSketch merged = new QuantileSketch(minValue);
+        int index = linkId.index();
+        if (index < sketchesByLink.length && sketchesByLink[index] != null) {
+            for (QuantileSketch sketch : sketchesByLink[index]) {
+                if (sketch != null) {
+                    merged.merge(sketch);
+                }
+            }
+        }
+        return merged;
+    }
+
+    // Add all values of another instance with the same bins, e.g. of another reader thread
+    public void merge(LinkQuantileSketches other) {
+        if (other.binSize != binSize || other.numberOfBins != numberOfBins) {
+            throw new IllegalArgumentException("Cannot merge sketches with different time bins");
+        }
+        if (other.minValue != minValue) {
+            throw new IllegalArgumentException("Cannot merge sketches with different minimum values");
+        }
+        if (other.sketchesByLink.length > sketchesByLink.length) {
+            sketchesByLink = Arrays.copyOf(sketchesByLink, other.sketchesByLink.length);
+        }
+        for (int index = 0; index < other.sketchesByLink.length; index++) {
+            QuantileSketch[] otherBins = other.sketchesByLink[index];
+            if (otherBins == null) {
+                continue;
+            }
+            if (sketchesByLink[index] == null) {
+                sketchesByLink[index] = new QuantileSketch[numberOfBins];
+            }
+            for (int bin = 0; bin < numberOfBins; bin++) {
+                if (otherBins[bin] != null) {
+                    if (sketchesByLink[index][bin] == null) {
+                        sketchesByLink[index][bin] = new QuantileSketch(minValue);
+                    }
+                    sketchesByLink[index][bin].merge(otherBins[bin]);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(sketchesByLink, null);
+    }
+
+    // One line per link for the whole day (BinStart_sec "all") and one per bin with values
+    public void writeQuantiles(String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("LinkId,BinStart_sec,Count,Mean,P50,P85,P95,Max\n");
+            for (int index = 0; index < sketchesByLink.length; index++) {
+                if (sketchesByLink[index] == null) {
+                    continue;
+                }
+                Id<Link> linkId = Id.get(index, Link.class);
+                writeLine(writer, linkId, "all", getLinkSketch(linkId));
+                for (int bin = 0; bin < numberOfBins; bin++) {
+                    QuantileSketch sketch = sketchesByLink[index][bin];
+                    if (sketch != null) {
+                        writeLine(writer, linkId, Double.toString(bin * binSize), sketch);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, Id<Link> linkId, String binStart, QuantileSketch sketch) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append(linkId).append(',').append(binStart).append(',').append(sketch.getCount()).append(',').append(sketch.getMean());
+        for (double quantile : REPORTED_QUANTILES) {
+            line.append(',').append(sketch.getQuantile(quantile));
+        }
+        line.append(',').append(sketch.getMax()).append('\n');
+        writer.write(line.toString());
+    }
+
+    // File next to a results file, e.g. vehicle_average_delay.csv -> vehicle_average_delay_link_quantiles.csv
+    public static String quantilesFileFor(String outputFilePath) {
+        return EventsAnalysisPipeline.siblingFile(outputFilePath, "_link_quantiles.csv");
+    }
+}
@@ -0,0 +1,82 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+// A sum and a counter per link, kept in primitive arrays indexed by Id.index() instead of
+// Map<Id<Link>, Double> / Map<Id<Link>, Integer>: updates need no boxing and no hash lookup.
+// The arrays are sized for all link ids created so far and grow if later ids show up.
+//
+// The sum and the counter are independent, e.g. the total delay of the vehicles that left a link
+// and the number of vehicles that entered it.
+public class LinkStatistics {
+
+    private double[] sums;
+    private int[] counts;
+    private final BitSet linksWithSum = new BitSet();
+
+    public LinkStatistics() {
+        this(Id.getNumberOfIds(Link.class));
+    }
+
+    public LinkStatistics(int expectedNumberOfLinks) {
+        int capacity = Math.max(16, expectedNumberOfLinks);
+        sums = new double[capacity];
+        counts = new int[capacity];
+    }
+
+    public void add(Id<Link> linkId, double value) {
+        int index = linkId.index();
+        ensureCapacity(index);
+        sums[index] += value;
+        linksWithSum.set(index);
+    }
+
+    public void increment(Id<Link> linkId) {
+        int index = linkId.index();
+        ensureCapacity(index);
+        counts[index]++;
+    }
+
+    public double getSum(Id<Link> linkId) {
+        int index = linkId.index();
+        return index < sums.length ? sums[index] : 0.0;
+    }
+
+    public int getCount(Id<Link> linkId) {
+        int index = linkId.index();
+        return index < counts.length ? counts[index] : 0;
+    }
+
+    public boolean hasSum(Id<Link> linkId) {
+        return linksWithSum.get(linkId.index());
+    }
+
+    // Links that something was added to, in index order
+    public List<Id<Link>> getLinksWithSum() {
+        List<Id<Link>> links = new ArrayList<>(linksWithSum.cardinality());
+        for (int index = linksWithSum.nextSetBit(0); index >= 0; index = linksWithSum.nextSetBit(index + 1)) {
+            links.add(Id.get(index, Link.class));
+        }
+        return links;
+    }
+
+    public void clear() {
+        Arrays.fill(sums, 0.0);
+        Arrays.fill(counts, 0);
+        linksWithSum.clear();
+    }
+
+    private void ensureCapacity(int index) {
+        if (index >= sums.length) {
+            int capacity = Math.max(index + 1, sums.length * 2);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+// Link x time bin statistics of the links of a (study area) network, filled in one pass over the
+// events. Peak windows and daily profiles are queries on the cube instead of another events scan.
+//
+// Per link and bin:
+//   flow         vehicles leaving the link in the bin
+//   traversals   vehicles that entered the link in the bin and drove through it
+//   travel time  total travel time of these traversals
+//   delay        total travel time over the free-flow travel time of these traversals
+//   occupancy    vehicle seconds spent on the link within the bin, also counting vehicles that
+//                enter or leave traffic on the link
+//
+// All values sit in flat arrays of (number of links x number of bins), row = link, column = bin.
+// Events on links outside the network and after the end time are ignored.
+//
+// Usage:
+//   LinkTimeBinCube --network <studyNetwork.xml> --events <output_events.xml(.gz) or events store>
+//                   --output <link_time_bins.csv> [--bin-size 900]
+public class LinkTimeBinCube implements EventsAnalyzer {
+
+    public static final double DEFAULT_BIN_SIZE = 15 * 60;
+    public static final double DEFAULT_END_TIME = 30 * 3600;
+
+    private final StudyArea studyArea;
+    private final double binSize;
+    private final int numberOfBins;
+
+    // Id.index() of a link -> row in the cube, -1 for links outside the network
+    private int[] rowOfLink;
+    private final Id<Link>[] linkOfRow;
+
+    private final int[] flows;
+    private final int[] traversals;
+    private final double[] travelTimes;
+    private final double[] delays;
+    private final double[] occupancies;
+
+    // vehicles that entered the link at its start and those that entered traffic on it
+    private final LinkOccupancyTracker linkEnterTimes = new LinkOccupancyTracker();
+    private final LinkOccupancyTracker trafficEnterTimes = new LinkOccupancyTracker();
+    private final CubeEventHandler eventHandler = new CubeEventHandler();
+
+    public LinkTimeBinCube(Network network) {
+        this(network, DEFAULT_BIN_SIZE, DEFAULT_END_TIME);
+    }
+
+    public LinkTimeBinCube(Network network, double binSize) {
+        this(network, binSize, DEFAULT_END_TIME);
+    }
+
+    @SuppressWarnings("unchecked")
+    public LinkTimeBinCube(Network network, double binSize, double endTime) {
+        if (binSize <= 0 || endTime <= 0) {
+            throw new IllegalArgumentException("Bin size and end time must be positive, got " + binSize + " and " + endTime);
+        }
+        this.studyArea = StudyArea.of(network);
+        this.binSize = binSize;
+        this.numberOfBins = (int) Math.ceil(endTime / binSize);
+
+        int numberOfLinks = studyArea.size();
+        long cells = (long) numberOfLinks * numberOfBins;
+        if (cells > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(numberOfLinks + " links x " + numberOfBins + " bins do not fit into one cube;"
+                    + " use a larger bin size or a smaller network");
+        }
+
+        rowOfLink = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(rowOfLink, -1);
+        linkOfRow = new Id[numberOfLinks];
+        int row = 0;
+        for (Id<Link> linkId : studyArea.getLinkIds()) {
+            rowOfLink[linkId.index()] = row;
+            linkOfRow[row] = linkId;
+            row++;
+        }
+
+        flows = new int[(int) cells];
+        traversals = new int[(int) cells];
+        travelTimes = new double[(int) cells];
+        delays = new double[(int) cells];
+        occupancies = new double[(int) cells];
+    }
+
+    private class CubeEventHandler implements
+            LinkEnterEventHandler,
+            LinkLeaveEventHandler,
+            VehicleEntersTrafficEventHandler,
+            VehicleLeavesTrafficEventHandler {
+
+        @Override
+        public void handleEvent(LinkEnterEvent event) {
+            if (rowOf(event.getLinkId()) >= 0) {
+                linkEnterTimes.enter(event.getVehicleId(), event.getLinkId(), event.getTime());
+            }
+        }
+
+        @Override
+        public void handleEvent(VehicleEntersTrafficEvent event) {
+            if (rowOf(event.getLinkId()) >= 0) {
+                trafficEnterTimes.enter(event.getVehicleId(), event.getLinkId(), event.getTime());
+            }
+        }
+
+        @Override
+        public void handleEvent(LinkLeaveEvent event) {
+            int row = rowOf(event.getLinkId());
+            if (row < 0) {
+                return;
+            }
+            double time = event.getTime();
+            int leaveBin = binOf(time);
+            if (leaveBin < numberOfBins) {
+                flows[row * numberOfBins + leaveBin]++;
+            }
+
+            double enterTime = linkEnterTimes.leave(event.getVehicleId(), event.getLinkId());
+            if (!Double.isNaN(enterTime)) {
+                int enterBin = binOf(enterTime);
+                if (enterBin < numberOfBins) {
+                    int cell = row * numberOfBins + enterBin;
+                    double travelTime = time - enterTime;
+                    traversals[cell]++;
+                    travelTimes[cell] += travelTime;
+                    delays[cell] += travelTime - studyArea.getFreeFlowTravelTime(event.getLinkId());
+                }
+            } else {
+                enterTime = trafficEnterTimes.leave(event.getVehicleId(), event.getLinkId());
+            }
+            addOccupancy(row, enterTime, time);
+        }
+
+        @Override
+        public void handleEvent(VehicleLeavesTrafficEvent event) {
+            int row = rowOf(event.getLinkId());
+            if (row < 0) {
+                return;
+            }
+            // arrived somewhere on the link, which is not a full traversal
+            double enterTime = linkEnterTimes.leave(event.getVehicleId(), event.getLinkId());
+            if (Double.isNaN(enterTime)) {
+                enterTime = trafficEnterTimes.leave(event.getVehicleId(), event.getLinkId());
+            }
+            addOccupancy(row, enterTime, event.getTime());
+        }
+
+        @Override
+        public void reset(int iteration) {
+            clear();
+        }
+    }
+
+    // Spread the time a vehicle spent on the link over the bins it overlaps
+    private void addOccupancy(int row, double enterTime, double leaveTime) {
+        if (Double.isNaN(enterTime)) {
+            return;
+        }
+        int lastBin = Math.min(binOf(leaveTime), numberOfBins - 1);
+        for (int bin = binOf(enterTime); bin <= lastBin; bin++) {
+            double from = Math.max(enterTime, bin * binSize);
+            double to = Math.min(leaveTime, (bin + 1) * binSize);
+            occupancies[row * numberOfBins + bin] += to - from;
+        }
+    }
+
+    private int rowOf(Id<Link> linkId) {
+        int index = linkId.index();
+        return index < rowOfLink.length ? rowOfLink[index] : -1;
+    }
+
+    private int cellOf(Id<Link> linkId, int bin) {
+        int row = rowOf(linkId);
+        if (row < 0) {
+            throw new IllegalArgumentException("Link " + linkId + " is not part of the network of this cube");
+        }
+        if (bin < 0 || bin >= numberOfBins) {
+            throw new IndexOutOfBoundsException("Bin " + bin + " outside of 0.." + (numberOfBins - 1));
+        }
+        return row * numberOfBins + bin;
+    }
+
+    // Bin of a time, may be >= getNumberOfBins() for times after the end time
+    public int binOf(double time) {
+        return time <= 0 ? 0 : (int) (time / binSize);
+    }
+
+    public double getBinSize() {
+        return binSize;
+    }
+
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+
+    public double getBinStart(int bin) {
+        return bin * binSize;
+    }
+
+    public Collection<Id<Link>> getLinks() {
+        return Collections.unmodifiableList(Arrays.asList(linkOfRow));
+    }
+
+    public int getFlow(Id<Link> linkId, int bin) {
+        return flows[cellOf(linkId, bin)];
+    }
+
+    public int getTraversals(Id<Link> linkId, int bin) {
+        return traversals[cellOf(linkId, bin)];
+    }
+
+    public double getTotalTravelTime(Id<Link> linkId, int bin) {
+        return travelTimes[cellOf(linkId, bin)];
+    }
+
+    public double getTotalDelay(Id<Link> linkId, int bin) {
+        return delays[cellOf(linkId, bin)];
+    }
+
+    // Mean number of vehicles on the link during the bin
+    public double getMeanOccupancy(Id<Link> linkId, int bin) {
+        return occupancies[cellOf(linkId, bin)] / binSize;
+    }
+
+    // Window queries cover the bins starting in [fromTime, toTime), so a window should be aligned
+    // to the bin size (e.g. 15:00 - 17:00 with 5, 15 or 60 minute bins)
+
+    public int getFlow(Id<Link> linkId, double fromTime, double toTime) {
+        int flow = 0;
+        for (int bin = firstBin(fromTime); bin < endBin(toTime); bin++) {
+            flow += flows[cellOf(linkId, bin)];
+        }
+        return flow;
+    }
+
+    public int getTraversals(Id<Link> linkId, double fromTime, double toTime) {
+        int count = 0;
+        for (int bin = firstBin(fromTime); bin < endBin(toTime); bin++) {
+            count += traversals[cellOf(linkId, bin)];
+        }
+        return count;
+    }
+
+    public double getTotalTravelTime(Id<Link> linkId, double fromTime, double toTime) {
+        return sum(travelTimes, linkId, fromTime, toTime);
+    }
+
+    public double getTotalDelay(Id<Link> linkId, double fromTime, double toTime) {
+        return sum(delays, linkId, fromTime, toTime);
+    }
+
+    public double getMeanTravelTime(Id<Link> linkId, double fromTime, double toTime) {
+        int count = getTraversals(linkId, fromTime, toTime);
+        return count > 0 ? getTotalTravelTime(linkId, fromTime, toTime) / count : 0.0;
+    }
+
+    public double getMeanDelay(Id<Link> linkId, double fromTime, double toTime) {
+        int count = getTraversals(linkId, fromTime, toTime);
+        return count > 0 ? getTotalDelay(linkId, fromTime, toTime) / count : 0.0;
+    }
+
+    public double getMeanOccupancy(Id<Link> linkId, double fromTime, double toTime) {
+        int first = firstBin(fromTime);
+        int end = endBin(toTime);
+        return end > first ? sum(occupancies, linkId, fromTime, toTime) / ((end - first) * binSize) : 0.0;
+    }
+
+    // Flows summed into bins of a multiple of the cube's bin size, e.g. hourly flows from 15 minute bins
+    public int[] getFlowProfile(Id<Link> linkId, double profileBinSize) {
+        int binsPerProfileBin = (int) Math.round(profileBinSize / binSize);
+        if (binsPerProfileBin < 1 || Math.abs(binsPerProfileBin * binSize - profileBinSize) > 1e-6) {
+            throw new IllegalArgumentException("Profile bin size " + profileBinSize + " is not a multiple of the bin size " + binSize);
+        }
+        int[] profile = new int[(numberOfBins + binsPerProfileBin - 1) / binsPerProfileBin];
+        int rowStart = cellOf(linkId, 0);
+        for (int bin = 0; bin < numberOfBins; bin++) {
+            profile[bin / binsPerProfileBin] += flows[rowStart + bin];
+        }
+        return profile;
+    }
+
+    private int firstBin(double fromTime) {
+        return Math.min(numberOfBins, (int) Math.ceil(Math.max(0, fromTime) / binSize - 1e-9));
+    }
+
+    private int endBin(double toTime) {
+        return Math.min(numberOfBins, (int) Math.ceil(Math.max(0, toTime) / binSize - 1e-9));
+    }
+
+    private double sum(double[] column, Id<Link> linkId, double fromTime, double toTime) {
+        double sum = 0.0;
+        for (int bin = firstBin(fromTime); bin < endBin(toTime); bin++) {
+            sum += column[cellOf(linkId, bin)];
+        }
+        return sum;
+    }
+
+    public void clear() {
+        Arrays.fill(flows, 0);
+        Arrays.fill(traversals, 0);
+        Arrays.fill(travelTimes, 0.0);
+        Arrays.fill(delays, 0.0);
+        Arrays.fill(occupancies, 0.0);
+        linkEnterTimes.clear();
+        trafficEnterTimes.clear();
+    }
+
+    @Override
+    public EventHandler getEventHandler() {
+        return eventHandler;
+    }
+
+    // One line per link and bin that saw any vehicle
+    @Override
+    public void writeResults(String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("LinkId,BinStart_sec,Flow,Traversals,AverageTravelTime_sec,AverageDelay_sec,AverageOccupancy\n");
+            for (int row = 0; row < linkOfRow.length; row++) {
+                for (int bin = 0; bin < numberOfBins; bin++) {
+                    int cell = row * numberOfBins + bin;
+                    if (flows[cell] == 0 && traversals[cell] == 0 && occupancies[cell] == 0.0) {
+                        continue;
+                    }
+                    int count = traversals[cell];
+                    double avgTravelTime = count > 0 ? travelTimes[cell] / count : 0.0;
+                    double avgDelay = count > 0 ? delays[cell] / count : 0.0;
+                    writer.write(linkOfRow[row] + "," + getBinStart(bin) + "," + flows[cell] + "," + count + ","
+                            + avgTravelTime + "," + avgDelay + "," + occupancies[cell] / binSize + "\n");
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String networkFile = options.get("network");
+        String eventsFile = options.get("events");
+        String outputFile = options.get("output");
+        if (networkFile == null || eventsFile == null || outputFile == null) {
+            System.err.println("Usage: LinkTimeBinCube --network <file> --events <file> --output <file> [--bin-size <sec>]");
+            System.exit(1);
+        }
+        double binSize = Double.parseDouble(options.getOrDefault("bin-size", Double.toString(DEFAULT_BIN_SIZE)));
+
+        Network studyAreaNetwork = NetworkLoader.load(networkFile);
+
+        LinkTimeBinCube cube = new LinkTimeBinCube(studyAreaNetwork, binSize);
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        eventsManager.addHandler(cube.getEventHandler());
+        new FilteredEventsReader(eventsManager)
+                .setLinks(cube.getLinks())
+                .readFile(eventsFile);
+
+        cube.writeResults(outputFile);
+        System.out.println("Results written to: " + outputFile);
+    }
+}
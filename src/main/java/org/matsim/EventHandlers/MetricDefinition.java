@@ -0,0 +1,186 @@
+package EventHandlers;
+
+import java.util.Locale;
+
+// One metric evaluated by the MetricEngine, configured in code or parsed from a text spec:
+//
+//   <kind>[,window=HH:MM-HH:MM][,clip=true][,factor=<x>][,quantiles=true][,name=<output name>]
+//
+//   delay_ratio        per vehicle: travel time over free-flow travel time - 1, and the totals
+//   average_speed      per vehicle: distance over travel time, and the totals
+//   congestion_index   per link: mean delay of the traversals, vehicles entering, factor x vehicles / capacity
+//
+// With a window only traversals that enter and leave the link within it count. With clip=true
+// (link metrics only) every vehicle entering before the end of the window counts and its time on
+// the link is clipped to the window. quantiles=true adds per-link quantiles of the delay
+// (delay_ratio) or the travel time (average_speed).
+public class MetricDefinition {
+
+    public enum Kind {
+        DELAY_RATIO(false),
+        AVERAGE_SPEED(false),
+        CONGESTION_INDEX(true);
+
+        private final boolean linkMetric;
+
+        Kind(boolean linkMetric) {
+            this.linkMetric = linkMetric;
+        }
+
+        public boolean isLinkMetric() {
+            return linkMetric;
+        }
+
+        public String getCliName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Kind kind;
+    private String name;
+    private double windowStart = Double.NEGATIVE_INFINITY;
+    private double windowEnd = Double.POSITIVE_INFINITY;
+    private boolean clipped = false;
+    private double factor = 1.0;
+    private boolean quantiles = false;
+
+    public MetricDefinition(Kind kind) {
+        this.kind = kind;
+        this.name = kind.getCliName();
+    }
+
+    public static MetricDefinition delayRatio() {
+        return new MetricDefinition(Kind.DELAY_RATIO);
+    }
+
+    public static MetricDefinition averageSpeed() {
+        return new MetricDefinition(Kind.AVERAGE_SPEED);
+    }
+
+    // Congestion index = factor * vehicles entering / capacity per hour
+    public static MetricDefinition congestionIndex(double factor) {
+        return new MetricDefinition(Kind.CONGESTION_INDEX).setFactor(factor);
+    }
+
+    public MetricDefinition setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public MetricDefinition setWindow(double start, double end) {
+        if (end < start) {
+            throw new IllegalArgumentException("Window ends before it starts: " + start + " - " + end);
+        }
+        this.windowStart = start;
+        this.windowEnd = end;
+        return this;
+    }
+
+    public MetricDefinition setClipped(boolean clipped) {
+        if (clipped && !kind.isLinkMetric()) {
+            throw new IllegalArgumentException("Only link metrics can clip traversals to the window, not " + kind.getCliName());
+        }
+        this.clipped = clipped;
+        return this;
+    }
+
+    public MetricDefinition setFactor(double factor) {
+        this.factor = factor;
+        return this;
+    }
+
+    public MetricDefinition setQuantiles(boolean quantiles) {
+        if (quantiles && kind.isLinkMetric()) {
+            throw new IllegalArgumentException("Quantiles are only available for vehicle metrics, not " + kind.getCliName());
+        }
+        this.quantiles = quantiles;
+        return this;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getWindowStart() {
+        return windowStart;
+    }
+
+    public double getWindowEnd() {
+        return windowEnd;
+    }
+
+    public boolean hasWindow() {
+        return windowStart > Double.NEGATIVE_INFINITY || windowEnd < Double.POSITIVE_INFINITY;
+    }
+
+    public boolean isClipped() {
+        return clipped;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public boolean hasQuantiles() {
+        return quantiles;
+    }
+
+    // e.g. "congestion_index,window=15:00-17:00,factor=10,name=link_congestion_peak_hour"
+    public static MetricDefinition parse(String spec) {
+        String[] parts = spec.trim().split(",");
+        MetricDefinition definition;
+        try {
+            definition = new MetricDefinition(Kind.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown metric '" + parts[0] + "' in '" + spec + "'", e);
+        }
+        for (int i = 1; i < parts.length; i++) {
+            String[] option = parts[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected key=value, got '" + parts[i] + "' in '" + spec + "'");
+            }
+            String value = option[1].trim();
+            switch (option[0].trim()) {
+                case "window":
+                    String[] times = value.split("-");
+                    if (times.length != 2) {
+                        throw new IllegalArgumentException("Expected a window like 15:00-17:00, got '" + value + "'");
+                    }
+                    definition.setWindow(parseTime(times[0]), parseTime(times[1]));
+                    break;
+                case "clip":
+                    definition.setClipped(Boolean.parseBoolean(value));
+                    break;
+                case "factor":
+                    definition.setFactor(Double.parseDouble(value));
+                    break;
+                case "quantiles":
+                    definition.setQuantiles(Boolean.parseBoolean(value));
+                    break;
+                case "name":
+                    definition.setName(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option '" + option[0] + "' in '" + spec + "'");
+            }
+        }
+        return definition;
+    }
+
+    // HH:MM, HH:MM:SS or seconds
+    static double parseTime(String time) {
+        String[] fields = time.trim().split(":");
+        double seconds = 0;
+        for (String field : fields) {
+            seconds = seconds * 60 + Double.parseDouble(field);
+        }
+        for (int i = fields.length; i < 3 && fields.length > 1; i++) {
+            seconds *= 60;
+        }
+        return seconds;
+    }
+}
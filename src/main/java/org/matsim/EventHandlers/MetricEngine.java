@@ -0,0 +1,376 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+// Evaluates any number of MetricDefinitions on the links of a study area in one pass over the
+// events, with one event handler. A traversal's travel time, free-flow travel time and length are
+// computed once; every metric then costs a window check and a few additions in a loop over
+// primitive arrays, without a handler or an events scan of its own.
+//
+// Shared by all metrics:
+//   - enter times per (vehicle, link)
+//   - the anomaly filter of the vehicle metrics: traversals over 100 times the free-flow travel
+//     time are reported, over 1000 times they are also left out of the vehicle totals
+//   - the vehicle totals of all vehicle metrics with the same window
+//
+// Usage:
+//   MetricEngine --network <studyNetwork.xml> --events <output_events.xml(.gz) or events store>
+//                --output <outputDir> --metrics "<spec>;<spec>;..."
+// with specs as described in MetricDefinition, e.g.
+//   --metrics "delay_ratio,quantiles=true;congestion_index,window=15:00-17:00,factor=10"
+public class MetricEngine {
+
+    private static final double ABNORMAL_DELAY_FACTOR = 100;
+    private static final double EXTREME_TRAVEL_TIME_FACTOR = 1000;
+
+    private final StudyArea studyArea;
+    private final MetricDefinition[] metrics;
+
+    // per metric, flattened so that the event loop only reads arrays
+    private final boolean[] isLinkMetric;
+    private final boolean[] clipped;
+    private final double[] windowStarts;
+    private final double[] windowEnds;
+    private final LinkStatistics[] linkStatistics;
+    private final int[] vehicleGroupOfMetric;
+    private final LinkQuantileSketches[] quantiles;
+
+    // vehicle metrics with the same window share their totals
+    private final double[] groupWindowStarts;
+    private final double[] groupWindowEnds;
+    private final VehicleAccumulators[] vehicleGroups;
+
+    private final LinkOccupancyTracker linkEnterTimes = new LinkOccupancyTracker();
+    private final AnomalyCollector anomalies = new AnomalyCollector();
+    private final MetricEventHandler eventHandler = new MetricEventHandler();
+
+    public MetricEngine(Network studyAreaNetwork, MetricDefinition... metrics) {
+        this(studyAreaNetwork, Arrays.asList(metrics));
+    }
+
+    public MetricEngine(Network studyAreaNetwork, List<MetricDefinition> metrics) {
+        if (metrics.isEmpty()) {
+            throw new IllegalArgumentException("No metrics defined");
+        }
+        this.studyArea = StudyArea.of(studyAreaNetwork);
+        this.metrics = metrics.toArray(new MetricDefinition[0]);
+
+        int n = this.metrics.length;
+        isLinkMetric = new boolean[n];
+        clipped = new boolean[n];
+        windowStarts = new double[n];
+        windowEnds = new double[n];
+        linkStatistics = new LinkStatistics[n];
+        vehicleGroupOfMetric = new int[n];
+        quantiles = new LinkQuantileSketches[n];
+
+        List<double[]> groupWindows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            MetricDefinition metric = this.metrics[i];
+            isLinkMetric[i] = metric.getKind().isLinkMetric();
+            clipped[i] = metric.isClipped();
+            windowStarts[i] = metric.getWindowStart();
+            windowEnds[i] = metric.getWindowEnd();
+            vehicleGroupOfMetric[i] = -1;
+            if (isLinkMetric[i]) {
+                linkStatistics[i] = new LinkStatistics();
+                continue;
+            }
+            for (int group = 0; group < groupWindows.size(); group++) {
+                if (groupWindows.get(group)[0] == windowStarts[i] && groupWindows.get(group)[1] == windowEnds[i]) {
+                    vehicleGroupOfMetric[i] = group;
+                }
+            }
+            if (vehicleGroupOfMetric[i] < 0) {
+                vehicleGroupOfMetric[i] = groupWindows.size();
+                groupWindows.add(new double[]{windowStarts[i], windowEnds[i]});
+            }
+            if (metric.hasQuantiles()) {
+                quantiles[i] = new LinkQuantileSketches();
+            }
+        }
+
+        groupWindowStarts = new double[groupWindows.size()];
+        groupWindowEnds = new double[groupWindows.size()];
+        vehicleGroups = new VehicleAccumulators[groupWindows.size()];
+        for (int group = 0; group < groupWindows.size(); group++) {
+            groupWindowStarts[group] = groupWindows.get(group)[0];
+            groupWindowEnds[group] = groupWindows.get(group)[1];
+            vehicleGroups[group] = new VehicleAccumulators();
+        }
+    }
+
+    private class MetricEventHandler implements
+            LinkEnterEventHandler,
+            LinkLeaveEventHandler,
+            VehicleEntersTrafficEventHandler,
+            VehicleLeavesTrafficEventHandler {
+
+        @Override
+        public void handleEvent(LinkEnterEvent event) {
+            processEnterEvent(event.getVehicleId(), event.getLinkId(), event.getTime());
+        }
+
+        @Override
+        public void handleEvent(VehicleEntersTrafficEvent event) {
+            processEnterEvent(event.getVehicleId(), event.getLinkId(), event.getTime());
+        }
+
+        @Override
+        public void handleEvent(LinkLeaveEvent event) {
+            processLeaveEvent(event.getVehicleId(), event.getLinkId(), event.getTime());
+        }
+
+        @Override
+        public void handleEvent(VehicleLeavesTrafficEvent event) {
+            processLeaveEvent(event.getVehicleId(), event.getLinkId(), event.getTime());
+        }
+
+        @Override
+        public void reset(int iteration) {
+            clear();
+        }
+    }
+
+    private void processEnterEvent(Id<Vehicle> vehicleId, Id<Link> linkId, double time) {
+        if (!studyArea.contains(linkId)) {
+            return;
+        }
+        linkEnterTimes.enter(vehicleId, linkId, time);
+
+        // link metrics count the vehicles entering within the window, or before its end when clipping
+        for (int i = 0; i < metrics.length; i++) {
+            if (isLinkMetric[i] && time <= windowEnds[i] && (clipped[i] || time >= windowStarts[i])) {
+                linkStatistics[i].increment(linkId);
+            }
+        }
+    }
+
+    private void processLeaveEvent(Id<Vehicle> vehicleId, Id<Link> linkId, double time) {
+        if (!studyArea.contains(linkId)) {
+            return;
+        }
+        double enterTime = linkEnterTimes.leave(vehicleId, linkId);
+        if (Double.isNaN(enterTime)) {
+            return;
+        }
+        double travelTime = time - enterTime;
+
+        for (int i = 0; i < metrics.length; i++) {
+            if (!isLinkMetric[i]) {
+                continue;
+            }
+            if (clipped[i]) {
+                double leaveTime = Math.min(time, windowEnds[i]);
+                if (enterTime <= windowEnds[i] && leaveTime >= windowStarts[i]) {
+                    linkStatistics[i].add(linkId, leaveTime - Math.max(enterTime, windowStarts[i]));
+                }
+            } else if (enterTime >= windowStarts[i] && time <= windowEnds[i]) {
+                linkStatistics[i].add(linkId, travelTime);
+            }
+        }
+
+        if (vehicleGroups.length == 0) {
+            return;
+        }
+        double linkLength = studyArea.getLength(linkId);
+        double freeFlowTravelTime = studyArea.getFreeFlowTravelTime(linkId);
+
+        // Skip traversals of links without length and negative travel times
+        if (linkLength == 0 || travelTime < 0) {
+            return;
+        }
+        if (travelTime > EXTREME_TRAVEL_TIME_FACTOR * freeFlowTravelTime) {
+            anomalies.record(AnomalyCollector.Kind.EXTREME_TRAVEL_TIME, vehicleId, linkId, time, travelTime, freeFlowTravelTime);
+            return;
+        }
+        if (travelTime > ABNORMAL_DELAY_FACTOR * freeFlowTravelTime) {
+            anomalies.record(AnomalyCollector.Kind.ABNORMAL_DELAY, vehicleId, linkId, time, travelTime, freeFlowTravelTime);
+        }
+
+        for (int group = 0; group < vehicleGroups.length; group++) {
+            if (enterTime >= groupWindowStarts[group] && time <= groupWindowEnds[group]) {
+                vehicleGroups[group].add(vehicleId, travelTime, linkLength, freeFlowTravelTime);
+            }
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            if (quantiles[i] != null && enterTime >= windowStarts[i] && time <= windowEnds[i]) {
+                double value = metrics[i].getKind() == MetricDefinition.Kind.DELAY_RATIO ? travelTime - freeFlowTravelTime : travelTime;
+                quantiles[i].add(linkId, enterTime, value);
+            }
+        }
+    }
+
+    public EventHandler getEventHandler() {
+        return eventHandler;
+    }
+
+    public List<MetricDefinition> getMetrics() {
+        return Collections.unmodifiableList(Arrays.asList(metrics));
+    }
+
+    // Read the events of the study area; if every metric has a window without clipping, only the
+    // events within the windows are read. Reading starts at the first window if the events file has
+    // an EventsTimeIndex (built with its main), otherwise the events before the windows are scanned
+    // but not created.
+    public void readEvents(String eventsFile) throws IOException {
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        eventsManager.addHandler(eventHandler);
+
+        FilteredEventsReader reader = new FilteredEventsReader(eventsManager).setLinks(studyArea.getLinkIds());
+        double start = Double.POSITIVE_INFINITY;
+        double end = Double.NEGATIVE_INFINITY;
+        boolean windowed = true;
+        for (MetricDefinition metric : metrics) {
+            windowed &= metric.hasWindow() && !metric.isClipped();
+            start = Math.min(start, metric.getWindowStart());
+            end = Math.max(end, metric.getWindowEnd());
+        }
+        if (windowed) {
+            reader.setTimeWindow(start, end);
+        }
+        reader.readFile(eventsFile);
+    }
+
+    // Write every metric to <name>.csv in the output directory
+    public void writeResults(String outputDirectory) throws IOException {
+        new File(outputDirectory).mkdirs();
+        for (int i = 0; i < metrics.length; i++) {
+            String outputFile = new File(outputDirectory, metrics[i].getName() + ".csv").getPath();
+            writeMetric(i, outputFile);
+            System.out.println(metrics[i].getName() + " results written to: " + outputFile);
+        }
+    }
+
+    // Write one metric, with its quantiles and the anomaly report of the vehicle metrics next to it
+    public void writeMetric(int metric, String outputFilePath) throws IOException {
+        switch (metrics[metric].getKind()) {
+            case DELAY_RATIO:
+                writeDelayRatios(vehicleGroups[vehicleGroupOfMetric[metric]], outputFilePath);
+                break;
+            case AVERAGE_SPEED:
+                writeAverageSpeeds(vehicleGroups[vehicleGroupOfMetric[metric]], outputFilePath);
+                break;
+            case CONGESTION_INDEX:
+                writeCongestionIndices(linkStatistics[metric], metrics[metric].getFactor(), outputFilePath);
+                break;
+        }
+
+        if (quantiles[metric] != null) {
+            quantiles[metric].writeQuantiles(LinkQuantileSketches.quantilesFileFor(outputFilePath));
+        }
+        // Summarize abnormal delays in one line and a report next to the results
+        if (!isLinkMetric[metric] && anomalies.hasAnomalies()) {
+            String reportFile = AnomalyCollector.reportFileFor(outputFilePath);
+            anomalies.writeReport(reportFile);
+            System.out.println("\n" + anomalies.getSummary() + ", see " + reportFile);
+        }
+    }
+
+    private static void writeDelayRatios(VehicleAccumulators vehicleTotals, String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("VehicleId,AverageDelayRatio,TotalDelay_s,TotalTravelTime_s,TotalFreeFlowTime_s\n");
+            for (int vehicle = vehicleTotals.nextVehicle(0); vehicle >= 0; vehicle = vehicleTotals.nextVehicle(vehicle + 1)) {
+                double totalTravelTime = vehicleTotals.getTravelTime(vehicle);
+                double totalFreeFlowTime = vehicleTotals.getFreeFlowTravelTime(vehicle);
+                // Total delay in seconds, and the extra time relative to the free-flow travel time
+                double totalDelay = totalTravelTime - totalFreeFlowTime;
+                double averageDelayRatio = totalFreeFlowTime > 0 ? (totalTravelTime / totalFreeFlowTime) - 1 : 0;
+
+                writer.write(Id.get(vehicle, Vehicle.class) + "," + averageDelayRatio + "," + totalDelay + ","
+                        + totalTravelTime + "," + totalFreeFlowTime + "\n");
+            }
+        }
+    }
+
+    private static void writeAverageSpeeds(VehicleAccumulators vehicleTotals, String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("VehicleId,AverageTravelSpeed_mps,TotalTravelTime_s,TotalDistance_m\n");
+            for (int vehicle = vehicleTotals.nextVehicle(0); vehicle >= 0; vehicle = vehicleTotals.nextVehicle(vehicle + 1)) {
+                double totalTime = vehicleTotals.getTravelTime(vehicle);
+                double totalDistance = vehicleTotals.getDistance(vehicle);
+                double averageSpeed = totalTime > 0 ? totalDistance / totalTime : 0;
+
+                writer.write(Id.get(vehicle, Vehicle.class) + "," + averageSpeed + "," + totalTime + "," + totalDistance + "\n");
+            }
+        }
+    }
+
+    private void writeCongestionIndices(LinkStatistics statistics, double factor, String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("LinkId,AverageDelay_sec,VehicleCount,CongestionIndex\n");
+            for (Id<Link> linkId : statistics.getLinksWithSum()) {
+                double totalDelay = statistics.getSum(linkId);
+                int count = statistics.getCount(linkId);
+                double avgDelay = count > 0 ? totalDelay / count : 0.0;
+
+                // Congestion index: vehicle count relative to the capacity
+                double capacity = studyArea.getCapacity(linkId);
+                double congestionIndex = capacity > 0 ? factor * count / capacity : 0.0;
+
+                writer.write(linkId + "," + avgDelay + "," + count + "," + congestionIndex + "\n");
+            }
+        }
+    }
+
+    public void clear() {
+        linkEnterTimes.clear();
+        anomalies.clear();
+        for (int i = 0; i < metrics.length; i++) {
+            if (linkStatistics[i] != null) {
+                linkStatistics[i].clear();
+            }
+            if (quantiles[i] != null) {
+                quantiles[i].clear();
+            }
+        }
+        for (VehicleAccumulators vehicleTotals : vehicleGroups) {
+            vehicleTotals.clear();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String networkFile = options.get("network");
+        String eventsFile = options.get("events");
+        String outputDirectory = options.get("output");
+        String specs = options.get("metrics");
+        if (networkFile == null || eventsFile == null || outputDirectory == null || specs == null) {
+            System.err.println("Usage: MetricEngine --network <file> --events <file> --output <dir> --metrics \"<spec>;<spec>\"");
+            System.exit(1);
+        }
+
+        List<MetricDefinition> metrics = new ArrayList<>();
+        for (String spec : specs.split(";")) {
+            metrics.add(MetricDefinition.parse(spec));
+        }
+
+        Network studyAreaNetwork = NetworkLoader.load(networkFile);
+
+        MetricEngine engine = new MetricEngine(studyAreaNetwork, metrics);
+        long start = System.currentTimeMillis();
+        engine.readEvents(eventsFile);
+        System.out.println("Evaluated " + metrics.size() + " metrics in one events pass in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s");
+        engine.writeResults(outputDirectory);
+    }
+}
@@ -0,0 +1,60 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.IOException;
+
+// Base of the analyzers that are a single MetricDefinition evaluated by the MetricEngine,
+// e.g. CongestionAnalyzerPeak = congestion index with factor 10 in the 15:00 - 17:00 window.
+// The EventsAnalysisPipeline evaluates all selected presets in one shared engine.
+public abstract class MetricPreset implements EventsAnalyzer {
+
+    private final Network studyAreaNetwork;
+    private final MetricDefinition metric;
+    private MetricEngine engine;
+    private int metricIndex;
+
+    protected MetricPreset(Network studyAreaNetwork, MetricDefinition metric) {
+        this.studyAreaNetwork = studyAreaNetwork;
+        this.metric = metric;
+    }
+
+    public MetricDefinition getMetric() {
+        return metric;
+    }
+
+    // Evaluate the metric as metric number metricIndex of an engine shared with other presets
+    void shareEngine(MetricEngine engine, int metricIndex) {
+        if (engine.getMetrics().get(metricIndex) != metric) {
+            throw new IllegalArgumentException("Metric " + metricIndex + " of the engine is not " + metric.getName());
+        }
+        this.engine = engine;
+        this.metricIndex = metricIndex;
+    }
+
+    private MetricEngine engine() {
+        if (engine == null) {
+            engine = new MetricEngine(studyAreaNetwork, metric);
+            metricIndex = 0;
+        }
+        return engine;
+    }
+
+    // Process events and write the results to a CSV file
+    public void processEvents(String eventsFile, String outputFilePath) throws IOException {
+        engine().readEvents(eventsFile);
+        writeResults(outputFilePath);
+    }
+
+    @Override
+    public EventHandler getEventHandler() {
+        return engine().getEventHandler();
+    }
+
+    // Write the results collected so far to a CSV file
+    @Override
+    public void writeResults(String outputFilePath) throws IOException {
+        engine().writeMetric(metricIndex, outputFilePath);
+    }
+}
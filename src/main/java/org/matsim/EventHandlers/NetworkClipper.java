@@ -0,0 +1,250 @@
+package EventHandlers;
+
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.gis.ShapeFileReader;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Cuts a network to a study area: a link is kept if both of its nodes lie inside the area.
+//
+// Every node is tested once. The polygons of the study area are prepared (PreparedGeometry) and
+// put into an STRtree, so a node is only tested against the polygons whose envelope contains it,
+// which keeps multi-polygon areas cheap. The nodes are tested on several threads.
+//
+// The study area is read from a shapefile (.shp), WKT (.wkt) or GeoJSON (.geojson, .json) and has
+// to use the coordinate system of the network.
+//
+// Usage:
+//   NetworkClipper --network <network.xml(.gz)> --study-area <area.shp|.wkt|.geojson>
+//                  --output <filtered-network.xml(.gz)> [--modes all|none|<mode>,<mode>] [--threads <n>]
+// The cut network is cleaned with NetworkConnectivityCleaner for the given modes (default: car),
+// the dropped links are listed in <output>_dropped_links.csv. Several study areas are cut from one read of the network with --study-area "<file>;<file>"
+// and --output <dir>, which writes <dir>/<study area file name>-network.xml.gz per area.
+public class NetworkClipper {
+
+    // Nodes per task when testing in parallel
+    private static final int NODES_PER_TASK = 1 << 14;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private final STRtree polygons = new STRtree();
+    private final int numberOfThreads;
+
+    public NetworkClipper(Geometry studyArea, int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + numberOfThreads);
+        }
+        this.numberOfThreads = numberOfThreads;
+
+        List<Polygon> parts = new ArrayList<>();
+        collectPolygons(studyArea, parts);
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("The study area contains no polygon");
+        }
+        for (Polygon part : parts) {
+            polygons.insert(part.getEnvelopeInternal(), PreparedGeometryFactory.prepare(part));
+        }
+        // build now, queries from several threads must not trigger it
+        polygons.build();
+    }
+
+    public NetworkClipper(Geometry studyArea) {
+        this(studyArea, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static void collectPolygons(Geometry geometry, List<Polygon> parts) {
+        if (geometry instanceof Polygon) {
+            if (!geometry.isEmpty()) {
+                parts.add((Polygon) geometry);
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                collectPolygons(geometry.getGeometryN(i), parts);
+            }
+        }
+    }
+
+    // Polygons of a shapefile, WKT or GeoJSON file as one geometry
+    public static Geometry readStudyArea(String file) throws IOException {
+        GeometryFactory geometryFactory = new GeometryFactory();
+        String name = file.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".shp")) {
+            List<Geometry> geometries = new ArrayList<>();
+            for (SimpleFeature feature : ShapeFileReader.getAllFeatures(file)) {
+                if (feature.getDefaultGeometry() instanceof Geometry) {
+                    geometries.add((Geometry) feature.getDefaultGeometry());
+                }
+            }
+            return geometryFactory.buildGeometry(geometries);
+        }
+
+        String content = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+        if (name.endsWith(".wkt")) {
+            try {
+                return new WKTReader(geometryFactory).read(content);
+            } catch (ParseException e) {
+                throw new IOException("Could not parse the WKT study area " + file, e);
+            }
+        }
+        if (name.endsWith(".geojson") || name.endsWith(".json")) {
+            try {
+                return geometryFactory.buildGeometry(GeoJsonPolygons.read(content, geometryFactory));
+            } catch (IllegalArgumentException | ClassCastException | IndexOutOfBoundsException e) {
+                throw new IOException("Could not parse the GeoJSON study area " + file, e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown study area format, expected .shp, .wkt or .geojson: " + file);
+    }
+
+    // Strictly inside the study area, as Geometry.contains: points on the border are outside
+    public boolean contains(Coord coord) {
+        Coordinate coordinate = new Coordinate(coord.getX(), coord.getY());
+        Point point = null;
+        for (Object candidate : polygons.query(new Envelope(coordinate))) {
+            if (point == null) {
+                point = geometryFactory.createPoint(coordinate);
+            }
+            if (((PreparedGeometry) candidate).contains(point)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Set<Id<Node>> findNodesInside(Network network) {
+        List<Node> nodes = new ArrayList<>(network.getNodes().values());
+        boolean[] inside = new boolean[nodes.size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int start = 0; start < nodes.size(); start += NODES_PER_TASK) {
+                int from = start;
+                int to = Math.min(nodes.size(), start + NODES_PER_TASK);
+                tasks.add(executor.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        inside[i] = contains(nodes.get(i).getCoord());
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while testing the nodes against the study area", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to test the nodes against the study area", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Set<Id<Node>> nodesInside = new HashSet<>();
+        for (int i = 0; i < inside.length; i++) {
+            if (inside[i]) {
+                nodesInside.add(nodes.get(i).getId());
+            }
+        }
+        return nodesInside;
+    }
+
+    // A new network with the links that have both nodes inside the study area and their nodes,
+    // including all attributes
+    public Network clip(Network network) {
+        Set<Id<Node>> nodesInside = findNodesInside(network);
+
+        Network filteredNetwork = NetworkUtils.createNetwork();
+        filteredNetwork.setCapacityPeriod(network.getCapacityPeriod());
+        filteredNetwork.setEffectiveLaneWidth(network.getEffectiveLaneWidth());
+        NetworkFactory factory = filteredNetwork.getFactory();
+        for (Link link : network.getLinks().values()) {
+            if (!nodesInside.contains(link.getFromNode().getId()) || !nodesInside.contains(link.getToNode().getId())) {
+                continue;
+            }
+            Link newLink = factory.createLink(link.getId(), copyNode(link.getFromNode(), filteredNetwork),
+                    copyNode(link.getToNode(), filteredNetwork));
+            newLink.setLength(link.getLength());
+            newLink.setFreespeed(link.getFreespeed());
+            newLink.setCapacity(link.getCapacity());
+            newLink.setNumberOfLanes(link.getNumberOfLanes());
+            newLink.setAllowedModes(link.getAllowedModes());
+            link.getAttributes().getAsMap().forEach(newLink.getAttributes()::putAttribute);
+            filteredNetwork.addLink(newLink);
+        }
+        return filteredNetwork;
+    }
+
+    private static Node copyNode(Node node, Network filteredNetwork) {
+        Node copy = filteredNetwork.getNodes().get(node.getId());
+        if (copy == null) {
+            copy = filteredNetwork.getFactory().createNode(node.getId(), node.getCoord());
+            node.getAttributes().getAsMap().forEach(copy.getAttributes()::putAttribute);
+            filteredNetwork.addNode(copy);
+        }
+        return copy;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String networkFile = options.get("network");
+        String studyAreas = options.get("study-area");
+        String output = options.get("output");
+        if (networkFile == null || studyAreas == null || output == null) {
+            System.err.println("Usage: NetworkClipper --network <file> --study-area <file>[;<file>...] --output <file or dir>"
+                    + " [--modes car|all|none|<mode>,...] [--threads <n>]");
+            System.exit(1);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        String modes = options.getOrDefault("modes", TransportMode.car);
+
+        Network network = NetworkLoader.load(networkFile);
+
+        String[] studyAreaFiles = studyAreas.split(";");
+        for (String studyAreaFile : studyAreaFiles) {
+            String outputFile = output;
+            if (studyAreaFiles.length > 1) {
+                new File(output).mkdirs();
+                String name = new File(studyAreaFile.trim()).getName();
+                int extension = name.lastIndexOf('.');
+                outputFile = new File(output, (extension > 0 ? name.substring(0, extension) : name) + "-network.xml.gz").getPath();
+            }
+
+            long start = System.currentTimeMillis();
+            Network filteredNetwork = new NetworkClipper(readStudyArea(studyAreaFile.trim()), threads).clip(network);
+            System.out.println("Cut " + studyAreaFile.trim() + ": " + filteredNetwork.getLinks().size() + " of "
+                    + network.getLinks().size() + " links in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+
+            if (!modes.equals("none")) {
+                NetworkConnectivityCleaner cleaner = new NetworkConnectivityCleaner();
+                NetworkConnectivityCleaner.Report report = modes.equals("all") ? cleaner.cleanAllModes(filteredNetwork)
+                        : cleaner.clean(filteredNetwork, Arrays.asList(modes.split(",")));
+                System.out.println(report.getSummary());
+                String reportFile = NetworkConnectivityCleaner.reportFileFor(outputFile);
+                report.write(reportFile);
+                System.out.println("Dropped links written to: " + reportFile);
+            }
+
+            NetworkUtils.writeNetwork(filteredNetwork, outputFile);
+            System.out.println("Filtered network written to: " + outputFile);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+// Makes a (cut) network routable per mode: for every mode, only the links inside the largest
+// strongly connected component of the links allowing that mode keep the mode. Links left without
+// any mode and nodes left without any link are removed. Without this, dead ends and islands at
+// the border of a cut network produce stuck vehicles and extreme travel times.
+//
+// By default only car is cleaned, as MATSim's NetworkCleaner does: links of other modes (rail, pt,
+// bike) are often legitimately one-way or disconnected and would otherwise lose their modes.
+//
+// The components are found with an iterative Tarjan pass over flat adjacency arrays, linear in
+// the number of nodes and links of the mode; each mode is cleaned independently of the others.
+public class NetworkConnectivityCleaner {
+
+    // What the cleaning removed
+    public static final class Report {
+        private final Map<String, int[]> modeStatistics = new TreeMap<>();
+        private final Map<Id<Link>, Set<String>> droppedModes = new LinkedHashMap<>();
+        private final Set<Id<Link>> removedLinks = new LinkedHashSet<>();
+        private int removedNodes = 0;
+
+        // Nodes in the kept component, number of components and links that lost the mode
+        public int getNodesInLargestComponent(String mode) {
+            return modeStatistics.get(mode)[0];
+        }
+
+        public int getNumberOfComponents(String mode) {
+            return modeStatistics.get(mode)[1];
+        }
+
+        public int getDroppedLinks(String mode) {
+            return modeStatistics.get(mode)[2];
+        }
+
+        public Map<Id<Link>, Set<String>> getDroppedModes() {
+            return Collections.unmodifiableMap(droppedModes);
+        }
+
+        public Set<Id<Link>> getRemovedLinks() {
+            return Collections.unmodifiableSet(removedLinks);
+        }
+
+        public int getRemovedNodes() {
+            return removedNodes;
+        }
+
+        public String getSummary() {
+            StringBuilder summary = new StringBuilder();
+            for (Map.Entry<String, int[]> mode : modeStatistics.entrySet()) {
+                int[] statistics = mode.getValue();
+                summary.append(mode.getKey()).append(": kept the largest of ").append(statistics[1])
+                        .append(" components with ").append(statistics[0]).append(" nodes, dropped the mode on ")
+                        .append(statistics[2]).append(" links\n");
+            }
+            summary.append("Removed ").append(removedLinks.size()).append(" links and ").append(removedNodes).append(" nodes");
+            return summary.toString();
+        }
+
+        // One line per link and dropped mode
+        public void write(String outputFilePath) throws IOException {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+                writer.write("LinkId,Mode,LinkRemoved\n");
+                for (Map.Entry<Id<Link>, Set<String>> link : droppedModes.entrySet()) {
+                    boolean removed = removedLinks.contains(link.getKey());
+                    for (String mode : link.getValue()) {
+                        writer.write(link.getKey() + "," + mode + "," + removed + "\n");
+                    }
+                }
+            }
+        }
+    }
+
+    // Clean car only
+    public Report clean(Network network) {
+        return clean(network, Collections.singleton(TransportMode.car));
+    }
+
+    // Clean all modes allowed on any link
+    public Report cleanAllModes(Network network) {
+        Set<String> modes = new TreeSet<>();
+        for (Link link : network.getLinks().values()) {
+            modes.addAll(link.getAllowedModes());
+        }
+        return clean(network, modes);
+    }
+
+    public Report clean(Network network, Collection<String> modes) {
+        Report report = new Report();
+        for (String mode : modes) {
+            cleanMode(network, mode, report);
+        }
+
+        for (Map.Entry<Id<Link>, Set<String>> link : report.droppedModes.entrySet()) {
+            Link networkLink = network.getLinks().get(link.getKey());
+            Set<String> allowedModes = new HashSet<>(networkLink.getAllowedModes());
+            allowedModes.removeAll(link.getValue());
+            if (allowedModes.isEmpty()) {
+                network.removeLink(link.getKey());
+                report.removedLinks.add(link.getKey());
+            } else {
+                networkLink.setAllowedModes(allowedModes);
+            }
+        }
+
+        List<Id<Node>> unusedNodes = new ArrayList<>();
+        for (Node node : network.getNodes().values()) {
+            if (node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+                unusedNodes.add(node.getId());
+            }
+        }
+        for (Id<Node> nodeId : unusedNodes) {
+            network.removeNode(nodeId);
+        }
+        report.removedNodes = unusedNodes.size();
+        return report;
+    }
+
+    // Record the links of the mode outside its largest strongly connected component
+    private static void cleanMode(Network network, String mode, Report report) {
+        List<Link> links = new ArrayList<>();
+        for (Link link : network.getLinks().values()) {
+            if (link.getAllowedModes().contains(mode)) {
+                links.add(link);
+            }
+        }
+
+        // nodes of the mode numbered 0..n-1, via the Id.index() of the node
+        int[] nodeNumbers = new int[Id.getNumberOfIds(Node.class)];
+        Arrays.fill(nodeNumbers, -1);
+        int numberOfNodes = 0;
+        int[] from = new int[links.size()];
+        int[] to = new int[links.size()];
+        for (int i = 0; i < links.size(); i++) {
+            from[i] = numberOf(links.get(i).getFromNode(), nodeNumbers, numberOfNodes);
+            if (from[i] == numberOfNodes) {
+                numberOfNodes++;
+            }
+            to[i] = numberOf(links.get(i).getToNode(), nodeNumbers, numberOfNodes);
+            if (to[i] == numberOfNodes) {
+                numberOfNodes++;
+            }
+        }
+
+        // out-links of node v are edgeTargets[edgeStarts[v] .. edgeStarts[v + 1])
+        int[] edgeStarts = new int[numberOfNodes + 1];
+        for (int source : from) {
+            edgeStarts[source + 1]++;
+        }
+        for (int v = 0; v < numberOfNodes; v++) {
+            edgeStarts[v + 1] += edgeStarts[v];
+        }
+        int[] edgeTargets = new int[links.size()];
+        int[] fill = Arrays.copyOf(edgeStarts, numberOfNodes);
+        for (int i = 0; i < links.size(); i++) {
+            edgeTargets[fill[from[i]]++] = to[i];
+        }
+
+        int[] components = new int[numberOfNodes];
+        int numberOfComponents = stronglyConnectedComponents(numberOfNodes, edgeStarts, edgeTargets, components);
+
+        int[] componentSizes = new int[numberOfComponents];
+        for (int component : components) {
+            componentSizes[component]++;
+        }
+        int largest = 0;
+        for (int c = 1; c < numberOfComponents; c++) {
+            if (componentSizes[c] > componentSizes[largest]) {
+                largest = c;
+            }
+        }
+
+        int dropped = 0;
+        for (int i = 0; i < links.size(); i++) {
+            if (components[from[i]] != largest || components[to[i]] != largest) {
+                report.droppedModes.computeIfAbsent(links.get(i).getId(), id -> new TreeSet<>()).add(mode);
+                dropped++;
+            }
+        }
+        report.modeStatistics.put(mode, new int[]{numberOfComponents > 0 ? componentSizes[largest] : 0, numberOfComponents, dropped});
+    }
+
+    private static int numberOf(Node node, int[] nodeNumbers, int next) {
+        int index = node.getId().index();
+        if (nodeNumbers[index] < 0) {
+            nodeNumbers[index] = next;
+        }
+        return nodeNumbers[index];
+    }
+
+    // Tarjan's algorithm with an explicit call stack, so that long chains of links cannot
+    // overflow the Java stack. Fills the component of every node and returns their number.
+    static int stronglyConnectedComponents(int numberOfNodes, int[] edgeStarts, int[] edgeTargets, int[] components) {
+        int[] order = new int[numberOfNodes];
+        int[] lowLink = new int[numberOfNodes];
+        Arrays.fill(order, -1);
+        boolean[] onStack = new boolean[numberOfNodes];
+        int[] stack = new int[numberOfNodes];
+        int[] callNodes = new int[numberOfNodes];
+        int[] callEdges = new int[numberOfNodes];
+        int stackSize = 0;
+        int counter = 0;
+        int numberOfComponents = 0;
+
+        for (int root = 0; root < numberOfNodes; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callNodes[0] = root;
+            callEdges[0] = edgeStarts[root];
+            order[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int v = callNodes[depth];
+                if (callEdges[depth] < edgeStarts[v + 1]) {
+                    int w = edgeTargets[callEdges[depth]++];
+                    if (order[w] < 0) {
+                        order[w] = lowLink[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        depth++;
+                        callNodes[depth] = w;
+                        callEdges[depth] = edgeStarts[w];
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], order[w]);
+                    }
+                    continue;
+                }
+
+                // all successors of v are done
+                if (lowLink[v] == order[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        components[w] = numberOfComponents;
+                    } while (w != v);
+                    numberOfComponents++;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callNodes[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+            }
+        }
+        return numberOfComponents;
+    }
+
+    // Report of a cut network file: filtered-network.xml.gz -> filtered-network_dropped_links.csv
+    public static String reportFileFor(String networkFile) {
+        String base = networkFile.endsWith(".gz") ? networkFile.substring(0, networkFile.length() - 3) : networkFile;
+        return EventsAnalysisPipeline.siblingFile(base, "_dropped_links.csv");
+    }
+}
@@ -0,0 +1,81 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+// Loads a network for the analysis tools. A NetworkSnapshot next to the XML (<network file>.snapshot)
+// is used if it was written from the current version of the XML; otherwise the XML is parsed. The
+// snapshot is only written when asked for, with load(file, true) or the NetworkSnapshot main, so
+// that loading a network never leaves files next to it. A snapshot file can also be given directly.
+public class NetworkLoader {
+
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private NetworkLoader() {
+    }
+
+    public static String snapshotFileFor(String networkFile) {
+        return networkFile + SNAPSHOT_SUFFIX;
+    }
+
+    public static Network load(String networkFile) {
+        return load(networkFile, false);
+    }
+
+    // With writeSnapshot, a missing or outdated snapshot is (re)written after parsing the XML
+    public static Network load(String networkFile, boolean writeSnapshot) {
+        if (networkFile.endsWith(SNAPSHOT_SUFFIX)) {
+            try {
+                return NetworkSnapshot.read(Paths.get(networkFile));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read network snapshot " + networkFile, e);
+            }
+        }
+
+        File xmlFile = new File(networkFile);
+        Path snapshotFile = Paths.get(snapshotFileFor(networkFile));
+        if (NetworkSnapshot.isCurrent(snapshotFile, xmlFile)) {
+            try {
+                return NetworkSnapshot.read(snapshotFile);
+            } catch (IOException e) {
+                System.err.println("Ignoring network snapshot " + snapshotFile + ": " + e.getMessage());
+            }
+        }
+
+        Network network = NetworkUtils.createNetwork();
+        new MatsimNetworkReader(network).readFile(networkFile);
+        if (writeSnapshot) {
+            writeSnapshot(network, xmlFile, snapshotFile);
+        }
+        return network;
+    }
+
+    // Written to a temporary file first, so that concurrent jobs never read half a snapshot.
+    // A snapshot that cannot be written only costs the next start another XML parse.
+    private static void writeSnapshot(Network network, File xmlFile, Path snapshotFile) {
+        Path temporaryFile = null;
+        try {
+            Path directory = snapshotFile.toAbsolutePath().getParent();
+            temporaryFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+            NetworkSnapshot.write(network, xmlFile, temporaryFile);
+            Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not write network snapshot " + snapshotFile + ": " + e.getMessage());
+            if (temporaryFile != null) {
+                try {
+                    Files.deleteIfExists(temporaryFile);
+                } catch (IOException ignored) {
+                    // nothing left to do
+                }
+            }
+        }
+    }
+}
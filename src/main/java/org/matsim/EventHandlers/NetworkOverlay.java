@@ -0,0 +1,257 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Link attribute patches applied over a shared base network at load time, so that scenario
+// variants (closures, TDM measures, ...) do not need a full copy of the network each. One patch
+// per line, applied in file order; empty lines and lines starting with # are skipped:
+//
+//   Links,Attribute,Operation,Value
+//   @type=residential,freespeed,scale,0.6     all links whose attribute "type" is "residential"
+//   @type=residential,capacity,scale,0.5
+//   4711,modes,set,bike|walk                  the link with id 4711; modes separated by |
+//   4712,capacity,set,0
+//   *,lanes,add,1                             all links
+//   4713,,remove,                             remove the link
+//   *,toll,remove,                            remove the attribute "toll" from all links
+//
+// Attributes: freespeed, capacity, lanes, length, modes, or any other link attribute (set stores
+// the value as a string, scale and add need a numeric attribute). Operations: set, scale, add,
+// remove. Remove without an attribute removes the links, with an attribute only that attribute;
+// the built-in attributes cannot be removed, and remove takes no value. Removing links that plans
+// refer to breaks these plans; restrict the modes or the capacity instead.
+public class NetworkOverlay {
+
+    public enum Operation {SET, SCALE, ADD, REMOVE}
+
+    private static final Set<String> BUILT_IN_ATTRIBUTES = new HashSet<>(Arrays.asList("freespeed", "capacity", "lanes", "length", "modes"));
+
+    // One line of an overlay
+    public static final class Patch {
+        private final String links;
+        private final String attribute;
+        private final Operation operation;
+        private final String value;
+        private final int line;
+
+        Patch(String links, String attribute, Operation operation, String value, int line) {
+            this.links = links;
+            this.attribute = attribute;
+            this.operation = operation;
+            this.value = value;
+            this.line = line;
+        }
+
+        boolean selectsAll() {
+            return links.equals("*");
+        }
+
+        boolean selectsByAttribute() {
+            return links.startsWith("@");
+        }
+
+        @Override
+        public String toString() {
+            return links + "," + attribute + "," + operation.name().toLowerCase(Locale.ROOT) + "," + value;
+        }
+    }
+
+    private final String source;
+    private final List<Patch> patches = new ArrayList<>();
+
+    private NetworkOverlay(String source) {
+        this.source = source;
+    }
+
+    public static NetworkOverlay read(String file) throws IOException {
+        return read(new File(file).toURI().toURL());
+    }
+
+    public static NetworkOverlay read(URL url) throws IOException {
+        NetworkOverlay overlay = new NetworkOverlay(url.toString());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || (lineNumber == 1 && line.startsWith("Links,"))) {
+                    continue;
+                }
+                overlay.patches.add(parse(line, lineNumber, overlay.source));
+            }
+        }
+        return overlay;
+    }
+
+    private static Patch parse(String line, int lineNumber, String source) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 4) {
+            throw new IllegalArgumentException(source + ":" + lineNumber + ": expected Links,Attribute,Operation,Value, got '" + line + "'");
+        }
+        Operation operation;
+        try {
+            operation = Operation.valueOf(fields[2].trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(source + ":" + lineNumber + ": unknown operation '" + fields[2] + "'", e);
+        }
+        String attribute = fields[1].trim();
+        String value = fields[3].trim();
+        if (operation != Operation.REMOVE && attribute.isEmpty()) {
+            throw new IllegalArgumentException(source + ":" + lineNumber + ": missing attribute");
+        }
+        if (operation == Operation.SCALE || operation == Operation.ADD) {
+            try {
+                Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(source + ":" + lineNumber + ": " + operation.name().toLowerCase(Locale.ROOT) + " needs a number, got '" + value + "'", e);
+            }
+        }
+        if (operation == Operation.REMOVE) {
+            if (BUILT_IN_ATTRIBUTES.contains(attribute)) {
+                throw new IllegalArgumentException(source + ":" + lineNumber + ": " + attribute
+                        + " cannot be removed; leave the attribute empty to remove the link");
+            }
+            if (!value.isEmpty()) {
+                throw new IllegalArgumentException(source + ":" + lineNumber + ": remove takes no value, got '" + value + "'");
+            }
+        }
+        if (attribute.equals("modes") && operation != Operation.SET) {
+            throw new IllegalArgumentException(source + ":" + lineNumber + ": modes can only be set");
+        }
+        return new Patch(fields[0].trim(), attribute, operation, value, lineNumber);
+    }
+
+    public List<Patch> getPatches() {
+        return Collections.unmodifiableList(patches);
+    }
+
+    // Apply all patches in order; returns the number of links every patch changed. Patches on a
+    // single link fail if the network has no such link.
+    public int[] apply(Network network) {
+        int[] changedLinks = new int[patches.size()];
+        for (int i = 0; i < patches.size(); i++) {
+            Patch patch = patches.get(i);
+            for (Link link : selectLinks(network, patch)) {
+                if (patch.operation == Operation.REMOVE && patch.attribute.isEmpty()) {
+                    network.removeLink(link.getId());
+                } else {
+                    apply(link, patch);
+                }
+                changedLinks[i]++;
+            }
+        }
+        return changedLinks;
+    }
+
+    private List<Link> selectLinks(Network network, Patch patch) {
+        if (patch.selectsAll()) {
+            return new ArrayList<>(network.getLinks().values());
+        }
+        if (patch.selectsByAttribute()) {
+            String[] selector = patch.links.substring(1).split("=", 2);
+            if (selector.length != 2) {
+                throw new IllegalArgumentException(source + ":" + patch.line + ": expected @<attribute>=<value>, got '" + patch.links + "'");
+            }
+            List<Link> links = new ArrayList<>();
+            for (Link link : network.getLinks().values()) {
+                Object value = link.getAttributes().getAttribute(selector[0]);
+                if (value != null && value.toString().equals(selector[1])) {
+                    links.add(link);
+                }
+            }
+            return links;
+        }
+        Link link = network.getLinks().get(Id.createLinkId(patch.links));
+        if (link == null) {
+            throw new IllegalArgumentException(source + ":" + patch.line + ": no link " + patch.links + " in the network");
+        }
+        return Collections.singletonList(link);
+    }
+
+    private void apply(Link link, Patch patch) {
+        switch (patch.attribute) {
+            case "freespeed":
+                link.setFreespeed(apply(link.getFreespeed(), patch));
+                break;
+            case "capacity":
+                link.setCapacity(apply(link.getCapacity(), patch));
+                break;
+            case "lanes":
+                link.setNumberOfLanes(apply(link.getNumberOfLanes(), patch));
+                break;
+            case "length":
+                link.setLength(apply(link.getLength(), patch));
+                break;
+            case "modes":
+                Set<String> modes = new HashSet<>();
+                for (String mode : patch.value.split("\\|")) {
+                    if (!mode.trim().isEmpty()) {
+                        modes.add(mode.trim());
+                    }
+                }
+                link.setAllowedModes(modes);
+                break;
+            default:
+                if (patch.operation == Operation.SET) {
+                    link.getAttributes().putAttribute(patch.attribute, patch.value);
+                } else if (patch.operation == Operation.REMOVE) {
+                    link.getAttributes().removeAttribute(patch.attribute);
+                } else {
+                    Object value = link.getAttributes().getAttribute(patch.attribute);
+                    if (!(value instanceof Number)) {
+                        throw new IllegalArgumentException(source + ":" + patch.line + ": attribute " + patch.attribute
+                                + " of link " + link.getId() + " is not a number");
+                    }
+                    link.getAttributes().putAttribute(patch.attribute, apply(((Number) value).doubleValue(), patch));
+                }
+        }
+    }
+
+    private static double apply(double value, Patch patch) {
+        switch (patch.operation) {
+            case SCALE:
+                return value * Double.parseDouble(patch.value);
+            case ADD:
+                return value + Double.parseDouble(patch.value);
+            default:
+                return Double.parseDouble(patch.value);
+        }
+    }
+
+    public String getSummary(int[] changedLinks) {
+        StringBuilder summary = new StringBuilder("Applied network overlay ").append(source).append(":");
+        for (int i = 0; i < patches.size(); i++) {
+            summary.append("\n  ").append(patches.get(i)).append(": ").append(changedLinks[i]).append(" links");
+        }
+        return summary.toString();
+    }
+
+    // Write the patched network, e.g. to look at a scenario variant
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String networkFile = options.get("network");
+        String overlayFiles = options.get("overlays");
+        String outputFile = options.get("output");
+        if (networkFile == null || overlayFiles == null || outputFile == null) {
+            System.err.println("Usage: NetworkOverlay --network <file> --overlays <file>[,<file>...] --output <file>");
+            System.exit(1);
+        }
+
+        Network network = NetworkLoader.load(networkFile);
+        for (String overlayFile : overlayFiles.split(",")) {
+            NetworkOverlay overlay = read(overlayFile.trim());
+            System.out.println(overlay.getSummary(overlay.apply(network)));
+        }
+        NetworkUtils.writeNetwork(network, outputFile);
+        System.out.println("Patched network written to: " + outputFile);
+    }
+}
@@ -0,0 +1,320 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// A binary copy of a network that loads without XML parsing: nodes, links with their attributes
+// and allowed modes, and the network attributes. Written next to the network XML by the main
+// method below or NetworkLoader.load(file, true), and read memory-mapped by NetworkLoader.
+//
+// Layout (big endian):
+//   header       magic, version, size and last modification time of the XML it was written from
+//   network      capacity period, effective lane width, name, attributes
+//   strings      attribute names, string attribute values and modes, referenced by index
+//   mode sets    the distinct sets of allowed modes
+//   nodes        id, x, y, (z), attributes
+//   links        id, from and to node as node positions, length, freespeed, capacity, lanes,
+//                mode set, attributes
+// Attribute values may be String, Double, Float, Integer, Long or Boolean; networks with other
+// attribute types cannot be written.
+public class NetworkSnapshot {
+
+    private static final int MAGIC = 0x4D4E534E;
+    private static final int VERSION = 1;
+
+    private static final byte STRING = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte FLOAT = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte BOOLEAN = 5;
+
+    private NetworkSnapshot() {
+    }
+
+    // Size and last modification time of the XML file are stored to detect outdated snapshots
+    public static void write(Network network, File sourceFile, Path snapshotFile) throws IOException {
+        // strings and mode sets are collected first, so that the file can be written in one pass
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<Set<String>, Integer> modeSets = new LinkedHashMap<>();
+        collectStrings(network.getAttributes(), strings);
+        for (Node node : network.getNodes().values()) {
+            collectStrings(node.getAttributes(), strings);
+        }
+        for (Link link : network.getLinks().values()) {
+            collectStrings(link.getAttributes(), strings);
+            Set<String> modes = link.getAllowedModes();
+            if (!modeSets.containsKey(modes)) {
+                modeSets.put(modes, modeSets.size());
+                for (String mode : modes) {
+                    strings.putIfAbsent(mode, strings.size());
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshotFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceFile.length());
+            out.writeLong(sourceFile.lastModified());
+
+            out.writeDouble(network.getCapacityPeriod());
+            out.writeDouble(network.getEffectiveLaneWidth());
+            writeString(out, network.getName());
+
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                writeString(out, string);
+            }
+            writeAttributes(out, network.getAttributes(), strings);
+
+            out.writeInt(modeSets.size());
+            for (Set<String> modes : modeSets.keySet()) {
+                out.writeInt(modes.size());
+                for (String mode : modes) {
+                    out.writeInt(strings.get(mode));
+                }
+            }
+
+            Map<Id<Node>, Integer> nodePositions = new HashMap<>();
+            out.writeInt(network.getNodes().size());
+            for (Node node : network.getNodes().values()) {
+                nodePositions.put(node.getId(), nodePositions.size());
+                writeString(out, node.getId().toString());
+                Coord coord = node.getCoord();
+                out.writeDouble(coord.getX());
+                out.writeDouble(coord.getY());
+                out.writeBoolean(coord.hasZ());
+                if (coord.hasZ()) {
+                    out.writeDouble(coord.getZ());
+                }
+                writeAttributes(out, node.getAttributes(), strings);
+            }
+
+            out.writeInt(network.getLinks().size());
+            for (Link link : network.getLinks().values()) {
+                writeString(out, link.getId().toString());
+                out.writeInt(nodePositions.get(link.getFromNode().getId()));
+                out.writeInt(nodePositions.get(link.getToNode().getId()));
+                out.writeDouble(link.getLength());
+                out.writeDouble(link.getFreespeed());
+                out.writeDouble(link.getCapacity());
+                out.writeDouble(link.getNumberOfLanes());
+                out.writeInt(modeSets.get(link.getAllowedModes()));
+                writeAttributes(out, link.getAttributes(), strings);
+            }
+        }
+    }
+
+    private static void collectStrings(Attributes attributes, Map<String, Integer> strings) {
+        for (Map.Entry<String, Object> attribute : attributes.getAsMap().entrySet()) {
+            strings.putIfAbsent(attribute.getKey(), strings.size());
+            if (attribute.getValue() instanceof String) {
+                strings.putIfAbsent((String) attribute.getValue(), strings.size());
+            }
+        }
+    }
+
+    private static void writeAttributes(DataOutputStream out, Attributes attributes, Map<String, Integer> strings) throws IOException {
+        Map<String, Object> values = attributes.getAsMap();
+        out.writeInt(values.size());
+        for (Map.Entry<String, Object> attribute : values.entrySet()) {
+            out.writeInt(strings.get(attribute.getKey()));
+            Object value = attribute.getValue();
+            if (value instanceof String) {
+                out.writeByte(STRING);
+                out.writeInt(strings.get(value));
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                throw new IllegalArgumentException("Attribute " + attribute.getKey() + " of type "
+                        + (value == null ? "null" : value.getClass().getName()) + " cannot be stored in a network snapshot");
+            }
+        }
+    }
+
+    // Length and UTF-8 bytes, length -1 for null
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Whether the snapshot was written from the current version of the XML file
+    public static boolean isCurrent(Path snapshotFile, File sourceFile) {
+        if (!Files.isRegularFile(snapshotFile) || !sourceFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION
+                    && in.readLong() == sourceFile.length() && in.readLong() == sourceFile.lastModified()
+                    && snapshotFile.toFile().lastModified() >= sourceFile.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static Network read(Path snapshotFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Network snapshot " + snapshotFile + " is larger than 2 GB");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return read(buffer);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt network snapshot " + snapshotFile, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Network read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a network snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported network snapshot version " + version);
+        }
+        buffer.getLong();
+        buffer.getLong();
+
+        Network network = NetworkUtils.createNetwork();
+        NetworkFactory factory = network.getFactory();
+        network.setCapacityPeriod(buffer.getDouble());
+        network.setEffectiveLaneWidth(buffer.getDouble());
+        String name = readString(buffer);
+        if (name != null) {
+            network.setName(name);
+        }
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+        readAttributes(buffer, network.getAttributes(), strings);
+
+        Set<String>[] modeSets = new Set[buffer.getInt()];
+        for (int i = 0; i < modeSets.length; i++) {
+            Set<String> modes = new HashSet<>();
+            for (int j = buffer.getInt(); j > 0; j--) {
+                modes.add(strings[buffer.getInt()]);
+            }
+            modeSets[i] = modes;
+        }
+
+        Node[] nodes = new Node[buffer.getInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            Id<Node> id = Id.createNodeId(readString(buffer));
+            double x = buffer.getDouble();
+            double y = buffer.getDouble();
+            Coord coord = buffer.get() != 0 ? new Coord(x, y, buffer.getDouble()) : new Coord(x, y);
+            Node node = factory.createNode(id, coord);
+            readAttributes(buffer, node.getAttributes(), strings);
+            network.addNode(node);
+            nodes[i] = node;
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--) {
+            Id<Link> id = Id.createLinkId(readString(buffer));
+            Link link = factory.createLink(id, nodes[buffer.getInt()], nodes[buffer.getInt()]);
+            link.setLength(buffer.getDouble());
+            link.setFreespeed(buffer.getDouble());
+            link.setCapacity(buffer.getDouble());
+            link.setNumberOfLanes(buffer.getDouble());
+            link.setAllowedModes(modeSets[buffer.getInt()]);
+            readAttributes(buffer, link.getAttributes(), strings);
+            network.addLink(link);
+        }
+        return network;
+    }
+
+    private static void readAttributes(ByteBuffer buffer, Attributes attributes, String[] strings) throws IOException {
+        for (int i = buffer.getInt(); i > 0; i--) {
+            String key = strings[buffer.getInt()];
+            byte type = buffer.get();
+            switch (type) {
+                case STRING:
+                    attributes.putAttribute(key, strings[buffer.getInt()]);
+                    break;
+                case DOUBLE:
+                    attributes.putAttribute(key, buffer.getDouble());
+                    break;
+                case FLOAT:
+                    attributes.putAttribute(key, buffer.getFloat());
+                    break;
+                case INTEGER:
+                    attributes.putAttribute(key, buffer.getInt());
+                    break;
+                case LONG:
+                    attributes.putAttribute(key, buffer.getLong());
+                    break;
+                case BOOLEAN:
+                    attributes.putAttribute(key, buffer.get() != 0);
+                    break;
+                default:
+                    throw new IOException("Unknown attribute type " + type + " of attribute " + key);
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Write the snapshot of a network XML, by default next to it as used by NetworkLoader
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: NetworkSnapshot <network.xml(.gz)> [<snapshot file>]");
+            System.exit(1);
+        }
+        File networkFile = new File(args[0]);
+        Path snapshotFile = Paths.get(args.length > 1 ? args[1] : NetworkLoader.snapshotFileFor(args[0]));
+
+        Network network = NetworkUtils.createNetwork();
+        new MatsimNetworkReader(network).readFile(networkFile.getPath());
+        write(network, networkFile, snapshotFile);
+        System.out.println("Network snapshot written to: " + snapshotFile);
+    }
+}
@@ -0,0 +1,163 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+
+import javax.inject.Inject;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Aggregates link KPIs while the QSim is running and writes them at the end of every iteration,
+// so they can be computed without writing and re-reading the events file. Bound into the
+// controler by org.matsim.run.OnlineKpiModule.
+//
+// Per link: the flow (vehicles leaving the link) and the mean travel time and mean delay over the
+// free-flow travel time of the vehicles that traversed the whole link. A vehicle that enters
+// traffic on a link counts towards its flow when it leaves the link, but not as a traversal; a
+// vehicle that leaves traffic on a link does not count towards its flow.
+//
+// Output per written iteration (every writeInterval-th, like the events file): ITERS/it.<n>/<n>.link_kpis.csv,
+// plus one line per written iteration in link_kpis_summary.csv in the output directory. Events of
+// the other iterations are not aggregated at all.
+public class OnlineLinkKpiCollector implements LinkEnterEventHandler, LinkLeaveEventHandler,
+        VehicleLeavesTrafficEventHandler, IterationEndsListener {
+
+    static final String LINK_KPI_FILE = "link_kpis.csv";
+    static final String SUMMARY_FILE = "link_kpis_summary.csv";
+
+    private final StudyArea links;
+    private final OutputDirectoryHierarchy controlerIO;
+    private final LinkOccupancyTracker linkEnterTimes = new LinkOccupancyTracker();
+    private final Map<Id<Link>, LinkKpi> linkKpis = new HashMap<>();
+    private int writeInterval = 1;
+    private boolean active = true;
+    private boolean summaryStarted = false;
+
+    private static final class LinkKpi {
+        int flow = 0;
+        int traversals = 0;
+        double totalTravelTime = 0.0;
+        double totalDelay = 0.0;
+    }
+
+    @Inject
+    public OnlineLinkKpiCollector(Network network, OutputDirectoryHierarchy controlerIO) {
+        this.links = StudyArea.of(network);
+        this.controlerIO = controlerIO;
+    }
+
+    // Aggregate and write the KPIs in every writeInterval-th iteration only; 0 disables them
+    public OnlineLinkKpiCollector setWriteInterval(int writeInterval) {
+        this.writeInterval = writeInterval;
+        return this;
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+        if (!active) {
+            return;
+        }
+        linkEnterTimes.enter(event.getVehicleId(), event.getLinkId(), event.getTime());
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+        if (!active) {
+            return;
+        }
+        LinkKpi kpi = linkKpis.computeIfAbsent(event.getLinkId(), id -> new LinkKpi());
+        kpi.flow++;
+
+        double enterTime = linkEnterTimes.leave(event.getVehicleId(), event.getLinkId());
+        if (!Double.isNaN(enterTime)) {
+            double travelTime = event.getTime() - enterTime;
+            kpi.traversals++;
+            kpi.totalTravelTime += travelTime;
+            kpi.totalDelay += travelTime - links.getFreeFlowTravelTime(event.getLinkId());
+        }
+    }
+
+    @Override
+    public void handleEvent(VehicleLeavesTrafficEvent event) {
+        if (!active) {
+            return;
+        }
+        // arrived somewhere on the link, which is not a full traversal
+        linkEnterTimes.leave(event.getVehicleId(), event.getLinkId());
+    }
+
+    @Override
+    public void reset(int iteration) {
+        active = writeInterval > 0 && iteration % writeInterval == 0;
+        linkEnterTimes.clear();
+        linkKpis.clear();
+    }
+
+    @Override
+    public void notifyIterationEnds(IterationEndsEvent event) {
+        int iteration = event.getIteration();
+        if (!active) {
+            return;
+        }
+        try {
+            writeLinkKpis(controlerIO.getIterationFilename(iteration, LINK_KPI_FILE));
+            writeSummary(iteration, controlerIO.getOutputFilename(SUMMARY_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write link KPIs of iteration " + iteration, e);
+        }
+    }
+
+    void writeLinkKpis(String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("LinkId,Flow,Traversals,AverageTravelTime_sec,AverageDelay_sec,FreeFlowTravelTime_sec\n");
+            for (Map.Entry<Id<Link>, LinkKpi> entry : linkKpis.entrySet()) {
+                LinkKpi kpi = entry.getValue();
+                double avgTravelTime = kpi.traversals > 0 ? kpi.totalTravelTime / kpi.traversals : 0.0;
+                double avgDelay = kpi.traversals > 0 ? kpi.totalDelay / kpi.traversals : 0.0;
+                double freeFlowTravelTime = links.getFreeFlowTravelTime(entry.getKey());
+
+                writer.write(entry.getKey() + "," + kpi.flow + "," + kpi.traversals + "," + avgTravelTime + ","
+                        + avgDelay + "," + freeFlowTravelTime + "\n");
+            }
+        }
+    }
+
+    // One line per iteration, restarted with every run
+    void writeSummary(int iteration, String outputFilePath) throws IOException {
+        long flow = 0;
+        long traversals = 0;
+        double totalTravelTime = 0.0;
+        double totalDelay = 0.0;
+        for (LinkKpi kpi : linkKpis.values()) {
+            flow += kpi.flow;
+            traversals += kpi.traversals;
+            totalTravelTime += kpi.totalTravelTime;
+            totalDelay += kpi.totalDelay;
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath, summaryStarted))) {
+            if (!summaryStarted) {
+                writer.write("Iteration,LinksUsed,Flow,Traversals,AverageTravelTime_sec,AverageDelay_sec,TotalDelay_h\n");
+                summaryStarted = true;
+            }
+            double avgTravelTime = traversals > 0 ? totalTravelTime / traversals : 0.0;
+            double avgDelay = traversals > 0 ? totalDelay / traversals : 0.0;
+            writer.write(iteration + "," + linkKpis.size() + "," + flow + "," + traversals + "," + avgTravelTime
+                    + "," + avgDelay + "," + totalDelay / 3600 + "\n");
+        }
+    }
+}
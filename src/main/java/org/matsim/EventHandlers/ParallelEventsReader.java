@@ -0,0 +1,156 @@
+package EventHandlers;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Parses an events XML file on several threads for aggregations that do not depend on event order
+// (counts, sums, ...). The file is split into byte ranges that start at an "<event " tag, every
+// range is parsed into its own accumulator and the accumulators are merged at the end.
+//
+// Gzipped files cannot be split and are parsed on the calling thread.
+public class ParallelEventsReader {
+
+    // An order-insensitive aggregation: every thread fills its own accumulator, which are merged afterwards.
+    // Every chunk is read by its own EventsScanner, so id indices are only meaningful within one accumulator;
+    // accumulators can keep the scanner's IdInterners to translate them when merging.
+    public interface Aggregation<A> {
+        A createAccumulator(EventsScanner scanner);
+
+        void handleEvent(A accumulator, EventsScanner event);
+
+        A merge(A first, A second);
+    }
+
+    private static final byte[] EVENT_TAG = "<event ".getBytes(StandardCharsets.US_ASCII);
+    // Upper bound for a single mapped chunk
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private final int numberOfThreads;
+
+    public ParallelEventsReader(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + numberOfThreads);
+        }
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public ParallelEventsReader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public <A> A aggregate(String eventsFile, Aggregation<A> aggregation) throws IOException {
+        if (eventsFile.endsWith(".gz")) {
+            return aggregateSequentially(eventsFile, aggregation);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(eventsFile, "r"); FileChannel channel = raf.getChannel()) {
+            long[] boundaries = findChunkBoundaries(channel);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, boundaries.length - 1));
+            try {
+                List<Future<A>> results = new ArrayList<>();
+                for (int i = 0; i + 1 < boundaries.length; i++) {
+                    long start = boundaries[i];
+                    long end = boundaries[i + 1];
+                    results.add(executor.submit(() -> parseChunk(channel, start, end, aggregation)));
+                }
+
+                A result = null;
+                for (Future<A> future : results) {
+                    A partial = future.get();
+                    result = result == null ? partial : aggregation.merge(result, partial);
+                }
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing " + eventsFile, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to parse " + eventsFile, e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // Split the file into ranges of roughly equal size, each starting at an "<event " tag
+    private long[] findChunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int numberOfChunks = (int) Math.max(numberOfThreads, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long chunkSize = Math.max(1, size / numberOfChunks);
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        for (int i = 1; i < numberOfChunks; i++) {
+            long boundary = findNextEventTag(channel, Math.max(i * chunkSize, boundaries.get(boundaries.size() - 1)));
+            if (boundary >= size) {
+                break;
+            }
+            if (boundary > boundaries.get(boundaries.size() - 1)) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private static long findNextEventTag(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        long window = 1 << 16;
+        for (long position = from; position < size; position += window - EVENT_TAG.length) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position));
+            int match = indexOf(buffer, 0, buffer.limit(), EVENT_TAG);
+            if (match >= 0) {
+                return position + match;
+            }
+            if (position + window >= size) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    // Parse all events whose tag starts in [start, end)
+    private static <A> A parseChunk(FileChannel channel, long start, long end, Aggregation<A> aggregation) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        try (EventsScanner scanner = EventsScanner.of(buffer, start)) {
+            A accumulator = aggregation.createAccumulator(scanner);
+            while (scanner.next()) {
+                aggregation.handleEvent(accumulator, scanner);
+            }
+            return accumulator;
+        }
+    }
+
+    private <A> A aggregateSequentially(String eventsFile, Aggregation<A> aggregation) throws IOException {
+        try (EventsScanner scanner = EventsScanner.open(eventsFile)) {
+            A accumulator = aggregation.createAccumulator(scanner);
+            while (scanner.next()) {
+                aggregation.handleEvent(accumulator, scanner);
+            }
+            return accumulator;
+        }
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, int from, int limit, byte[] pattern) {
+        outer:
+        for (int i = from; i <= limit - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,383 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsManagerImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Reads an events file in three stages that run concurrently:
+//
+//   decompress thread   reads (and gunzips) the file into byte blocks
+//   parse thread        scans the blocks with an EventsScanner and builds batches of events
+//   calling thread      hands the events to the events manager
+//
+// The stages are connected by bounded queues; a stage that is ahead blocks until the next stage
+// has caught up. Blocks and batches are recycled through free queues, so memory use is bounded
+// by the queue capacity. After reading, getStatistics() reports the busy time and throughput of
+// every stage: the stage that is busy nearly all the time is the bottleneck.
+//
+// Like FilteredEventsReader, only the event types in EventTypeCodes are passed on.
+public class PipelinedEventsReader {
+
+    static final int BLOCK_SIZE = 1 << 20;
+    static final int BATCH_SIZE = 4096;
+
+    // Per-stage counters; every stage only updates its own instance
+    public static final class StageStatistics {
+        private final String name;
+        private final String unit;
+        private long items = 0;
+        private long busyNanos = 0;
+        private long waitNanos = 0;
+
+        StageStatistics(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Bytes for the decompression stage, events for the others
+        public long getItems() {
+            return items;
+        }
+
+        public double getBusySeconds() {
+            return busyNanos / 1e9;
+        }
+
+        public double getWaitSeconds() {
+            return waitNanos / 1e9;
+        }
+
+        // Share of the stage's lifetime spent working rather than waiting on a queue
+        public double getUtilization() {
+            long total = busyNanos + waitNanos;
+            return total > 0 ? (double) busyNanos / total : 0.0;
+        }
+
+        // Items per second of busy time, i.e. what the stage could sustain on its own
+        public double getThroughput() {
+            return busyNanos > 0 ? items / (busyNanos / 1e9) : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %,15d %s  busy %6.1f s (%5.1f%%)  waiting %6.1f s  %,.0f %s/s",
+                    name, items, unit, getBusySeconds(), 100 * getUtilization(), getWaitSeconds(),
+                    getThroughput(), unit);
+        }
+    }
+
+    private static final class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final class Batch {
+        final Event[] events;
+        int size;
+
+        Batch(int size) {
+            events = new Event[size];
+        }
+    }
+
+    // End-of-input markers, never recycled
+    private static final Block LAST_BLOCK = new Block(0);
+    private static final Batch LAST_BATCH = new Batch(0);
+
+    private final EventsManager eventsManager;
+    private final int queueCapacity;
+
+    private StageStatistics decompression;
+    private StageStatistics parsing;
+    private StageStatistics dispatch;
+    private volatile Throwable failure;
+    private volatile boolean finished;
+
+    public PipelinedEventsReader(EventsManager eventsManager, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1, got " + queueCapacity);
+        }
+        this.eventsManager = eventsManager;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public PipelinedEventsReader(EventsManager eventsManager) {
+        this(eventsManager, 8);
+    }
+
+    public void readFile(String eventsFile) throws IOException {
+        decompression = new StageStatistics("decompress", "bytes");
+        parsing = new StageStatistics("parse", "events");
+        dispatch = new StageStatistics("dispatch", "events");
+        failure = null;
+        finished = false;
+
+        BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(queueCapacity + 2);
+        BlockingQueue<Block> fullBlocks = new ArrayBlockingQueue<>(queueCapacity + 1);
+        BlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(queueCapacity + 2);
+        BlockingQueue<Batch> fullBatches = new ArrayBlockingQueue<>(queueCapacity + 1);
+        for (int i = 0; i < queueCapacity + 2; i++) {
+            freeBlocks.add(new Block(BLOCK_SIZE));
+            freeBatches.add(new Batch(BATCH_SIZE));
+        }
+
+        Thread decompressThread = new Thread(() -> decompress(eventsFile, freeBlocks, fullBlocks), "events-decompress");
+        Thread parseThread = new Thread(() -> parse(freeBlocks, fullBlocks, freeBatches, fullBatches), "events-parse");
+        decompressThread.setDaemon(true);
+        parseThread.setDaemon(true);
+        decompressThread.start();
+        parseThread.start();
+
+        try {
+            dispatch(freeBatches, fullBatches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + eventsFile, e);
+        } finally {
+            // the last batch has been dispatched or dispatching failed; stop stages that are
+            // still blocked after a failure
+            finished = true;
+            decompressThread.interrupt();
+            parseThread.interrupt();
+        }
+        try {
+            decompressThread.join();
+            parseThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + eventsFile, e);
+        }
+
+        if (failure != null) {
+            if (failure instanceof IOException) {
+                throw new IOException("Failed to read " + eventsFile, failure);
+            }
+            throw new RuntimeException("Failed to read " + eventsFile, failure);
+        }
+    }
+
+    // Statistics of the last readFile call: decompress, parse, dispatch
+    public List<StageStatistics> getStatistics() {
+        return Arrays.asList(decompression, parsing, dispatch);
+    }
+
+    public void printStatistics() {
+        for (StageStatistics stage : getStatistics()) {
+            System.out.println(stage);
+        }
+    }
+
+    private void decompress(String eventsFile, BlockingQueue<Block> freeBlocks, BlockingQueue<Block> fullBlocks) {
+        long startTime = System.nanoTime();
+        try (InputStream in = EventsScanner.openStream(eventsFile)) {
+            while (failure == null) {
+                long waitStart = System.nanoTime();
+                Block block = freeBlocks.take();
+                decompression.waitNanos += System.nanoTime() - waitStart;
+
+                block.length = readFully(in, block.data);
+                if (block.length == 0) {
+                    break;
+                }
+                decompression.items += block.length;
+
+                waitStart = System.nanoTime();
+                fullBlocks.put(block);
+                decompression.waitNanos += System.nanoTime() - waitStart;
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            decompression.busyNanos = System.nanoTime() - startTime - decompression.waitNanos;
+            putQuietly(fullBlocks, LAST_BLOCK);
+        }
+    }
+
+    private void parse(BlockingQueue<Block> freeBlocks, BlockingQueue<Block> fullBlocks,
+                       BlockingQueue<Batch> freeBatches, BlockingQueue<Batch> fullBatches) {
+        long startTime = System.nanoTime();
+        BlockInputStream in = new BlockInputStream(freeBlocks, fullBlocks, parsing);
+        try (EventsScanner scanner = new EventsScanner(in)) {
+            IndexedEventFactory eventFactory = new IndexedEventFactory(scanner);
+            Batch batch = takeBatch(freeBatches);
+            while (failure == null && scanner.next()) {
+                Event event = eventFactory.createEvent(scanner);
+                if (event == null) {
+                    continue;
+                }
+                batch.events[batch.size++] = event;
+                parsing.items++;
+                if (batch.size == batch.events.length) {
+                    putBatch(fullBatches, batch);
+                    batch = takeBatch(freeBatches);
+                }
+            }
+            if (batch.size > 0) {
+                putBatch(fullBatches, batch);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            parsing.busyNanos = System.nanoTime() - startTime - parsing.waitNanos;
+            putQuietly(fullBatches, LAST_BATCH);
+        }
+    }
+
+    private void dispatch(BlockingQueue<Batch> freeBatches, BlockingQueue<Batch> fullBatches) throws InterruptedException {
+        long startTime = System.nanoTime();
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Batch batch = fullBatches.take();
+                dispatch.waitNanos += System.nanoTime() - waitStart;
+                if (batch == LAST_BATCH) {
+                    break;
+                }
+                for (int i = 0; i < batch.size; i++) {
+                    eventsManager.processEvent(batch.events[i]);
+                    batch.events[i] = null;
+                }
+                dispatch.items += batch.size;
+                batch.size = 0;
+                freeBatches.put(batch);
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        } finally {
+            dispatch.busyNanos = System.nanoTime() - startTime - dispatch.waitNanos;
+        }
+    }
+
+    private Batch takeBatch(BlockingQueue<Batch> freeBatches) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        Batch batch = freeBatches.take();
+        parsing.waitNanos += System.nanoTime() - waitStart;
+        return batch;
+    }
+
+    private void putBatch(BlockingQueue<Batch> fullBatches, Batch batch) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        fullBatches.put(batch);
+        parsing.waitNanos += System.nanoTime() - waitStart;
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    // Pass on the end marker unless the reader has already given up on this stage
+    private <T> void putQuietly(BlockingQueue<T> queue, T marker) {
+        try {
+            while (!finished && !queue.offer(marker, 100, TimeUnit.MILLISECONDS)) {
+                // the next stage is still busy
+            }
+        } catch (InterruptedException e) {
+            // the reader is shutting down, nobody waits for the marker anymore
+        }
+    }
+
+    // Fill the buffer as far as possible; returns the number of bytes read, 0 at the end of the input
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    // Input of the parse stage: the blocks of the decompression stage, each returned after use
+    private static final class BlockInputStream extends InputStream {
+        private final BlockingQueue<Block> freeBlocks;
+        private final BlockingQueue<Block> fullBlocks;
+        private final StageStatistics statistics;
+        private Block current = null;
+        private int position = 0;
+        private boolean ended = false;
+
+        BlockInputStream(BlockingQueue<Block> freeBlocks, BlockingQueue<Block> fullBlocks, StageStatistics statistics) {
+            this.freeBlocks = freeBlocks;
+            this.fullBlocks = fullBlocks;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (!ended && (current == null || position == current.length)) {
+                nextBlock();
+            }
+            if (ended) {
+                return -1;
+            }
+            int n = Math.min(length, current.length - position);
+            System.arraycopy(current.data, position, bytes, offset, n);
+            position += n;
+            return n;
+        }
+
+        private void nextBlock() throws IOException {
+            try {
+                if (current != null) {
+                    freeBlocks.put(current);
+                    current = null;
+                }
+                long waitStart = System.nanoTime();
+                Block block = fullBlocks.take();
+                statistics.waitNanos += System.nanoTime() - waitStart;
+                if (block == LAST_BLOCK) {
+                    ended = true;
+                } else {
+                    current = block;
+                    position = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for input", e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: PipelinedEventsReader <events.xml[.gz]>");
+            System.exit(1);
+        }
+        // Without handlers this measures the reading stages on their own
+        long start = System.currentTimeMillis();
+        PipelinedEventsReader reader = new PipelinedEventsReader(new EventsManagerImpl());
+        reader.readFile(args[0]);
+        reader.printStatistics();
+        System.out.println("Read " + args[0] + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+    }
+}
@@ -0,0 +1,183 @@
+package EventHandlers;
+
+import java.util.Arrays;
+
+// Streaming quantiles of values such as travel times or delays in seconds, with a relative error
+// of at most 2% and memory that does not grow with the number of values.
+//
+// Values are counted in logarithmic buckets as in DDSketch: for |value| >= minValue, the bucket
+// [minValue * GAMMA^i, minValue * GAMMA^(i+1)) of the value's magnitude, kept separately for
+// positive and negative values; one zero bucket for everything closer to 0 than minValue; and the
+// outermost bucket on either side for magnitudes above MAX_VALUE. The relative error bound holds
+// for magnitudes between minValue and MAX_VALUE, values in the zero bucket are estimated as 0.
+// Only the range of buckets that received values is allocated, which for the travel times of one
+// link is usually a few dozen ints. Two sketches with the same minValue are merged by adding
+// their bucket counts, so per-bin sketches can be combined into daily ones and sketches of
+// parallel readers into one.
+public class QuantileSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.02;
+    public static final double MAX_VALUE = 2 * 24 * 3600;
+    // 10 ms, well below the one second time step of the QSim
+    public static final double DEFAULT_MIN_VALUE = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final double minValue;
+    private final int bucketsPerSign;
+    // buckets in value order: negative values, zero, positive values
+    private final int numberOfBuckets;
+
+    // counts of the buckets firstBucket .. firstBucket + counts.length - 1
+    private int[] counts;
+    private int firstBucket;
+    private long count = 0;
+    private double sum = 0.0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_MIN_VALUE);
+    }
+
+    // Sketch that resolves magnitudes down to minValue
+    public QuantileSketch(double minValue) {
+        if (!(minValue > 0 && minValue < MAX_VALUE)) {
+            throw new IllegalArgumentException("The minimum value must be in (0, " + MAX_VALUE + "), got " + minValue);
+        }
+        this.minValue = minValue;
+        this.bucketsPerSign = (int) Math.ceil(Math.log(MAX_VALUE / minValue) / LOG_GAMMA) + 1;
+        this.numberOfBuckets = 2 * bucketsPerSign + 1;
+    }
+
+    public double getMinValue() {
+        return minValue;
+    }
+
+    int bucketOf(double value) {
+        double magnitude = Math.abs(value);
+        if (magnitude < minValue) {
+            return bucketsPerSign;
+        }
+        int i = Math.min((int) (Math.log(magnitude / minValue) / LOG_GAMMA), bucketsPerSign - 1);
+        return value > 0 ? bucketsPerSign + 1 + i : bucketsPerSign - 1 - i;
+    }
+
+    // Value that represents a bucket with at most RELATIVE_ACCURACY error
+    double valueOf(int bucket) {
+        if (bucket == bucketsPerSign) {
+            return 0.0;
+        }
+        int i = bucket > bucketsPerSign ? bucket - bucketsPerSign - 1 : bucketsPerSign - 1 - bucket;
+        double magnitude = minValue * 2 * Math.pow(GAMMA, i + 1) / (GAMMA + 1);
+        return bucket > bucketsPerSign ? magnitude : -magnitude;
+    }
+
+    // NaN values are ignored
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        add(bucketOf(value), 1);
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    private void add(int bucket, int n) {
+        if (counts == null) {
+            counts = new int[8];
+            firstBucket = Math.max(0, Math.min(bucket - 4, numberOfBuckets - counts.length));
+        } else if (bucket < firstBucket || bucket >= firstBucket + counts.length) {
+            grow(bucket);
+        }
+        counts[bucket - firstBucket] += n;
+    }
+
+    // Extend the allocated range to cover the bucket, with some room on that side
+    private void grow(int bucket) {
+        int from = firstBucket;
+        int to = firstBucket + counts.length;
+        if (bucket < from) {
+            from = Math.max(0, Math.min(bucket, from - counts.length / 2));
+        } else {
+            to = Math.min(numberOfBuckets, Math.max(bucket + 1, to + counts.length / 2));
+        }
+        int[] grown = new int[to - from];
+        System.arraycopy(counts, 0, grown, firstBucket - from, counts.length);
+        counts = grown;
+        firstBucket = from;
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.minValue != minValue) {
+            throw new IllegalArgumentException("Cannot merge sketches with minimum values " + minValue + " and " + other.minValue);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] > 0) {
+                add(other.firstBucket + i, other.counts[i]);
+            }
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    // Value below which the given fraction of the values lies, NaN if the sketch is empty
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1], got " + quantile);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        if (rank <= 1) {
+            return min;
+        }
+        if (rank >= count) {
+            return max;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                // the exact extremes are known, and no estimate should lie outside of them
+                return Math.max(min, Math.min(max, valueOf(firstBucket + i)));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    public void clear() {
+        if (counts != null) {
+            Arrays.fill(counts, 0);
+        }
+        count = 0;
+        sum = 0.0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+}
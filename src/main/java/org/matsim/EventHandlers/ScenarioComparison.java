@@ -0,0 +1,311 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.events.EventsManagerImpl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Compares the link traffic of several runs on the same study area, e.g. status quo, tunnel
+// closure and TDM measures. The events of every scenario are read into a LinkTimeBinCube, each
+// scenario on its own thread, then every pair is compared per link and time bin:
+//
+//   flow    vehicles leaving the link, in veh/h
+//   delay   mean delay over the free-flow travel time of the traversals, in s
+//   speed   link length over the mean travel time of the traversals, in km/h
+//
+// For a pair "base:scenario" two files are written into the output directory:
+//   <base>_vs_<scenario>_link_deltas.csv   one line per link and bin used in either scenario
+//   <base>_vs_<scenario>_top_changes.csv   the largest increases and decreases of every measure
+//
+// Usage:
+//   ScenarioComparison --network <studyNetwork.xml> --output <dir>
+//                      --scenarios "base=<events>;closure=<events>;tdm=<events>"
+//                      [--pairs "base:closure;closure:tdm"] [--bin-size 3600] [--top 20] [--threads <n>]
+// Without --pairs every scenario is compared with the first one.
+public class ScenarioComparison {
+
+    public static final double DEFAULT_BIN_SIZE = 3600;
+    public static final int DEFAULT_TOP = 20;
+
+    private static final String[] MEASURES = {"Flow_veh_h", "AverageDelay_sec", "AverageSpeed_km_h"};
+    private static final int FLOW = 0;
+    private static final int DELAY = 1;
+    private static final int SPEED = 2;
+
+    private final Network network;
+    private final StudyArea studyArea;
+    private final double binSize;
+    private final Map<String, String> eventsFiles = new LinkedHashMap<>();
+    private final Map<String, LinkTimeBinCube> cubes = new LinkedHashMap<>();
+
+    public ScenarioComparison(Network studyAreaNetwork, double binSize) {
+        this.network = studyAreaNetwork;
+        this.studyArea = StudyArea.of(studyAreaNetwork);
+        this.binSize = binSize;
+    }
+
+    public ScenarioComparison(Network studyAreaNetwork) {
+        this(studyAreaNetwork, DEFAULT_BIN_SIZE);
+    }
+
+    public ScenarioComparison addScenario(String name, String eventsFileOrStore) {
+        if (eventsFiles.putIfAbsent(name, eventsFileOrStore) != null) {
+            throw new IllegalArgumentException("Scenario " + name + " added twice");
+        }
+        return this;
+    }
+
+    public Set<String> getScenarios() {
+        return Collections.unmodifiableSet(eventsFiles.keySet());
+    }
+
+    public LinkTimeBinCube getCube(String scenario) {
+        LinkTimeBinCube cube = cubes.get(scenario);
+        if (cube == null) {
+            throw new IllegalArgumentException("No events read for scenario " + scenario);
+        }
+        return cube;
+    }
+
+    // Read the events of all scenarios, up to numberOfThreads scenarios at the same time. Every
+    // scenario fills its own cube, so the readers share nothing but the study area.
+    public void readEvents(int numberOfThreads) throws IOException {
+        if (eventsFiles.isEmpty()) {
+            throw new IllegalStateException("No scenarios added");
+        }
+        cubes.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numberOfThreads, eventsFiles.size())));
+        try {
+            Map<String, Future<LinkTimeBinCube>> results = new LinkedHashMap<>();
+            for (Map.Entry<String, String> scenario : eventsFiles.entrySet()) {
+                LinkTimeBinCube cube = new LinkTimeBinCube(network, binSize);
+                results.put(scenario.getKey(), executor.submit(() -> readScenario(scenario.getKey(), scenario.getValue(), cube)));
+            }
+            for (Map.Entry<String, Future<LinkTimeBinCube>> result : results.entrySet()) {
+                cubes.put(result.getKey(), result.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the scenario events", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read the scenario events", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static LinkTimeBinCube readScenario(String name, String eventsFile, LinkTimeBinCube cube) {
+        long start = System.currentTimeMillis();
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        eventsManager.addHandler(cube.getEventHandler());
+        new FilteredEventsReader(eventsManager)
+                .setLinks(cube.getLinks())
+                .readFile(eventsFile);
+        System.out.println("Read events of " + name + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+        return cube;
+    }
+
+    // A change of one measure on one link in one bin
+    public static final class Change {
+        private final Id<Link> linkId;
+        private final double binStart;
+        private final double baseValue;
+        private final double scenarioValue;
+
+        Change(Id<Link> linkId, double binStart, double baseValue, double scenarioValue) {
+            this.linkId = linkId;
+            this.binStart = binStart;
+            this.baseValue = baseValue;
+            this.scenarioValue = scenarioValue;
+        }
+
+        public Id<Link> getLinkId() {
+            return linkId;
+        }
+
+        public double getBinStart() {
+            return binStart;
+        }
+
+        public double getBaseValue() {
+            return baseValue;
+        }
+
+        public double getScenarioValue() {
+            return scenarioValue;
+        }
+
+        public double getDelta() {
+            return scenarioValue - baseValue;
+        }
+    }
+
+    // The topN largest changes of one measure in one direction, smallest of them at the head
+    private static final class TopChanges {
+        private final int topN;
+        private final double sign;
+        private final PriorityQueue<Change> changes;
+
+        TopChanges(int topN, boolean increases) {
+            this.topN = topN;
+            this.sign = increases ? 1 : -1;
+            this.changes = new PriorityQueue<>(Comparator.comparingDouble(change -> sign * change.getDelta()));
+        }
+
+        void offer(Id<Link> linkId, double binStart, double baseValue, double scenarioValue) {
+            double delta = sign * (scenarioValue - baseValue);
+            if (Double.isNaN(delta) || delta <= 0 || topN == 0) {
+                return;
+            }
+            if (changes.size() < topN) {
+                changes.add(new Change(linkId, binStart, baseValue, scenarioValue));
+            } else if (delta > sign * changes.peek().getDelta()) {
+                changes.poll();
+                changes.add(new Change(linkId, binStart, baseValue, scenarioValue));
+            }
+        }
+
+        // Largest change first
+        List<Change> toList() {
+            List<Change> list = new ArrayList<>(changes);
+            list.sort(Comparator.comparingDouble((Change change) -> sign * change.getDelta()).reversed());
+            return list;
+        }
+    }
+
+    // Write the link deltas and the top changes of scenario against base
+    public void writeComparison(String base, String scenario, String outputDirectory, int topN) throws IOException {
+        LinkTimeBinCube baseCube = getCube(base);
+        LinkTimeBinCube scenarioCube = getCube(scenario);
+        new File(outputDirectory).mkdirs();
+
+        TopChanges[] increases = new TopChanges[MEASURES.length];
+        TopChanges[] decreases = new TopChanges[MEASURES.length];
+        for (int measure = 0; measure < MEASURES.length; measure++) {
+            increases[measure] = new TopChanges(topN, true);
+            decreases[measure] = new TopChanges(topN, false);
+        }
+
+        String prefix = base + "_vs_" + scenario;
+        String deltasFile = new File(outputDirectory, prefix + "_link_deltas.csv").getPath();
+        double[] baseValues = new double[MEASURES.length];
+        double[] scenarioValues = new double[MEASURES.length];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(deltasFile))) {
+            writer.write("LinkId,BinStart_sec");
+            for (String measure : MEASURES) {
+                writer.write("," + measure + "_" + base + "," + measure + "_" + scenario + "," + measure + "_Delta");
+            }
+            writer.write("\n");
+
+            for (Id<Link> linkId : baseCube.getLinks()) {
+                for (int bin = 0; bin < baseCube.getNumberOfBins(); bin++) {
+                    boolean usedInBase = measure(baseCube, linkId, bin, baseValues);
+                    boolean usedInScenario = measure(scenarioCube, linkId, bin, scenarioValues);
+                    if (!usedInBase && !usedInScenario) {
+                        continue;
+                    }
+                    double binStart = baseCube.getBinStart(bin);
+                    writer.write(linkId + "," + binStart);
+                    for (int measure = 0; measure < MEASURES.length; measure++) {
+                        double delta = scenarioValues[measure] - baseValues[measure];
+                        writer.write("," + format(baseValues[measure]) + "," + format(scenarioValues[measure]) + "," + format(delta));
+                        increases[measure].offer(linkId, binStart, baseValues[measure], scenarioValues[measure]);
+                        decreases[measure].offer(linkId, binStart, baseValues[measure], scenarioValues[measure]);
+                    }
+                    writer.write("\n");
+                }
+            }
+        }
+
+        String topFile = new File(outputDirectory, prefix + "_top_changes.csv").getPath();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(topFile))) {
+            writer.write("Measure,Direction,Rank,LinkId,BinStart_sec," + base + "," + scenario + ",Delta\n");
+            for (int measure = 0; measure < MEASURES.length; measure++) {
+                writeTopChanges(writer, MEASURES[measure], "increase", increases[measure].toList());
+                writeTopChanges(writer, MEASURES[measure], "decrease", decreases[measure].toList());
+            }
+        }
+        System.out.println(base + " vs " + scenario + " written to: " + deltasFile + " and " + topFile);
+    }
+
+    // Fill the measures of one link and bin, false if no vehicle used the link in the bin.
+    // Delay and speed are NaN without traversals.
+    private boolean measure(LinkTimeBinCube cube, Id<Link> linkId, int bin, double[] values) {
+        int flow = cube.getFlow(linkId, bin);
+        int traversals = cube.getTraversals(linkId, bin);
+        double travelTime = cube.getTotalTravelTime(linkId, bin);
+        values[FLOW] = flow * 3600 / binSize;
+        values[DELAY] = traversals > 0 ? cube.getTotalDelay(linkId, bin) / traversals : Double.NaN;
+        values[SPEED] = traversals > 0 && travelTime > 0 ? 3.6 * studyArea.getLength(linkId) * traversals / travelTime : Double.NaN;
+        return flow > 0 || traversals > 0;
+    }
+
+    private static void writeTopChanges(BufferedWriter writer, String measure, String direction, List<Change> changes) throws IOException {
+        int rank = 1;
+        for (Change change : changes) {
+            writer.write(measure + "," + direction + "," + rank++ + "," + change.getLinkId() + "," + change.getBinStart() + ","
+                    + change.getBaseValue() + "," + change.getScenarioValue() + "," + change.getDelta() + "\n");
+        }
+    }
+
+    // Empty instead of NaN for measures without traversals
+    private static String format(double value) {
+        return Double.isNaN(value) ? "" : Double.toString(value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = EventsAnalysisPipeline.parseArguments(args);
+        String networkFile = options.get("network");
+        String outputDirectory = options.get("output");
+        String scenarios = options.get("scenarios");
+        if (networkFile == null || outputDirectory == null || scenarios == null) {
+            System.err.println("Usage: ScenarioComparison --network <file> --output <dir> --scenarios \"<name>=<events>;...\""
+                    + " [--pairs \"<base>:<scenario>;...\"] [--bin-size <sec>] [--top <n>] [--threads <n>]");
+            System.exit(1);
+        }
+        double binSize = Double.parseDouble(options.getOrDefault("bin-size", Double.toString(DEFAULT_BIN_SIZE)));
+        int topN = Integer.parseInt(options.getOrDefault("top", Integer.toString(DEFAULT_TOP)));
+        int threads = Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+        Network studyAreaNetwork = NetworkLoader.load(networkFile);
+
+        ScenarioComparison comparison = new ScenarioComparison(studyAreaNetwork, binSize);
+        for (String scenario : scenarios.split(";")) {
+            String[] nameAndFile = scenario.split("=", 2);
+            if (nameAndFile.length != 2) {
+                throw new IllegalArgumentException("Expected <name>=<events file>, got '" + scenario + "'");
+            }
+            comparison.addScenario(nameAndFile[0].trim(), nameAndFile[1].trim());
+        }
+
+        List<String[]> pairs = new ArrayList<>();
+        if (options.containsKey("pairs")) {
+            for (String pair : options.get("pairs").split(";")) {
+                String[] names = pair.split(":");
+                if (names.length != 2 || !comparison.getScenarios().contains(names[0].trim())
+                        || !comparison.getScenarios().contains(names[1].trim())) {
+                    throw new IllegalArgumentException("Expected <base>:<scenario> of the given scenarios, got '" + pair + "'");
+                }
+                pairs.add(new String[]{names[0].trim(), names[1].trim()});
+            }
+        } else {
+            Iterator<String> names = comparison.getScenarios().iterator();
+            String base = names.next();
+            while (names.hasNext()) {
+                pairs.add(new String[]{base, names.next()});
+            }
+        }
+
+        comparison.readEvents(threads);
+        for (String[] pair : pairs) {
+            comparison.writeComparison(pair[0], pair[1], outputDirectory, topN);
+        }
+    }
+}
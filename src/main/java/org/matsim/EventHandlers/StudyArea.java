@@ -0,0 +1,77 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.util.*;
+
+// The links of a (study area) network compiled for the event handlers: membership is a BitSet
+// and length, free-flow travel time and capacity are flat arrays, all indexed by Id.index() of
+// the link. Replaces a HashSet<Id<Link>> lookup plus network.getLinks().get(linkId) and a division
+// per event.
+//
+// Compiled once per network instance and shared by all analyzers through StudyArea.of(network);
+// changes to the network after that are not seen. The study area keeps no reference to the
+// network, so the cache entry goes away with it.
+public class StudyArea {
+
+    private static final Map<Network, StudyArea> COMPILED = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final BitSet links = new BitSet();
+    private final List<Id<Link>> linkIds;
+    private final double[] lengths;
+    private final double[] freeFlowTravelTimes;
+    private final double[] capacities;
+
+    private StudyArea(Network network) {
+        int size = 0;
+        for (Link link : network.getLinks().values()) {
+            size = Math.max(size, link.getId().index() + 1);
+        }
+        lengths = new double[size];
+        freeFlowTravelTimes = new double[size];
+        capacities = new double[size];
+
+        List<Id<Link>> ids = new ArrayList<>(network.getLinks().size());
+        for (Link link : network.getLinks().values()) {
+            int index = link.getId().index();
+            links.set(index);
+            ids.add(link.getId());
+            lengths[index] = link.getLength();
+            freeFlowTravelTimes[index] = link.getLength() / link.getFreespeed();
+            capacities[index] = link.getCapacity();
+        }
+        linkIds = Collections.unmodifiableList(ids);
+    }
+
+    public static StudyArea of(Network network) {
+        return COMPILED.computeIfAbsent(network, StudyArea::new);
+    }
+
+    public boolean contains(Id<Link> linkId) {
+        return links.get(linkId.index());
+    }
+
+    // The attribute getters expect a link of the study area
+
+    public double getLength(Id<Link> linkId) {
+        return lengths[linkId.index()];
+    }
+
+    public double getFreeFlowTravelTime(Id<Link> linkId) {
+        return freeFlowTravelTimes[linkId.index()];
+    }
+
+    public double getCapacity(Id<Link> linkId) {
+        return capacities[linkId.index()];
+    }
+
+    public List<Id<Link>> getLinkIds() {
+        return linkIds;
+    }
+
+    public int size() {
+        return linkIds.size();
+    }
+}
@@ -1,68 +1,103 @@
 package matsim.analysis;
 
+import EventHandlers.EventsAnalyzer;
+import EventHandlers.EventTypeCodes;
+import EventHandlers.FilteredEventsReader;
+import EventHandlers.StudyArea;
+import EventHandlers.VehiclePersonLookup;
+import EventHandlers.NetworkLoader;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.config.groups.GlobalConfigGroup;
 import org.matsim.core.config.groups.SubtourModeChoiceConfigGroup;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.EventsReaderXMLv1;
-import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.events.handler.EventHandler;
 import org.matsim.core.replanning.modules.SubtourModeChoice;
+import org.matsim.vehicles.Vehicle;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
-public class StudyAreaAgentFilter {
+public class StudyAreaAgentFilter implements EventsAnalyzer {
 
-    // Set to store agents passing through the study area
-    private final Set<Id<Person>> agentsInStudyArea = new HashSet<>();
-    private final Set<Id<Link>> studyAreaLinks = new HashSet<>();
+    // Vehicles passing through the study area, by Id.index(); mapped to agents when writing
+    private final BitSet vehiclesInStudyArea = new BitSet();
+    private final StudyArea studyArea;
+    private final VehiclePersonLookup vehiclePersons;
+    private final StudyAreaEventHandler eventHandler = new StudyAreaEventHandler();
 
-    // Constructor
+    // Constructor; every agent drives the vehicle with its own id
     public StudyAreaAgentFilter(Network studyAreaNetwork) {
-        for (Link link : studyAreaNetwork.getLinks().values()) {
-            studyAreaLinks.add(link.getId());
-        }
+        this(studyAreaNetwork, new VehiclePersonLookup());
+    }
+
+    public StudyAreaAgentFilter(Network studyAreaNetwork, VehiclePersonLookup vehiclePersons) {
+        this.studyArea = StudyArea.of(studyAreaNetwork);
+        this.vehiclePersons = vehiclePersons;
     }
 
     // Event handler implementation
     private class StudyAreaEventHandler implements LinkEnterEventHandler {
         @Override
         public void handleEvent(LinkEnterEvent event) {
-            if (studyAreaLinks.contains(event.getLinkId())) {
-                agentsInStudyArea.add(Id.createPersonId(event.getVehicleId()));
+            if (studyArea.contains(event.getLinkId())) {
+                vehiclesInStudyArea.set(event.getVehicleId().index());
             }
         }
 
         @Override
         public void reset(int iteration) {
-            agentsInStudyArea.clear();
+            vehiclesInStudyArea.clear();
         }
     }
 
     // Method to process events
     public void processEvents(String eventsFile) {
         EventsManagerImpl eventsManager = new EventsManagerImpl();
-        StudyAreaEventHandler eventHandler = new StudyAreaEventHandler();
         eventsManager.addHandler(eventHandler);
 
-        EventsReaderXMLv1 reader = new EventsReaderXMLv1(eventsManager);
-        reader.readFile(eventsFile);
+        // Events outside the study area are dropped while parsing
+        new FilteredEventsReader(eventsManager)
+                .setLinks(studyArea.getLinkIds())
+                .setEventTypes(EventTypeCodes.LINK_ENTER)
+                .readFile(eventsFile);
+    }
+
+    @Override
+    public EventHandler getEventHandler() {
+        return eventHandler;
+    }
+
+    @Override
+    public void writeResults(String outputFilePath) throws IOException {
+        writeResultsToCSV(outputFilePath);
+    }
+
+    // Agents of the vehicles seen in the study area; vehicles unknown to the lookup are taken to
+    // have the id of their agent
+    public Set<Id<Person>> getAgentsInStudyArea() {
+        Set<Id<Person>> agents = new LinkedHashSet<>();
+        for (int vehicle = vehiclesInStudyArea.nextSetBit(0); vehicle >= 0; vehicle = vehiclesInStudyArea.nextSetBit(vehicle + 1)) {
+            Id<Vehicle> vehicleId = Id.get(vehicle, Vehicle.class);
+            Id<Person> personId = vehiclePersons.getPersonId(vehicleId);
+            agents.add(personId != null ? personId : Id.createPersonId(vehicleId));
+        }
+        return agents;
     }
 
     // Method to write results to CSV
     public void writeResultsToCSV(String outputFilePath) throws IOException {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
             writer.write("AgentId\n");
-            for (Id<Person> agentId : agentsInStudyArea) {
+            for (Id<Person> agentId : getAgentsInStudyArea()) {
                 writer.write(agentId.toString());
                 writer.newLine();
             }
@@ -76,8 +111,7 @@ public class StudyAreaAgentFilter {
         String outputCSV = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\output.csv";
 
         // Load the network file for the study area
-        Network studyAreaNetwork = org.matsim.core.network.NetworkUtils.createNetwork();
-        new MatsimNetworkReader(studyAreaNetwork).readFile(studyAreaNetworkFile);
+        Network studyAreaNetwork = NetworkLoader.load(studyAreaNetworkFile);
 
         // Example fix for SubtourModeChoice constructor issue
         GlobalConfigGroup globalConfig = new GlobalConfigGroup();
@@ -0,0 +1,83 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.Arrays;
+
+// Per-vehicle totals of the link traversals: travel time, distance, free-flow travel time and the
+// number of traversals, in primitive arrays indexed by the Id.index() of the vehicle like
+// LinkStatistics. Replaces one boxed HashMap<Id, Double> per total, which does not fit the heap
+// for a 25-100% population; these columns take 28 bytes per vehicle, about 42 MB for 1.5 million
+// vehicles. The arrays are sized for all vehicle ids created so far and grow if later ids show up.
+public class VehicleAccumulators {
+
+    private double[] travelTimes;
+    private double[] distances;
+    private double[] freeFlowTravelTimes;
+    private int[] traversals;
+
+    public VehicleAccumulators() {
+        this(Id.getNumberOfIds(Vehicle.class));
+    }
+
+    public VehicleAccumulators(int expectedNumberOfVehicles) {
+        int capacity = Math.max(16, expectedNumberOfVehicles);
+        travelTimes = new double[capacity];
+        distances = new double[capacity];
+        freeFlowTravelTimes = new double[capacity];
+        traversals = new int[capacity];
+    }
+
+    public void add(Id<?> vehicleId, double travelTime, double distance, double freeFlowTravelTime) {
+        int vehicle = vehicleId.index();
+        ensureCapacity(vehicle);
+        travelTimes[vehicle] += travelTime;
+        distances[vehicle] += distance;
+        freeFlowTravelTimes[vehicle] += freeFlowTravelTime;
+        traversals[vehicle]++;
+    }
+
+    public int getTraversals(int vehicle) {
+        return vehicle < traversals.length ? traversals[vehicle] : 0;
+    }
+
+    public double getTravelTime(int vehicle) {
+        return vehicle < travelTimes.length ? travelTimes[vehicle] : 0.0;
+    }
+
+    public double getDistance(int vehicle) {
+        return vehicle < distances.length ? distances[vehicle] : 0.0;
+    }
+
+    public double getFreeFlowTravelTime(int vehicle) {
+        return vehicle < freeFlowTravelTimes.length ? freeFlowTravelTimes[vehicle] : 0.0;
+    }
+
+    // Next vehicle index >= from with at least one traversal, -1 if there is none
+    public int nextVehicle(int from) {
+        for (int vehicle = Math.max(0, from); vehicle < traversals.length; vehicle++) {
+            if (traversals[vehicle] > 0) {
+                return vehicle;
+            }
+        }
+        return -1;
+    }
+
+    public void clear() {
+        Arrays.fill(travelTimes, 0.0);
+        Arrays.fill(distances, 0.0);
+        Arrays.fill(freeFlowTravelTimes, 0.0);
+        Arrays.fill(traversals, 0);
+    }
+
+    private void ensureCapacity(int vehicle) {
+        if (vehicle >= traversals.length) {
+            int capacity = Math.max(vehicle + 1, traversals.length * 2);
+            travelTimes = Arrays.copyOf(travelTimes, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+            freeFlowTravelTimes = Arrays.copyOf(freeFlowTravelTimes, capacity);
+            traversals = Arrays.copyOf(traversals, capacity);
+        }
+    }
+}
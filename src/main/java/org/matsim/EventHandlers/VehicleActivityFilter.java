@@ -6,12 +6,9 @@ import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
 import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
 import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
 import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.EventsReaderXMLv1;
-import org.matsim.core.network.io.MatsimNetworkReader;
-import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.events.handler.EventHandler;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
@@ -19,18 +16,15 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
-public class VehicleActivityFilter {
+public class VehicleActivityFilter implements EventsAnalyzer {
 
-    private final Network network;
-    private final Set<Id<Link>> filteredNetworkLinks = new HashSet<>();
+    private final StudyArea filteredNetworkLinks;
     private final Set<Id> vehiclesWithActivity = new HashSet<>();
+    private final ActivityEventHandler eventHandler = new ActivityEventHandler();
 
     // Constructor
     public VehicleActivityFilter(Network filteredNetwork) {
-        this.network = filteredNetwork;
-        for (Link link : filteredNetwork.getLinks().values()) {
-            filteredNetworkLinks.add(link.getId());
-        }
+        this.filteredNetworkLinks = StudyArea.of(filteredNetwork);
     }
 
     // Event handler for link entry and exit
@@ -77,21 +71,32 @@ public class VehicleActivityFilter {
     // Process events and write results to CSV
     public void processEvents(String eventsFile, String outputFilePath) throws IOException {
         EventsManagerImpl eventsManager = new EventsManagerImpl();
-        ActivityEventHandler eventHandler = new ActivityEventHandler();
         eventsManager.addHandler(eventHandler);
 
-        EventsReaderXMLv1 reader = new EventsReaderXMLv1(eventsManager);
-        reader.readFile(eventsFile);
+        // Events outside the study area are dropped while parsing
+        new FilteredEventsReader(eventsManager)
+                .setLinks(filteredNetworkLinks.getLinkIds())
+                .readFile(eventsFile);
+
+        writeResults(outputFilePath);
+
+        System.out.println("Results written to: " + outputFilePath);
+    }
 
-        // Write the vehicle IDs to the output file
+    @Override
+    public EventHandler getEventHandler() {
+        return eventHandler;
+    }
+
+    // Write the vehicle IDs to the output file
+    @Override
+    public void writeResults(String outputFilePath) throws IOException {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
             writer.write("VehicleId\n");
             for (Id vehicleId : vehiclesWithActivity) {
                 writer.write(vehicleId + "\n");
             }
         }
-
-        System.out.println("Results written to: " + outputFilePath);
     }
 
     public static void main(String[] args) {
@@ -101,8 +106,7 @@ public class VehicleActivityFilter {
         String outputFilePath = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\scenerio1\\output_vehicles_with_activities.txt";
 
         // Create and load filtered network
-        Network filteredNetwork = NetworkUtils.createNetwork();
-        new MatsimNetworkReader(filteredNetwork).readFile(filteredNetworkFile);
+        Network filteredNetwork = NetworkLoader.load(filteredNetworkFile);
 
         // Create the VehicleActivityFilter and process events
         VehicleActivityFilter activityFilter = new VehicleActivityFilter(filteredNetwork);
@@ -1,41 +1,18 @@
 package EventHandlers;// Java code for finding the most dense link and max flow per hour
-import javax.xml.stream.*;
 import java.io.*;
 import java.util.*;
 
 public class VehicleFlowAnalysis {
     public static void main(String[] args) throws Exception {
-        // Define the input XML file path
-        String filePath = "C:/Users/Bibek Karki/Downloads/matsim-munich-master/output/test.output_events.xml";
+        // Define the input XML file path (or a columnar store written by EventsStoreWriter)
+        String filePath = args.length > 0 ? args[0] : "C:/Users/Bibek Karki/Downloads/matsim-munich-master/output/test.output_events.xml";
+        // Number of parsing threads; the counts do not depend on event order, so the file is parsed in parallel chunks
+        int numberOfThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
 
         // Map to store hourly vehicle counts for each link
-        Map<String, int[]> linkCounts = new HashMap<>();
-
-        // Setup XML stream reader for efficient parsing
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        InputStream inputStream = new FileInputStream(filePath);
-        XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
-
-        // Parse the XML file
-        while (reader.hasNext()) {
-            int eventType = reader.next();
-            if (eventType == XMLStreamConstants.START_ELEMENT && "event".equals(reader.getLocalName())) {
-                String type = reader.getAttributeValue(null, "type");
-                String link = reader.getAttributeValue(null, "link");
-                String timeStr = reader.getAttributeValue(null, "time");
-
-                if (timeStr != null && link != null && ("entered link".equals(type) || "left link".equals(type))) {
-                    int hour = (int) (Double.parseDouble(timeStr) / 3600);
-                    if (hour >= 0 && hour < 24) {
-                        linkCounts.putIfAbsent(link, new int[24]);
-                        linkCounts.get(link)[hour]++;
-                    }
-                }
-            }
-        }
-
-        reader.close();
-        inputStream.close();
+        Map<String, int[]> linkCounts = EventsStore.isStore(filePath)
+                ? countHourlyFlows(EventsStore.open(filePath))
+                : countHourlyFlowsParallel(filePath, numberOfThreads);
 
         // Find the most dense link and max flow
         String maxLink = "";
@@ -56,4 +33,112 @@ public class VehicleFlowAnalysis {
         System.out.println("Most Dense Link: " + maxLink);
         System.out.println("Max Flow: " + maxFlow + " vehicles/hour at Hour: " + maxHour);
     }
+
+    // Count hourly link enters and leaves by scanning the events XML on a single thread
+    static Map<String, int[]> countHourlyFlows(String filePath) throws IOException {
+        HourlyFlowAggregation aggregation = new HourlyFlowAggregation();
+        try (EventsScanner scanner = EventsScanner.open(filePath)) {
+            HourlyFlows flows = aggregation.createAccumulator(scanner);
+            while (scanner.next()) {
+                aggregation.handleEvent(flows, scanner);
+            }
+            return flows.toMap();
+        }
+    }
+
+    // Count hourly link enters and leaves on several threads, one accumulator per file chunk
+    static Map<String, int[]> countHourlyFlowsParallel(String filePath, int numberOfThreads) throws IOException {
+        return new ParallelEventsReader(numberOfThreads).aggregate(filePath, new HourlyFlowAggregation()).toMap();
+    }
+
+    // Hourly counts per link, indexed by the link indices of one scanner
+    private static class HourlyFlows {
+        private final IdInterner linkIds;
+        private int[][] countsByLink = new int[1024][];
+
+        HourlyFlows(IdInterner linkIds) {
+            this.linkIds = linkIds;
+        }
+
+        int[] countsOf(int link) {
+            if (link >= countsByLink.length) {
+                countsByLink = Arrays.copyOf(countsByLink, Math.max(link + 1, countsByLink.length * 2));
+            }
+            if (countsByLink[link] == null) {
+                countsByLink[link] = new int[24];
+            }
+            return countsByLink[link];
+        }
+
+        Map<String, int[]> toMap() {
+            Map<String, int[]> linkCounts = new HashMap<>();
+            for (int link = 0; link < countsByLink.length; link++) {
+                if (countsByLink[link] != null) {
+                    linkCounts.put(linkIds.toString(link), countsByLink[link]);
+                }
+            }
+            return linkCounts;
+        }
+    }
+
+    private static class HourlyFlowAggregation implements ParallelEventsReader.Aggregation<HourlyFlows> {
+        @Override
+        public HourlyFlows createAccumulator(EventsScanner scanner) {
+            return new HourlyFlows(scanner.getLinkIds());
+        }
+
+        @Override
+        public void handleEvent(HourlyFlows flows, EventsScanner event) {
+            byte type = event.getType();
+            if ((type == EventTypeCodes.LINK_ENTER || type == EventTypeCodes.LINK_LEAVE) && event.getLink() >= 0) {
+                double time = event.getTime();
+                if (!Double.isNaN(time)) {
+                    int hour = (int) (time / 3600);
+                    if (hour >= 0 && hour < 24) {
+                        flows.countsOf(event.getLink())[hour]++;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public HourlyFlows merge(HourlyFlows first, HourlyFlows second) {
+            for (int link = 0; link < second.countsByLink.length; link++) {
+                int[] counts = second.countsByLink[link];
+                if (counts != null) {
+                    int[] target = first.countsOf(first.linkIds.intern(second.linkIds.toString(link)));
+                    for (int hour = 0; hour < 24; hour++) {
+                        target[hour] += counts[hour];
+                    }
+                }
+            }
+            return first;
+        }
+    }
+
+    // Count hourly link enters and leaves straight from the store columns, without creating any objects per event
+    static Map<String, int[]> countHourlyFlows(EventsStore store) {
+        int[][] countsByLink = new int[store.getNumberOfLinks()][];
+        for (int row = 0; row < store.size(); row++) {
+            byte type = store.getType(row);
+            if (type == EventTypeCodes.LINK_ENTER || type == EventTypeCodes.LINK_LEAVE) {
+                int hour = (int) (store.getTime(row) / 3600);
+                if (hour >= 0 && hour < 24) {
+                    int link = store.getLink(row);
+                    if (countsByLink[link] == null) {
+                        countsByLink[link] = new int[24];
+                    }
+                    countsByLink[link][hour]++;
+                }
+            }
+        }
+
+        Map<String, int[]> linkCounts = new HashMap<>();
+        for (int link = 0; link < countsByLink.length; link++) {
+            if (countsByLink[link] != null) {
+                linkCounts.put(store.getLinkId(link), countsByLink[link]);
+            }
+        }
+        return linkCounts;
+    }
 }
@@ -1,11 +1,5 @@
 package EventHandlers;// Java code for finding the most dense link and max flow per hour
 
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamReader;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
 
 public class VehicleFlowAnalysis1 {
@@ -13,34 +7,8 @@ public class VehicleFlowAnalysis1 {
         // Define the input XML file path
         String filePath = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\scenerio1\\test.output_events.xml\\test.output_events.xml";
 
-        // Map to store hourly vehicle counts for each link
-        Map<String, int[]> linkCounts = new HashMap<>();
-
-        // Setup XML stream reader for efficient parsing
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        InputStream inputStream = new FileInputStream(filePath);
-        XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
-
-        // Parse the XML file
-        while (reader.hasNext()) {
-            int eventType = reader.next();
-            if (eventType == XMLStreamConstants.START_ELEMENT && "event".equals(reader.getLocalName())) {
-                String type = reader.getAttributeValue(null, "type");
-                String link = reader.getAttributeValue(null, "link");
-                String timeStr = reader.getAttributeValue(null, "time");
-
-                if (timeStr != null && link != null && ("entered link".equals(type) || "left link".equals(type))) {
-                    int hour = (int) (Double.parseDouble(timeStr) / 3600);
-                    if (hour >= 0 && hour < 24) {
-                        linkCounts.putIfAbsent(link, new int[24]);
-                        linkCounts.get(link)[hour]++;
-                    }
-                }
-            }
-        }
-
-        reader.close();
-        inputStream.close();
+        // Map to store hourly vehicle counts for each link, counted on all cores
+        Map<String, int[]> linkCounts = VehicleFlowAnalysis.countHourlyFlowsParallel(filePath, Runtime.getRuntime().availableProcessors());
 
         // Find the most dense link and max flow
         String maxLink = "";
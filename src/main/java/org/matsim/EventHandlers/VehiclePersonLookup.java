@@ -0,0 +1,159 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// Vehicle -> person, subpopulation and mode flags, built once before reading the events so that
+// event handlers only read arrays indexed by the Id.index() of the event's vehicle instead of
+// converting the vehicle id into a person id (Id.createPersonId) for every event.
+//
+// A person drives the vehicle with the person's id (the QSim default), and, if a vehicles file
+// is given, the vehicles "<personId>_<mode>" of mode-specific vehicle types. A vehicle is flagged
+// CAR_AGENT if its person has a car leg in the selected plan and it is not the vehicle of
+// another mode.
+public class VehiclePersonLookup {
+
+    public static final byte CAR_AGENT = 1;
+
+    private static final int NO_PERSON = -1;
+
+    private int[] personOfVehicle = new int[0];
+    private byte[] subpopulationOfVehicle = new byte[0];
+    private byte[] flagsOfVehicle = new byte[0];
+    // subpopulation names, 0 is "no subpopulation"
+    private final List<String> subpopulations = new ArrayList<>();
+
+    public VehiclePersonLookup() {
+        subpopulations.add(null);
+        ensureCapacity(Id.getNumberOfIds(Vehicle.class) - 1);
+    }
+
+    public static VehiclePersonLookup fromFiles(String populationFile, String vehiclesFile) {
+        Population population = PopulationUtils.readPopulation(populationFile);
+        Vehicles vehicles = null;
+        if (vehiclesFile != null) {
+            vehicles = VehicleUtils.createVehiclesContainer();
+            new MatsimVehicleReader(vehicles).readFile(vehiclesFile);
+        }
+        return fromPopulation(population, vehicles);
+    }
+
+    // Vehicles may be null if every person drives the vehicle with the person's id
+    public static VehiclePersonLookup fromPopulation(Population population, Vehicles vehicles) {
+        VehiclePersonLookup lookup = new VehiclePersonLookup();
+        for (Person person : population.getPersons().values()) {
+            byte flags = usesCar(person) ? CAR_AGENT : 0;
+            lookup.register(Id.createVehicleId(person.getId()), person.getId(), PopulationUtils.getSubpopulation(person), flags);
+        }
+
+        if (vehicles != null) {
+            for (Id<Vehicle> vehicleId : vehicles.getVehicles().keySet()) {
+                String id = vehicleId.toString();
+                int separator = id.lastIndexOf('_');
+                if (lookup.getPersonIndex(vehicleId) != NO_PERSON || separator <= 0) {
+                    continue;
+                }
+                Person person = population.getPersons().get(Id.createPersonId(id.substring(0, separator)));
+                if (person != null) {
+                    String mode = id.substring(separator + 1);
+                    byte flags = TransportMode.car.equals(mode) && usesCar(person) ? CAR_AGENT : 0;
+                    lookup.register(vehicleId, person.getId(), PopulationUtils.getSubpopulation(person), flags);
+                }
+            }
+        }
+        return lookup;
+    }
+
+    // For callers that only know a set of persons: each drives the vehicle with its own id
+    public static VehiclePersonLookup forPersons(Collection<Id<Person>> personIds, byte flags) {
+        VehiclePersonLookup lookup = new VehiclePersonLookup();
+        for (Id<Person> personId : personIds) {
+            lookup.register(Id.createVehicleId(personId), personId, null, flags);
+        }
+        return lookup;
+    }
+
+    private static boolean usesCar(Person person) {
+        if (person.getSelectedPlan() == null) {
+            return false;
+        }
+        for (Leg leg : TripStructureUtils.getLegs(person.getSelectedPlan())) {
+            if (TransportMode.car.equals(leg.getMode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void register(Id<Vehicle> vehicleId, Id<Person> personId, String subpopulation, byte flags) {
+        int vehicle = vehicleId.index();
+        ensureCapacity(vehicle);
+        personOfVehicle[vehicle] = personId.index();
+        subpopulationOfVehicle[vehicle] = subpopulationCode(subpopulation);
+        flagsOfVehicle[vehicle] = flags;
+    }
+
+    private byte subpopulationCode(String subpopulation) {
+        int code = subpopulations.indexOf(subpopulation);
+        if (code < 0) {
+            if (subpopulations.size() > Byte.MAX_VALUE) {
+                throw new IllegalStateException("More than " + Byte.MAX_VALUE + " subpopulations");
+            }
+            code = subpopulations.size();
+            subpopulations.add(subpopulation);
+        }
+        return (byte) code;
+    }
+
+    private void ensureCapacity(int vehicle) {
+        if (vehicle >= personOfVehicle.length) {
+            int capacity = Math.max(vehicle + 1, personOfVehicle.length * 2);
+            int oldCapacity = personOfVehicle.length;
+            personOfVehicle = Arrays.copyOf(personOfVehicle, capacity);
+            Arrays.fill(personOfVehicle, oldCapacity, capacity, NO_PERSON);
+            subpopulationOfVehicle = Arrays.copyOf(subpopulationOfVehicle, capacity);
+            flagsOfVehicle = Arrays.copyOf(flagsOfVehicle, capacity);
+        }
+    }
+
+    // Id.index() of the person driving the vehicle, -1 for unknown vehicles
+    public int getPersonIndex(Id<Vehicle> vehicleId) {
+        int vehicle = vehicleId.index();
+        return vehicle < personOfVehicle.length ? personOfVehicle[vehicle] : NO_PERSON;
+    }
+
+    // Person driving the vehicle, null for unknown vehicles
+    public Id<Person> getPersonId(Id<Vehicle> vehicleId) {
+        int person = getPersonIndex(vehicleId);
+        return person == NO_PERSON ? null : Id.get(person, Person.class);
+    }
+
+    public boolean hasFlag(Id<Vehicle> vehicleId, byte flag) {
+        int vehicle = vehicleId.index();
+        return vehicle < flagsOfVehicle.length && (flagsOfVehicle[vehicle] & flag) != 0;
+    }
+
+    public boolean isCarAgent(Id<Vehicle> vehicleId) {
+        return hasFlag(vehicleId, CAR_AGENT);
+    }
+
+    // Subpopulation of the vehicle's person, null if it has none or the vehicle is unknown
+    public String getSubpopulation(Id<Vehicle> vehicleId) {
+        int vehicle = vehicleId.index();
+        return vehicle < subpopulationOfVehicle.length ? subpopulations.get(subpopulationOfVehicle[vehicle]) : null;
+    }
+}
@@ -0,0 +1,499 @@
+package EventHandlers;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// On-disk postings index from vehicle id to the vehicle's link events, built in one pass over an
+// events file and stored next to it as <events file>.vidx. Every posting keeps the event's offset
+// in the (uncompressed) events file together with its time, type and link, so trajectories are
+// answered from the index alone, also for gzipped events files.
+//
+// File layout (big endian), every section memory-mapped on open:
+//   header       version, events file size, events file modification time, vehicles, links, long postings
+//   vehicles     long[vehicles + 1] first posting, long[vehicles + 1] key start, UTF-8 keys sorted by id
+//   links        long[links + 1] key start, UTF-8 keys in index order
+//   postings     long offset, double time, byte type (EventTypeCodes), int link; grouped by vehicle
+//                and in file order within a vehicle
+// Sections larger than 2 GB are mapped in chunks, and the build spills the postings to disk, so
+// the index also works for events files with billions of link events.
+public class VehicleTrajectoryIndex {
+
+    static final int VERSION = 2;
+    static final String SUFFIX = ".vidx";
+    private static final int HEADER_BYTES = Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES + Long.BYTES;
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+    // about 60 MB of heap per partition while building
+    private static final int POSTINGS_PER_PARTITION = 1 << 21;
+
+    // One traversal of a link; times are NaN if the vehicle's trajectory starts or ends on the link
+    public static final class LinkTraversal {
+        private final Id<Link> linkId;
+        private final double enterTime;
+        private final double leaveTime;
+        private final double length;
+
+        LinkTraversal(Id<Link> linkId, double enterTime, double leaveTime, double length) {
+            this.linkId = linkId;
+            this.enterTime = enterTime;
+            this.leaveTime = leaveTime;
+            this.length = length;
+        }
+
+        public Id<Link> getLinkId() {
+            return linkId;
+        }
+
+        public double getEnterTime() {
+            return enterTime;
+        }
+
+        public double getLeaveTime() {
+            return leaveTime;
+        }
+
+        public double getTravelTime() {
+            return leaveTime - enterTime;
+        }
+
+        // Link length from the network, NaN if the link is not part of it
+        public double getLength() {
+            return length;
+        }
+
+        public double getSpeed() {
+            double travelTime = getTravelTime();
+            return travelTime > 0 ? length / travelTime : 0;
+        }
+    }
+
+    private final long eventsFileSize;
+    private final long eventsLastModified;
+    private final int numberOfVehicles;
+    private final int numberOfLinks;
+    private final MappedSection firstPostings;
+    private final MappedSection vehicleKeyStarts;
+    private final MappedSection vehicleKeys;
+    private final MappedSection linkKeyStarts;
+    private final MappedSection linkKeys;
+    private final MappedSection offsets;
+    private final MappedSection times;
+    private final MappedSection types;
+    private final MappedSection links;
+
+    private VehicleTrajectoryIndex(File indexFile, int chunkBytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r"); FileChannel channel = raf.getChannel()) {
+            int version = raf.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported trajectory index version " + version + " in " + indexFile);
+            }
+            eventsFileSize = raf.readLong();
+            eventsLastModified = raf.readLong();
+            numberOfVehicles = raf.readInt();
+            numberOfLinks = raf.readInt();
+            long postings = raf.readLong();
+
+            long position = HEADER_BYTES;
+            firstPostings = new MappedSection(channel, position, (numberOfVehicles + 1L) * Long.BYTES, chunkBytes);
+            position += firstPostings.length;
+            vehicleKeyStarts = new MappedSection(channel, position, (numberOfVehicles + 1L) * Long.BYTES, chunkBytes);
+            position += vehicleKeyStarts.length;
+            vehicleKeys = new MappedSection(channel, position, vehicleKeyStarts.getLong((long) numberOfVehicles * Long.BYTES), chunkBytes);
+            position += vehicleKeys.length;
+            linkKeyStarts = new MappedSection(channel, position, (numberOfLinks + 1L) * Long.BYTES, chunkBytes);
+            position += linkKeyStarts.length;
+            linkKeys = new MappedSection(channel, position, linkKeyStarts.getLong((long) numberOfLinks * Long.BYTES), chunkBytes);
+            position += linkKeys.length;
+            offsets = new MappedSection(channel, position, postings * Long.BYTES, chunkBytes);
+            position += offsets.length;
+            times = new MappedSection(channel, position, postings * Double.BYTES, chunkBytes);
+            position += times.length;
+            types = new MappedSection(channel, position, postings, chunkBytes);
+            position += types.length;
+            links = new MappedSection(channel, position, postings * Integer.BYTES, chunkBytes);
+            position += links.length;
+            if (position != channel.size()) {
+                throw new IOException("Trajectory index " + indexFile + " has " + channel.size() + " bytes, expected " + position);
+            }
+        }
+    }
+
+    public static VehicleTrajectoryIndex open(String indexFile) throws IOException {
+        return open(indexFile, MAX_CHUNK_BYTES);
+    }
+
+    static VehicleTrajectoryIndex open(String indexFile, int chunkBytes) throws IOException {
+        return new VehicleTrajectoryIndex(new File(indexFile), chunkBytes);
+    }
+
+    // Open the index of the events file, building it first if it is missing or out of date
+    public static VehicleTrajectoryIndex loadOrBuild(String eventsFile) throws IOException {
+        File indexFile = new File(eventsFile + SUFFIX);
+        if (indexFile.isFile()) {
+            try {
+                VehicleTrajectoryIndex index = open(indexFile.getPath());
+                if (index.isValidFor(eventsFile)) {
+                    return index;
+                }
+            } catch (IOException e) {
+                System.out.println("Rebuilding unreadable trajectory index " + indexFile + ": " + e.getMessage());
+            }
+        }
+        build(eventsFile, indexFile.getPath());
+        return open(indexFile.getPath());
+    }
+
+    // Read the events file once and write the postings of all link events of all vehicles
+    public static void build(String eventsFile, String indexFile) throws IOException {
+        build(eventsFile, indexFile, POSTINGS_PER_PARTITION);
+    }
+
+    // The postings are spilled to a temporary file in file order while the events are read, then
+    // distributed into partitions of at most postingsPerPartition consecutive index positions, and
+    // every partition is ordered on the heap and written to its place in the index. The heap only
+    // holds the ids, one count per vehicle and one partition.
+    static void build(String eventsFile, String indexFile, int postingsPerPartition) throws IOException {
+        File file = new File(eventsFile);
+        long fileSize = file.length();
+        long lastModified = file.lastModified();
+        File directory = new File(indexFile).getAbsoluteFile().getParentFile();
+
+        List<File> temporaryFiles = new ArrayList<>();
+        try {
+            File spill = File.createTempFile("postings", ".tmp", directory);
+            temporaryFiles.add(spill);
+            long postings = 0;
+            int[] counts = new int[1 << 16];
+            IdInterner vehicleIds;
+            IdInterner linkIds;
+            try (EventsScanner scanner = EventsScanner.open(eventsFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill), 1 << 16))) {
+                vehicleIds = scanner.getVehicleIds();
+                linkIds = scanner.getLinkIds();
+                while (scanner.next()) {
+                    if (scanner.getType() == EventTypeCodes.OTHER || scanner.getVehicle() < 0) {
+                        continue;
+                    }
+                    int vehicle = scanner.getVehicle();
+                    if (vehicle >= counts.length) {
+                        counts = Arrays.copyOf(counts, Math.max(counts.length * 2, vehicle + 1));
+                    }
+                    counts[vehicle]++;
+                    writePosting(out, vehicle, scanner.getEventOffset(), scanner.getTime(), scanner.getType(), scanner.getLink());
+                    postings++;
+                }
+            }
+
+            // Vehicles in id order, so lookups can binary search the keys. The scanner also interns
+            // vehicles of events that are not indexed, these have no postings.
+            int numberOfVehicles = vehicleIds.size();
+            counts = Arrays.copyOf(counts, Math.max(counts.length, numberOfVehicles));
+            Integer[] order = new Integer[numberOfVehicles];
+            for (int vehicle = 0; vehicle < numberOfVehicles; vehicle++) {
+                order[vehicle] = vehicle;
+            }
+            Arrays.sort(order, (a, b) -> vehicleIds.toString(a).compareTo(vehicleIds.toString(b)));
+            long[] firstPosting = new long[numberOfVehicles + 1];
+            for (int i = 0; i < numberOfVehicles; i++) {
+                firstPosting[i + 1] = firstPosting[i] + counts[order[i]];
+            }
+            // index position of the next posting of each vehicle, by the vehicle's interner index
+            long[] next = new long[numberOfVehicles];
+            for (int i = 0; i < numberOfVehicles; i++) {
+                next[order[i]] = firstPosting[i];
+            }
+
+            List<File> partitions = partition(spill, postings, postingsPerPartition, Arrays.copyOf(next, numberOfVehicles),
+                    directory, temporaryFiles);
+
+            long postingsStart;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+                out.writeInt(VERSION);
+                out.writeLong(fileSize);
+                out.writeLong(lastModified);
+                out.writeInt(numberOfVehicles);
+                out.writeInt(linkIds.size());
+                out.writeLong(postings);
+
+                for (long start : firstPosting) {
+                    out.writeLong(start);
+                }
+                List<byte[]> vehicleKeys = new ArrayList<>(numberOfVehicles);
+                for (int vehicle : order) {
+                    vehicleKeys.add(vehicleIds.toString(vehicle).getBytes(StandardCharsets.UTF_8));
+                }
+                writeKeys(out, vehicleKeys);
+                List<byte[]> linkKeys = new ArrayList<>(linkIds.size());
+                for (int link = 0; link < linkIds.size(); link++) {
+                    linkKeys.add(linkIds.toString(link).getBytes(StandardCharsets.UTF_8));
+                }
+                writeKeys(out, linkKeys);
+                postingsStart = out.size();
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw"); FileChannel channel = raf.getChannel()) {
+                long offsetsStart = postingsStart;
+                long timesStart = offsetsStart + postings * Long.BYTES;
+                long typesStart = timesStart + postings * Double.BYTES;
+                long linksStart = typesStart + postings;
+                raf.setLength(linksStart + postings * Integer.BYTES);
+
+                long first = 0;
+                for (File partition : partitions) {
+                    int size = (int) Math.min(postingsPerPartition, postings - first);
+                    ByteBuffer eventOffsets = ByteBuffer.allocate(size * Long.BYTES);
+                    ByteBuffer eventTimes = ByteBuffer.allocate(size * Double.BYTES);
+                    ByteBuffer eventTypes = ByteBuffer.allocate(size);
+                    ByteBuffer eventLinks = ByteBuffer.allocate(size * Integer.BYTES);
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(partition), 1 << 16))) {
+                        for (int i = 0; i < size; i++) {
+                            int vehicle = in.readInt();
+                            int position = (int) (next[vehicle]++ - first);
+                            eventOffsets.putLong(position * Long.BYTES, in.readLong());
+                            eventTimes.putDouble(position * Double.BYTES, in.readDouble());
+                            eventTypes.put(position, in.readByte());
+                            eventLinks.putInt(position * Integer.BYTES, in.readInt());
+                        }
+                    }
+                    write(channel, eventOffsets, offsetsStart + first * Long.BYTES);
+                    write(channel, eventTimes, timesStart + first * Double.BYTES);
+                    write(channel, eventTypes, typesStart + first);
+                    write(channel, eventLinks, linksStart + first * Integer.BYTES);
+                    first += size;
+                }
+            }
+        } finally {
+            for (File temporaryFile : temporaryFiles) {
+                Files.deleteIfExists(temporaryFile.toPath());
+            }
+        }
+    }
+
+    private static void writePosting(DataOutputStream out, int vehicle, long offset, double time, byte type, int link) throws IOException {
+        out.writeInt(vehicle);
+        out.writeLong(offset);
+        out.writeDouble(time);
+        out.writeByte(type);
+        out.writeInt(link);
+    }
+
+    // Distribute the spilled postings by their index position into files of postingsPerPartition
+    // consecutive positions; within a partition the postings stay in file order
+    private static List<File> partition(File spill, long postings, int postingsPerPartition, long[] next, File directory,
+                                        List<File> temporaryFiles) throws IOException {
+        int numberOfPartitions = (int) Math.max(1, (postings + postingsPerPartition - 1) / postingsPerPartition);
+        if (numberOfPartitions == 1) {
+            return Collections.singletonList(spill);
+        }
+        List<File> partitions = new ArrayList<>(numberOfPartitions);
+        DataOutputStream[] outs = new DataOutputStream[numberOfPartitions];
+        try {
+            for (int p = 0; p < numberOfPartitions; p++) {
+                File partition = File.createTempFile("postings" + p + "_", ".tmp", directory);
+                temporaryFiles.add(partition);
+                partitions.add(partition);
+                outs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partition), 1 << 14));
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spill), 1 << 16))) {
+                for (long i = 0; i < postings; i++) {
+                    int vehicle = in.readInt();
+                    int p = (int) (next[vehicle]++ / postingsPerPartition);
+                    writePosting(outs[p], vehicle, in.readLong(), in.readDouble(), in.readByte(), in.readInt());
+                }
+            }
+        } finally {
+            for (DataOutputStream out : outs) {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+        Files.delete(spill.toPath());
+        return partitions;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void writeKeys(DataOutputStream out, List<byte[]> keys) throws IOException {
+        long start = 0;
+        out.writeLong(start);
+        for (byte[] key : keys) {
+            start += key.length;
+            out.writeLong(start);
+        }
+        for (byte[] key : keys) {
+            out.write(key);
+        }
+    }
+
+    // A section of the index file mapped in chunks, since a single mapping is limited to 2 GB.
+    // The chunk size is a multiple of 8, so no value of a section crosses a chunk boundary.
+    private static final class MappedSection {
+        private final long length;
+        private final int chunkBytes;
+        private final MappedByteBuffer[] chunks;
+
+        MappedSection(FileChannel channel, long position, long length, int chunkBytes) throws IOException {
+            if (length < 0 || position + length > channel.size()) {
+                throw new EOFException("Trajectory index ends before byte " + (position + length));
+            }
+            this.length = length;
+            this.chunkBytes = chunkBytes;
+            chunks = new MappedByteBuffer[(int) ((length + chunkBytes - 1) / chunkBytes)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * chunkBytes;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, Math.min(chunkBytes, length - start));
+            }
+        }
+
+        byte get(long index) {
+            return chunks[(int) (index / chunkBytes)].get((int) (index % chunkBytes));
+        }
+
+        int getInt(long index) {
+            return chunks[(int) (index / chunkBytes)].getInt((int) (index % chunkBytes));
+        }
+
+        long getLong(long index) {
+            return chunks[(int) (index / chunkBytes)].getLong((int) (index % chunkBytes));
+        }
+
+        double getDouble(long index) {
+            return chunks[(int) (index / chunkBytes)].getDouble((int) (index % chunkBytes));
+        }
+    }
+
+    public boolean isValidFor(String eventsFile) {
+        File file = new File(eventsFile);
+        return file.length() == eventsFileSize && file.lastModified() == eventsLastModified;
+    }
+
+    public int getNumberOfVehicles() {
+        return numberOfVehicles;
+    }
+
+    // Number of link events of the vehicle, 0 if it does not occur in the events
+    public int getNumberOfEvents(String vehicleId) {
+        int vehicle = findVehicle(vehicleId);
+        return vehicle < 0 ? 0 : (int) (firstPosting(vehicle + 1) - firstPosting(vehicle));
+    }
+
+    // Offsets of the vehicle's link events in the uncompressed events file, in file order
+    public long[] getEventOffsets(String vehicleId) {
+        int vehicle = findVehicle(vehicleId);
+        if (vehicle < 0) {
+            return new long[0];
+        }
+        long first = firstPosting(vehicle);
+        long[] result = new long[(int) (firstPosting(vehicle + 1) - first)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = offsets.getLong((first + i) * Long.BYTES);
+        }
+        return result;
+    }
+
+    // Link-by-link trajectory of the vehicle; link lengths are taken from the network if given
+    public List<LinkTraversal> getTrajectory(String vehicleId, Network network) {
+        List<LinkTraversal> trajectory = new ArrayList<>();
+        int vehicle = findVehicle(vehicleId);
+        if (vehicle < 0) {
+            return trajectory;
+        }
+        int currentLink = -1;
+        double enterTime = Double.NaN;
+        long end = firstPosting(vehicle + 1);
+        for (long posting = firstPosting(vehicle); posting < end; posting++) {
+            byte type = types.get(posting);
+            int link = links.getInt(posting * Integer.BYTES);
+            double time = times.getDouble(posting * Double.BYTES);
+            if (EventTypeCodes.isEnter(type)) {
+                if (currentLink >= 0) {
+                    // no leave event for the previous link
+                    trajectory.add(traversal(currentLink, enterTime, Double.NaN, network));
+                }
+                currentLink = link;
+                enterTime = time;
+            } else if (EventTypeCodes.isLeave(type)) {
+                trajectory.add(traversal(link, link == currentLink ? enterTime : Double.NaN, time, network));
+                currentLink = -1;
+                enterTime = Double.NaN;
+            }
+        }
+        if (currentLink >= 0) {
+            trajectory.add(traversal(currentLink, enterTime, Double.NaN, network));
+        }
+        return trajectory;
+    }
+
+    private LinkTraversal traversal(int link, double enterTime, double leaveTime, Network network) {
+        Id<Link> linkId = Id.createLinkId(readKey(linkKeyStarts, linkKeys, link));
+        double length = Double.NaN;
+        if (network != null) {
+            Link networkLink = network.getLinks().get(linkId);
+            if (networkLink != null) {
+                length = networkLink.getLength();
+            }
+        }
+        return new LinkTraversal(linkId, enterTime, leaveTime, length);
+    }
+
+    private long firstPosting(int vehicle) {
+        return firstPostings.getLong((long) vehicle * Long.BYTES);
+    }
+
+    // Binary search over the sorted vehicle keys; -1 if the vehicle is not indexed
+    private int findVehicle(String vehicleId) {
+        int low = 0;
+        int high = numberOfVehicles - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = readKey(vehicleKeyStarts, vehicleKeys, middle).compareTo(vehicleId);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static String readKey(MappedSection keyStarts, MappedSection keys, int index) {
+        long start = keyStarts.getLong((long) index * Long.BYTES);
+        long end = keyStarts.getLong((index + 1L) * Long.BYTES);
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = keys.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: VehicleTrajectoryIndex <events.xml[.gz]>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        build(args[0], args[0] + SUFFIX);
+        VehicleTrajectoryIndex index = open(args[0] + SUFFIX);
+        System.out.println("Indexed " + index.getNumberOfVehicles() + " vehicles of " + args[0] + " in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s");
+    }
+}
@@ -5,13 +5,9 @@ import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.LinkLeaveEvent;
 import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
 import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.EventsReaderXMLv1;
-import org.matsim.core.network.io.MatsimNetworkReader;
-import org.matsim.core.network.NetworkUtils;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
@@ -20,44 +16,44 @@ import java.util.*;
 
 public class car_tt {
 
-    private final Network network;
-    private final Set<Id<Link>> studyAreaLinks = new HashSet<>();
-    private final Map<Id<Person>, Double> linkEnterTimes = new HashMap<>();
+    private final StudyArea studyArea;
+    private final LinkOccupancyTracker linkEnterTimes = new LinkOccupancyTracker();
     private final Map<Id<Person>, Double> totalTravelTimes = new HashMap<>();
     private final Map<Id<Person>, Double> totalDistances = new HashMap<>();
-    private final Set<Id<Person>> carAgents = new HashSet<>();
+    // vehicle -> person and car agent flag, so the handlers do not create person ids per event
+    private final VehiclePersonLookup vehiclePersons;
 
     // Constructor
+    public car_tt(Network studyAreaNetwork, VehiclePersonLookup vehiclePersons) {
+        this.studyArea = StudyArea.of(studyAreaNetwork);
+        this.vehiclePersons = vehiclePersons;
+    }
+
+    // Car agents that drive the vehicle with their own id
     public car_tt(Network studyAreaNetwork, Set<Id<Person>> carAgents) {
-        this.network = studyAreaNetwork;
-        this.carAgents.addAll(carAgents);
-        for (Link link : studyAreaNetwork.getLinks().values()) {
-            studyAreaLinks.add(link.getId());
-        }
+        this(studyAreaNetwork, VehiclePersonLookup.forPersons(carAgents, VehiclePersonLookup.CAR_AGENT));
     }
 
     // Event handler for link entry and exit
     private class StudyAreaEventHandler implements LinkEnterEventHandler, LinkLeaveEventHandler {
         @Override
         public void handleEvent(LinkEnterEvent event) {
-            Id<Person> personId = Id.createPersonId(event.getVehicleId());
-            if (studyAreaLinks.contains(event.getLinkId()) && carAgents.contains(personId)) {
-                linkEnterTimes.put(personId, event.getTime());
+            if (studyArea.contains(event.getLinkId()) && vehiclePersons.isCarAgent(event.getVehicleId())) {
+                linkEnterTimes.enter(event.getVehicleId(), event.getLinkId(), event.getTime());
             }
         }
 
         @Override
         public void handleEvent(LinkLeaveEvent event) {
-            Id<Person> personId = Id.createPersonId(event.getVehicleId());
-            if (studyAreaLinks.contains(event.getLinkId()) && linkEnterTimes.containsKey(personId)) {
-                double enterTime = linkEnterTimes.remove(personId);
+            if (studyArea.contains(event.getLinkId())) {
+                double enterTime = linkEnterTimes.leave(event.getVehicleId(), event.getLinkId());
                 double travelTime = event.getTime() - enterTime;
 
-                if (travelTime > 0) { // Ensure valid travel time
+                if (travelTime > 0) { // Ensure valid travel time, NaN if the vehicle was not tracked
+                    Id<Person> personId = vehiclePersons.getPersonId(event.getVehicleId());
                     totalTravelTimes.put(personId, totalTravelTimes.getOrDefault(personId, 0.0) + travelTime);
 
-                    Link link = network.getLinks().get(event.getLinkId());
-                    double distance = link.getLength();
+                    double distance = studyArea.getLength(event.getLinkId());
                     totalDistances.put(personId, totalDistances.getOrDefault(personId, 0.0) + distance);
                 }
             }
@@ -77,8 +73,11 @@ public class car_tt {
         StudyAreaEventHandler eventHandler = new StudyAreaEventHandler();
         eventsManager.addHandler(eventHandler);
 
-        EventsReaderXMLv1 reader = new EventsReaderXMLv1(eventsManager);
-        reader.readFile(eventsFile);
+        // Events outside the study area are dropped while parsing
+        new FilteredEventsReader(eventsManager)
+                .setLinks(studyArea.getLinkIds())
+                .setEventTypes(EventTypeCodes.LINK_ENTER, EventTypeCodes.LINK_LEAVE)
+                .readFile(eventsFile);
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
             writer.write("AgentId,AverageTravelSpeed_mps\n");
@@ -95,19 +94,16 @@ public class car_tt {
         String studyAreaNetworkFile = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\filtered-network.xml";
         String eventsFile = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\test.output_events.xml";
         String outputCSV = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\agent_average_travel_speeds.csv";
+        String populationFile = "C:\\Users\\Bibek Karki\\Downloads\\matsim-munich-master\\output\\test.output_plans.xml.gz";
 
-        // Define car agents (In practice, you might load this from a file or extract from events)
-        Set<Id<Person>> carAgents = new HashSet<>();
-        carAgents.add(Id.createPersonId("car1"));
-        carAgents.add(Id.createPersonId("car2"));
-        // Add other car agents as needed
+        // Car agents are the persons with a car leg in their selected plan
+        VehiclePersonLookup vehiclePersons = VehiclePersonLookup.fromFiles(populationFile, null);
 
         // Load the network file for the study area
-        Network studyAreaNetwork = NetworkUtils.createNetwork();
-        new MatsimNetworkReader(studyAreaNetwork).readFile(studyAreaNetworkFile);
+        Network studyAreaNetwork = NetworkLoader.load(studyAreaNetworkFile);
 
         // Calculate travel times and write output
-        car_tt calculator = new car_tt(studyAreaNetwork, carAgents);
+        car_tt calculator = new car_tt(studyAreaNetwork, vehiclePersons);
         try {
             calculator.processEvents(eventsFile, outputCSV);
             System.out.println("Results written to: " + outputCSV);
@@ -4,7 +4,7 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.events.LinkLeaveEvent;
 import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.handler.EventHandler;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
@@ -12,12 +12,13 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
-public class link_filter {
+public class link_filter implements EventsAnalyzer {
 
     // Set of link IDs to filter (currently "111111" and "22222")
     private final Set<Id> targetLinkIds = new HashSet<>();
     // Set of vehicles that have a link leave event on one of the target links
     private final Set<Id> vehiclesLeavingTargetLinks = new HashSet<>();
+    private final LinkLeaveHandler handler = new LinkLeaveHandler();
 
     // Constructor: add the target link IDs
     public link_filter() {
@@ -43,22 +44,33 @@ public class link_filter {
     // Process events and write the results to a file
     public void processEvents(String eventsFile, String outputFilePath) throws IOException {
         EventsManagerImpl eventsManager = new EventsManagerImpl();
-        LinkLeaveHandler handler = new LinkLeaveHandler();
         eventsManager.addHandler(handler);
 
         // Read the events file
-        EventsReaderXMLv1 reader = new EventsReaderXMLv1(eventsManager);
-        reader.readFile(eventsFile);
+        new FilteredEventsReader(eventsManager)
+                .setLinks(targetLinkIds)
+                .setEventTypes(EventTypeCodes.LINK_LEAVE)
+                .readFile(eventsFile);
 
-        // Write the vehicle IDs to the output file
+        writeResults(outputFilePath);
+
+        System.out.println("Results written to: " + outputFilePath);
+    }
+
+    @Override
+    public EventHandler getEventHandler() {
+        return handler;
+    }
+
+    // Write the vehicle IDs to the output file
+    @Override
+    public void writeResults(String outputFilePath) throws IOException {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
             writer.write("VehicleId\n");
             for (Id vehicleId : vehiclesLeavingTargetLinks) {
                 writer.write(vehicleId + "\n");
             }
         }
-
-        System.out.println("Results written to: " + outputFilePath);
     }
 
     public static void main(String[] args) {
@@ -1,21 +1,18 @@
 package EventHandlers;
 
 import org.locationtech.jts.geom.*;
-import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.api.core.v01.network.NetworkFactory;
-import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.network.io.MatsimNetworkReader;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
 
 public class networkcutter {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String inputNetworkPath = "C:\\Users\\Bibek Karki\\Downloads\\munich-v1.0-network (2).xml\\studyNetworkDense.xml";
         String outputNetworkPath = "C:\\Users\\Bibek Karki\\Downloads\\filtered-network.xml";
+        // Drop the car dead ends and islands of the cut network, see NetworkConnectivityCleaner; set to
+        // false to keep the cut network as it is
+        boolean cleanNetwork = true;
 
         // Initialize the geometry factory for creating polygons
         GeometryFactory geometryFactory = new GeometryFactory();
@@ -34,51 +31,18 @@ public class networkcutter {
         Polygon polygon = geometryFactory.createPolygon(coordinates);
 
         // Load the input network
-        Network network = NetworkUtils.createNetwork();
-        new MatsimNetworkReader(network).readFile(inputNetworkPath);
-
-        // Create the filtered network
-        Network filteredNetwork = NetworkUtils.createNetwork();
-        NetworkFactory factory = filteredNetwork.getFactory();
-        Set<Id<Link>> linksToKeep = new HashSet<>();
-
-        // Iterate through the links in the original network
-        for (Link link : network.getLinks().values()) {
-            double fromX = link.getFromNode().getCoord().getX();
-            double fromY = link.getFromNode().getCoord().getY();
-            double toX = link.getToNode().getCoord().getX();
-            double toY = link.getToNode().getCoord().getY();
-
-            Point fromPoint = geometryFactory.createPoint(new Coordinate(fromX, fromY));
-            Point toPoint = geometryFactory.createPoint(new Coordinate(toX, toY));
-
-            // Discard links if one node is outside the polygon
-            if (polygon.contains(fromPoint) && polygon.contains(toPoint)) {
-                linksToKeep.add(link.getId());
-
-                // Add the nodes (if not already added) to the filtered network
-                if (!filteredNetwork.getNodes().containsKey(link.getFromNode().getId())) {
-                    Node fromNode = link.getFromNode();
-                    filteredNetwork.addNode(factory.createNode(fromNode.getId(), fromNode.getCoord()));
-                }
-                if (!filteredNetwork.getNodes().containsKey(link.getToNode().getId())) {
-                    Node toNode = link.getToNode();
-                    filteredNetwork.addNode(factory.createNode(toNode.getId(), toNode.getCoord()));
-                }
-
-                // Add the link with all its attributes
-                Link newLink = factory.createLink(link.getId(), link.getFromNode(), link.getToNode());
-                newLink.setLength(link.getLength());
-                newLink.setFreespeed(link.getFreespeed());
-                newLink.setCapacity(link.getCapacity());
-                newLink.setNumberOfLanes(link.getNumberOfLanes());
-                newLink.setAllowedModes(link.getAllowedModes());
-
-                // Preserve all custom attributes
-                link.getAttributes().getAsMap().forEach(newLink.getAttributes()::putAttribute);
-
-                filteredNetwork.addLink(newLink);
-            }
+        Network network = NetworkLoader.load(inputNetworkPath);
+
+        // Keep the links with both nodes inside the polygon, see NetworkClipper
+        Network filteredNetwork = new NetworkClipper(polygon).clip(network);
+
+        // Drop dead ends and islands, so that cars can route between all of their links
+        if (cleanNetwork) {
+            NetworkConnectivityCleaner.Report report = new NetworkConnectivityCleaner().clean(filteredNetwork);
+            System.out.println(report.getSummary());
+            String reportFile = NetworkConnectivityCleaner.reportFileFor(outputNetworkPath);
+            report.write(reportFile);
+            System.out.println("Dropped links written to: " + reportFile);
         }
 
         // Write the filtered network to a file using NetworkUtils
@@ -86,7 +50,7 @@ public class networkcutter {
 
         // Print summary
         System.out.println("Original network links: " + network.getLinks().size());
-        System.out.println("Filtered network links: " + linksToKeep.size());
+        System.out.println("Filtered network links: " + filteredNetwork.getLinks().size());
         System.out.println("Filtered network written to: " + outputNetworkPath);
     }
 }
@@ -0,0 +1,84 @@
+package org.matsim.run;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings for how {@link RunMatsim4Munich} prepares the network after loading it, and for the link KPIs it computes during
+ * the simulation.
+ */
+public final class MunichNetworkConfigGroup extends ReflectiveConfigGroup{
+	public static final String GROUP_NAME = "munichNetwork" ;
+
+	private static final String SIMPLIFY_NETWORK = "simplifyNetwork" ;
+	private static final String NETWORK_OVERLAYS = "networkOverlays" ;
+	private static final String LINK_KPI_INTERVAL = "linkKpiInterval" ;
+
+	private boolean simplifyNetwork = false ;
+	private String networkOverlays = null ;
+	private int linkKpiInterval = 0 ;
+
+	public MunichNetworkConfigGroup(){
+		super( GROUP_NAME ) ;
+	}
+
+	@Override public Map<String, String> getComments(){
+		Map<String, String> comments = super.getComments() ;
+		comments.put( SIMPLIFY_NETWORK, "if true, chains of links through degree-2 nodes with equal attributes are merged before the simulation "
+								    + "(see EventHandlers.LinkChainSimplifier). The mapping to the original links is written to output_link_mapping.csv. "
+								    + "Cannot be combined with counts or a time variant network." ) ;
+		comments.put( NETWORK_OVERLAYS, "comma-separated overlay files with link patches that are applied to the network after loading it, "
+									     + "relative to the config file (see EventHandlers.NetworkOverlay). Scenario variants can so share one network file." ) ;
+		comments.put( LINK_KPI_INTERVAL, "in every n-th iteration, link flows, travel times and delays are aggregated during the mobsim and written to "
+									      + "ITERS/it.n/n.link_kpis.csv (see EventHandlers.OnlineLinkKpiCollector). 0 disables them." ) ;
+		return comments ;
+	}
+
+	@StringGetter( SIMPLIFY_NETWORK )
+	public boolean isSimplifyNetwork(){
+		return simplifyNetwork ;
+	}
+
+	@StringSetter( SIMPLIFY_NETWORK )
+	public void setSimplifyNetwork( boolean simplifyNetwork ){
+		this.simplifyNetwork = simplifyNetwork ;
+	}
+
+	@StringGetter( NETWORK_OVERLAYS )
+	public String getNetworkOverlays(){
+		return networkOverlays ;
+	}
+
+	@StringSetter( NETWORK_OVERLAYS )
+	public void setNetworkOverlays( String networkOverlays ){
+		this.networkOverlays = networkOverlays ;
+	}
+
+	@StringGetter( LINK_KPI_INTERVAL )
+	public int getLinkKpiInterval(){
+		return linkKpiInterval ;
+	}
+
+	@StringSetter( LINK_KPI_INTERVAL )
+	public void setLinkKpiInterval( int linkKpiInterval ){
+		this.linkKpiInterval = linkKpiInterval ;
+	}
+
+	/**
+	 * @return the overlay files in the order they are applied, empty if there are none
+	 */
+	public List<String> getNetworkOverlayList(){
+		List<String> overlays = new ArrayList<>() ;
+		if ( networkOverlays != null ) {
+			for( String overlay : networkOverlays.split( "," ) ){
+				if ( !overlay.trim().isEmpty() ) {
+					overlays.add( overlay.trim() ) ;
+				}
+			}
+		}
+		return overlays ;
+	}
+}
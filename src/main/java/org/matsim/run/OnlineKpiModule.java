@@ -0,0 +1,33 @@
+package org.matsim.run;
+
+import EventHandlers.OnlineLinkKpiCollector;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Computes the link delay, flow and travel time KPIs during the QSim and writes them at the end of every iteration (see
+ * {@link OnlineLinkKpiCollector}).  With this module the events file is no longer needed for these KPIs, so runs that need
+ * nothing else from it can set <code>config.controler().setWriteEventsInterval( 0 )</code>.  The KPIs are computed and written
+ * every {@link MunichNetworkConfigGroup#getLinkKpiInterval()} iterations.
+ */
+public final class OnlineKpiModule extends AbstractModule{
+	@Override public void install(){
+		// one instance, which is both the events handler and the listener that writes the results
+		final int writeInterval = ConfigUtils.addOrGetModule( getConfig(), MunichNetworkConfigGroup.class ).getLinkKpiInterval() ;
+		bind( OnlineLinkKpiCollector.class ).toProvider( new Provider<OnlineLinkKpiCollector>() {
+			@Inject Network network ;
+			@Inject OutputDirectoryHierarchy controlerIO ;
+			@Override public OnlineLinkKpiCollector get() {
+				return new OnlineLinkKpiCollector( network, controlerIO ).setWriteInterval( writeInterval ) ;
+			}
+		} ).in( Singleton.class );
+		addEventHandlerBinding().to( OnlineLinkKpiCollector.class );
+		addControlerListenerBinding().to( OnlineLinkKpiCollector.class );
+	}
+}
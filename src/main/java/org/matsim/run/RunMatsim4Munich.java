@@ -18,6 +18,9 @@
  * *********************************************************************** */
 package org.matsim.run;
 
+import EventHandlers.LinkChainSimplifier;
+import EventHandlers.NetworkOverlay;
+import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
@@ -25,11 +28,13 @@ import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.groups.QSimConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.AllowsConfiguration;
 import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.listener.StartupListener;
 import org.matsim.core.mobsim.qsim.AbstractQSimModule;
 import org.matsim.core.replanning.PlanStrategy;
 import org.matsim.core.replanning.PlanStrategyImpl;
@@ -43,6 +48,8 @@ import org.matsim.core.scenario.ScenarioUtils;
 import javax.inject.Inject;
 import javax.inject.Provider;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
@@ -51,11 +58,13 @@ import java.util.*;
  */
 public class RunMatsim4Munich{
 	// cf CNEMunich in ikaddoura playground
+	private static final Logger log = Logger.getLogger( RunMatsim4Munich.class ) ;
 
 	private final String[] args;
 	private Config config = null ;
 	private Scenario scenario = null ;
 	private Controler controler = null ;
+	private LinkChainSimplifier.Result linkChains = null ;
 
 	public static void main ( String [] args ) {
 		new RunMatsim4Munich( args ).run() ;
@@ -67,7 +76,7 @@ public class RunMatsim4Munich{
 
 	public final Config prepareConfig() {
 		if ( args!=null && args.length > 0 ) {
-			config = ConfigUtils.loadConfig( args[0] ) ;
+			config = ConfigUtils.loadConfig( args[0], new MunichNetworkConfigGroup() ) ;
 		} else{
 			throw new RuntimeException("need to provide path to config file. aborting ...") ;
 		}
@@ -88,6 +97,31 @@ public class RunMatsim4Munich{
 			link.setAllowedModes( new HashSet<>( Arrays.asList( TransportMode.car, TransportMode.bike, TransportMode.ride ) ) ) ;
 		}
 
+		// scenario variants as patches over the shared base network; after setting the modes, so that overlays can restrict them
+		for( String overlayFile : ConfigUtils.addOrGetModule( config, MunichNetworkConfigGroup.class ).getNetworkOverlayList() ){
+			try{
+				NetworkOverlay overlay = NetworkOverlay.read( ConfigGroup.getInputFileURL( config.getContext(), overlayFile ) ) ;
+				log.info( overlay.getSummary( overlay.apply( scenario.getNetwork() ) ) ) ;
+			} catch( IOException e ){
+				throw new UncheckedIOException( e ) ;
+			}
+		}
+
+		// fewer links for the qsim and the router; needs to come after setting the modes, since only links with equal modes are merged
+		if ( ConfigUtils.addOrGetModule( config, MunichNetworkConfigGroup.class ).isSimplifyNetwork() ) {
+			// network change events and counts refer to the original links and are not adapted
+			if ( config.network().isTimeVariantNetwork() ) {
+				throw new RuntimeException( "simplifyNetwork cannot be combined with a time variant network, since the network change events refer to the original links. aborting ..." ) ;
+			}
+			if ( config.counts().getCountsFileName() != null ) {
+				throw new RuntimeException( "simplifyNetwork cannot be combined with counts, since the count stations refer to the original links. aborting ..." ) ;
+			}
+			linkChains = new LinkChainSimplifier().simplify( scenario.getNetwork() ) ;
+			linkChains.adaptPopulation( scenario.getPopulation() ) ;
+			linkChains.checkFacilities( scenario.getActivityFacilities() ) ;
+			log.info( linkChains.getSummary() ) ;
+		}
+
 		for( Person person : scenario.getPopulation().getPersons().values() ){
 			Plan plan = person.getSelectedPlan() ;
 			List<Leg> legs = TripStructureUtils.getLegs( plan );
@@ -146,6 +180,22 @@ public class RunMatsim4Munich{
 			}
 		});
 
+		if ( linkChains != null ) {
+			// written at startup, since the output directory may be cleared before
+			final LinkChainSimplifier.Result result = linkChains ;
+			controler.addControlerListener( (StartupListener) event -> {
+				try {
+					result.writeMapping( event.getServices().getControlerIO().getOutputFilename( "output_link_mapping.csv" ) ) ;
+				} catch ( IOException e ) {
+					throw new UncheckedIOException( e ) ;
+				}
+			} );
+		}
+
+		// link KPIs are aggregated during the mobsim, so they do not depend on the events file being written
+		if ( ConfigUtils.addOrGetModule( config, MunichNetworkConfigGroup.class ).getLinkKpiInterval() > 0 ) {
+			controler.addOverridingModule( new OnlineKpiModule() );
+		}
 
 		return controler ;
 	}
@@ -0,0 +1,145 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class EventsScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // escaped ids, exponents, negative and long fractional times, an event type without a code
+    private static final String[] SPECIAL_EVENTS = {
+            "<event time=\"-1.5\" type=\"vehicle enters traffic\" person=\"p&amp;1\" link=\"l&lt;1&gt;\" vehicle=\"v&quot;1\" networkMode=\"car\" relativePosition=\"1.0\"  />",
+            "<event time=\"2.5E1\" type=\"left link\" link=\"l&lt;1&gt;\" vehicle=\"v&quot;1\"  />",
+            "<event time=\"25.0\" type=\"entered link\" link=\"l&#38;2\" vehicle=\"v&quot;1\"  />",
+            "<event time=\"1e-3\" type=\"actend\" person=\"p&apos;2\" link=\"l3\" actType=\"home\"  />",
+            "<event time=\"-0.25\" type=\"left link\" link=\"l&#x26;2\" vehicle=\"v&quot;1\"  />",
+            "<event time=\"86399.123456789\" type=\"vehicle leaves traffic\" person=\"p&amp;1\" link=\"l&#x26;2\" vehicle=\"v&quot;1\" networkMode=\"car\" relativePosition=\"1.0\"  />"
+    };
+
+    @Test
+    public void testPlainFile() throws IOException {
+        compareWithEventsReader(writeEvents("output_events.xml", 3000));
+    }
+
+    @Test
+    public void testGzippedFile() throws IOException {
+        compareWithEventsReader(writeEvents("output_events.xml.gz", 3000));
+    }
+
+    @Test
+    public void testSpecialValues() throws IOException {
+        String eventsFile = writeEvents("output_events.xml", 0);
+        try (EventsScanner scanner = EventsScanner.open(eventsFile)) {
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals(-1.5, scanner.getTime(), 0.0);
+            Assert.assertEquals(EventTypeCodes.VEHICLE_ENTERS_TRAFFIC, scanner.getType());
+            Assert.assertEquals("p&1", scanner.getPersonIds().toString(scanner.getPerson()));
+            Assert.assertEquals("l<1>", scanner.getLinkIds().toString(scanner.getLink()));
+            Assert.assertEquals("v\"1", scanner.getVehicleIds().toString(scanner.getVehicle()));
+            Assert.assertEquals("car", scanner.getModeIds().toString(scanner.getMode()));
+
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals(25.0, scanner.getTime(), 0.0);
+            Assert.assertEquals(EventTypeCodes.LINK_LEAVE, scanner.getType());
+
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals("l&2", scanner.getLinkIds().toString(scanner.getLink()));
+
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals(0.001, scanner.getTime(), 0.0);
+            Assert.assertEquals(EventTypeCodes.OTHER, scanner.getType());
+            Assert.assertTrue(scanner.isType("actend".getBytes(StandardCharsets.US_ASCII)));
+            Assert.assertEquals(-1, scanner.getVehicle());
+
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals(-0.25, scanner.getTime(), 0.0);
+
+            Assert.assertTrue(scanner.next());
+            Assert.assertEquals(86399.123456789, scanner.getTime(), 0.0);
+
+            Assert.assertFalse(scanner.next());
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] values = {"0", "0.0", "28800.0", "-3.75", "+12", "1e3", "2.5E-4", "0.1", "86399.99999",
+                "123456789012345678", "1.00000000000000000001", "Infinity", "NaN"};
+        for (String value : values) {
+            byte[] bytes = (" " + value + " ").getBytes(StandardCharsets.US_ASCII);
+            Assert.assertEquals(value, Double.parseDouble(value), EventsScanner.parseDouble(bytes, 1, value.length()), 0.0);
+        }
+    }
+
+    // The scanner has to see the same events with the same attributes as MATSim's reader
+    private void compareWithEventsReader(String eventsFile) throws IOException {
+        List<Map<String, String>> expected = new ArrayList<>();
+        EventsManager eventsManager = EventsUtils.createEventsManager();
+        eventsManager.addHandler((BasicEventHandler) event -> expected.add(attributesOf(event)));
+        eventsManager.initProcessing();
+        new EventsReaderXMLv1(eventsManager).readFile(eventsFile);
+        eventsManager.finishProcessing();
+
+        int n = 0;
+        try (EventsScanner scanner = EventsScanner.open(eventsFile)) {
+            while (scanner.next()) {
+                Map<String, String> event = expected.get(n++);
+                String message = "event " + n;
+                Assert.assertEquals(message, Double.parseDouble(event.get("time")), scanner.getTime(), 0.0);
+                Assert.assertTrue(message, scanner.isType(event.get("type").getBytes(StandardCharsets.UTF_8)));
+                Assert.assertEquals(message, event.get("link"), idOf(scanner.getLinkIds(), scanner.getLink()));
+                Assert.assertEquals(message, event.get("vehicle"), idOf(scanner.getVehicleIds(), scanner.getVehicle()));
+                Assert.assertEquals(message, event.get("person"), idOf(scanner.getPersonIds(), scanner.getPerson()));
+                Assert.assertEquals(message, event.get("networkMode"), idOf(scanner.getModeIds(), scanner.getMode()));
+            }
+        }
+        Assert.assertEquals(expected.size(), n);
+    }
+
+    private static Map<String, String> attributesOf(Event event) {
+        return event.getAttributes();
+    }
+
+    private static String idOf(IdInterner ids, int index) {
+        return index < 0 ? null : ids.toString(index);
+    }
+
+    // The special events followed by enough generated ones to refill the scanner's buffer
+    // several times and to grow the interners
+    private String writeEvents(String fileName, int generatedEvents) throws IOException {
+        File file = new File(folder.getRoot(), fileName);
+        OutputStream out = new FileOutputStream(file);
+        if (fileName.endsWith(".gz")) {
+            out = new GZIPOutputStream(out);
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            for (String event : SPECIAL_EVENTS) {
+                writer.write("\t" + event + "\n");
+            }
+            for (int i = 0; i < generatedEvents; i++) {
+                String type = i % 2 == 0 ? "entered link" : "left link";
+                writer.write("\t<event time=\"" + (30000 + i * 0.5) + "\" type=\"" + type + "\" link=\"link_" + (i / 2)
+                        + "\" vehicle=\"veh_" + (i % 1500) + "\"  />\n");
+            }
+            writer.write("</events>\n");
+        }
+        return file.getPath();
+    }
+}
@@ -0,0 +1,169 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.EventsReaderXMLv1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+public class EventsStoreTest {
+
+    // link id written with entities and a character reference
+    private static final String ESCAPED_LINK = "a&amp;b &lt;c&gt; &quot;d&quot; &apos;e&apos; M&#252;nchen";
+    private static final String LINK = "a&b <c> \"d\" 'e' M\u00fcnchen";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        String eventsFile = writeEvents();
+        List<String> expected = read(eventsManager -> new EventsReaderXMLv1(eventsManager).readFile(eventsFile));
+        Assert.assertEquals(10, expected.size());
+        Assert.assertTrue(expected.contains("entered link,3600.25," + LINK + ",veh_1,null,null"));
+        Assert.assertTrue(expected.contains("vehicle enters traffic,3700.0,l1,veh_2,null,car"));
+        Assert.assertTrue(expected.contains("vehicle leaves traffic,3800.5,l2,veh_2,person_2,null"));
+
+        File store = new File(folder.getRoot(), "store");
+        Assert.assertEquals(expected.size(), EventsStoreWriter.convert(eventsFile, store.getPath()));
+        Assert.assertTrue(EventsStore.isStore(store.getPath()));
+        Assert.assertFalse(EventsStore.isStore(eventsFile));
+        Assert.assertEquals(expected.size(), EventsStore.open(store.getPath()).size());
+
+        Assert.assertEquals(expected, read(eventsManager -> EventsStore.open(store.getPath()).replay(eventsManager)));
+        Assert.assertEquals(expected, read(eventsManager -> new FilteredEventsReader(eventsManager).readFile(store.getPath())));
+        Assert.assertEquals(expected, read(eventsManager -> new FilteredEventsReader(eventsManager).readFile(eventsFile)));
+    }
+
+    @Test
+    public void testFilters() throws IOException {
+        String eventsFile = writeEvents();
+        String store = new File(folder.getRoot(), "store").getPath();
+        EventsStoreWriter.convert(eventsFile, store);
+
+        List<String> expected = new ArrayList<>();
+        for (String event : read(eventsManager -> new EventsReaderXMLv1(eventsManager).readFile(eventsFile))) {
+            String[] fields = event.split(",");
+            double time = Double.parseDouble(fields[1]);
+            boolean linkEvent = fields[0].equals("entered link") || fields[0].equals("left link");
+            if (linkEvent && time >= 3700 && time <= 3800.5 && (fields[2].equals("l1") || fields[2].equals(LINK))) {
+                expected.add(event);
+            }
+        }
+        Assert.assertEquals(3, expected.size());
+        for (String eventsFileOrStore : new String[]{eventsFile, store}) {
+            Assert.assertEquals(eventsFileOrStore, expected, read(eventsManager -> new FilteredEventsReader(eventsManager)
+                    .setLinks(Arrays.asList(Id.createLinkId("l1"), Id.createLinkId(LINK), Id.createLinkId("unknown")))
+                    .setEventTypes(EventTypeCodes.LINK_ENTER, EventTypeCodes.LINK_LEAVE)
+                    .setTimeWindow(3700, 3800.5)
+                    .readFile(eventsFileOrStore)));
+        }
+    }
+
+    @Test
+    public void testTooManyModes() throws IOException {
+        try (EventsStoreWriter writer = new EventsStoreWriter(folder.newFolder("store").getPath())) {
+            for (int mode = 0; mode <= Byte.MAX_VALUE; mode++) {
+                writer.append(EventTypeCodes.VEHICLE_ENTERS_TRAFFIC, mode, "l1", "veh_" + mode, null, "mode_" + mode);
+            }
+            // the last mode gets index Byte.MAX_VALUE, the one after it no longer fits
+            writer.append(EventTypeCodes.VEHICLE_LEAVES_TRAFFIC, 200, "l1", "veh_0", null, "mode_0");
+            try {
+                writer.append(EventTypeCodes.VEHICLE_ENTERS_TRAFFIC, 300, "l1", "veh_0", null, "one_too_many");
+                Assert.fail("Expected an exception for mode number " + (Byte.MAX_VALUE + 2));
+            } catch (IllegalArgumentException expected) {
+            }
+            Assert.assertEquals(Byte.MAX_VALUE + 2, writer.getNumberOfEvents());
+        }
+        EventsStore store = EventsStore.open(new File(folder.getRoot(), "store").getPath());
+        Assert.assertEquals("mode_" + Byte.MAX_VALUE, store.getModeName(store.getMode(Byte.MAX_VALUE)));
+        Assert.assertEquals("mode_0", store.getModeName(store.getMode(Byte.MAX_VALUE + 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLineBreakInId() throws IOException {
+        try (EventsStoreWriter writer = new EventsStoreWriter(folder.newFolder("store").getPath())) {
+            writer.append(EventTypeCodes.LINK_ENTER, 0, "l1\nl2", "veh_1", null, null);
+        }
+    }
+
+    private interface Reader {
+        void read(EventsManagerImpl eventsManager) throws IOException;
+    }
+
+    // The link and traffic events a reader passes to its handlers, one line per event
+    private static List<String> read(Reader reader) throws IOException {
+        EventRecorder recorder = new EventRecorder();
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        eventsManager.addHandler(recorder);
+        reader.read(eventsManager);
+        return recorder.events;
+    }
+
+    private static final class EventRecorder implements LinkEnterEventHandler, LinkLeaveEventHandler,
+            VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void handleEvent(LinkEnterEvent event) {
+            events.add(event.getEventType() + "," + event.getTime() + "," + event.getLinkId() + "," + event.getVehicleId() + ",null,null");
+        }
+
+        @Override
+        public void handleEvent(LinkLeaveEvent event) {
+            events.add(event.getEventType() + "," + event.getTime() + "," + event.getLinkId() + "," + event.getVehicleId() + ",null,null");
+        }
+
+        @Override
+        public void handleEvent(VehicleEntersTrafficEvent event) {
+            events.add(event.getEventType() + "," + event.getTime() + "," + event.getLinkId() + "," + event.getVehicleId() + ","
+                    + event.getPersonId() + "," + event.getNetworkMode());
+        }
+
+        @Override
+        public void handleEvent(VehicleLeavesTrafficEvent event) {
+            events.add(event.getEventType() + "," + event.getTime() + "," + event.getLinkId() + "," + event.getVehicleId() + ","
+                    + event.getPersonId() + "," + event.getNetworkMode());
+        }
+    }
+
+    // Two trips with events the store does not keep in between, a driver without a person, a
+    // vehicle leaving traffic without a mode and a link id that has to be escaped in XML.
+    // All times are exact as floats.
+    private String writeEvents() throws IOException {
+        File file = new File(folder.getRoot(), "output_events.xml");
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n"
+                + "\t<event time=\"3590.0\" type=\"actend\" person=\"person_1\" link=\"l0\" actType=\"home\"  />\n"
+                + "\t<event time=\"3600.0\" type=\"vehicle enters traffic\" person=\"person_1\" link=\"l0\" vehicle=\"veh_1\" networkMode=\"car\" relativePosition=\"1.0\"  />\n"
+                + "\t<event time=\"3600.0\" type=\"left link\" link=\"l0\" vehicle=\"veh_1\"  />\n"
+                + "\t<event time=\"3600.25\" type=\"entered link\" link=\"" + ESCAPED_LINK + "\" vehicle=\"veh_1\"  />\n"
+                + "\t<event time=\"3700.0\" type=\"vehicle enters traffic\" link=\"l1\" vehicle=\"veh_2\" networkMode=\"car\" relativePosition=\"1.0\"  />\n"
+                + "\t<event time=\"3700.0\" type=\"PersonEntersVehicle\" person=\"person_2\" vehicle=\"veh_2\"  />\n"
+                + "\t<event time=\"3712.5\" type=\"left link\" link=\"" + ESCAPED_LINK + "\" vehicle=\"veh_1\"  />\n"
+                + "\t<event time=\"3712.5\" type=\"entered link\" link=\"l1\" vehicle=\"veh_1\"  />\n"
+                + "\t<event time=\"3760.0\" type=\"left link\" link=\"l1\" vehicle=\"veh_2\"  />\n"
+                + "\t<event time=\"3760.0\" type=\"entered link\" link=\"l2\" vehicle=\"veh_2\"  />\n"
+                + "\t<event time=\"3800.5\" type=\"vehicle leaves traffic\" person=\"person_2\" link=\"l2\" vehicle=\"veh_2\" relativePosition=\"1.0\"  />\n"
+                + "\t<event time=\"3900.0\" type=\"vehicle leaves traffic\" person=\"person_1\" link=\"l1\" vehicle=\"veh_1\" networkMode=\"car\" relativePosition=\"1.0\"  />\n"
+                + "\t<event time=\"3900.0\" type=\"actstart\" person=\"person_1\" link=\"l1\" actType=\"work\"  />\n"
+                + "</events>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+}
@@ -0,0 +1,127 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.List;
+
+public class GeoJsonPolygonsTest {
+
+    private static final String SQUARE = "[[[0, 0], [10, 0], [10, 10], [0, 10], [0, 0]]]";
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    public void testFeatureCollection() {
+        String json = "{\"type\": \"FeatureCollection\", \"name\": \"study area\", \"crs\": {\"type\": \"name\", \"properties\": {\"name\": \"EPSG:31468\"}},\n"
+                + " \"features\": [\n"
+                + "  {\"type\": \"Feature\", \"properties\": {\"id\": 1, \"inner\": true, \"note\": null}, \"geometry\": {\"type\": \"Polygon\", \"coordinates\": " + SQUARE + "}},\n"
+                + "  {\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"Point\", \"coordinates\": [5, 5]}},\n"
+                + "  {\"type\": \"Feature\", \"properties\": {}, \"geometry\": null},\n"
+                + "  {\"type\": \"Feature\", \"geometry\": {\"type\": \"GeometryCollection\", \"geometries\": [\n"
+                + "    {\"type\": \"LineString\", \"coordinates\": [[0, 0], [1, 1]]},\n"
+                + "    {\"type\": \"Polygon\", \"coordinates\": [[[4.4e6, 5.3e6], [4.5e6, 5.3e6], [4.5E6, 5.4E+6], [4.4e6, 5.3e6]]]}]}}\n"
+                + " ]}";
+        List<Polygon> polygons = GeoJsonPolygons.read(json, geometryFactory);
+        Assert.assertEquals(2, polygons.size());
+        assertRing(polygons.get(0).getExteriorRing(), 0, 0, 10, 0, 10, 10, 0, 10, 0, 0);
+        Assert.assertEquals(0, polygons.get(0).getNumInteriorRing());
+        assertRing(polygons.get(1).getExteriorRing(), 4.4e6, 5.3e6, 4.5e6, 5.3e6, 4.5e6, 5.4e6, 4.4e6, 5.3e6);
+    }
+
+    @Test
+    public void testMultiPolygonWithHoles() {
+        String json = "{\"type\": \"MultiPolygon\", \"coordinates\": [\n"
+                + "  [[[0, 0], [10, 0], [10, 10], [0, 10], [0, 0]],\n"
+                + "   [[2, 2], [4, 2], [4, 4], [2, 2]],\n"
+                + "   [[6, 6], [8, 6], [8, 8], [6, 6]]],\n"
+                + "  [[[-20.5, -20.5], [-10, -20.5], [-10, -10.25, 530.0], [-20.5, -20.5]]]\n"
+                + "]}";
+        List<Polygon> polygons = GeoJsonPolygons.read(json, geometryFactory);
+        Assert.assertEquals(2, polygons.size());
+        Polygon withHoles = polygons.get(0);
+        assertRing(withHoles.getExteriorRing(), 0, 0, 10, 0, 10, 10, 0, 10, 0, 0);
+        Assert.assertEquals(2, withHoles.getNumInteriorRing());
+        assertRing(withHoles.getInteriorRingN(0), 2, 2, 4, 2, 4, 4, 2, 2);
+        assertRing(withHoles.getInteriorRingN(1), 6, 6, 8, 6, 8, 8, 6, 6);
+        // the altitude of a position is ignored
+        assertRing(polygons.get(1).getExteriorRing(), -20.5, -20.5, -10, -20.5, -10, -10.25, -20.5, -20.5);
+        Assert.assertEquals(0, polygons.get(1).getNumInteriorRing());
+    }
+
+    @Test
+    public void testEscapes() {
+        // escaped quotes, backslashes and unicode in names and values, and a type spelled with escapes
+        String json = "{\"type\": \"Feature\", \"properties\": {\"na\\\"me\": \"M\\u00fcnchen \\\\ \\/ \\b\\f\\n\\r\\t \\\"Mitte\\\"\", \"\\u2603\": \"}]\"},"
+                + " \"geometry\": {\"type\": \"\\u0050olygon\", \"coordinates\": " + SQUARE + "}}";
+        List<Polygon> polygons = GeoJsonPolygons.read(json, geometryFactory);
+        Assert.assertEquals(1, polygons.size());
+        assertRing(polygons.get(0).getExteriorRing(), 0, 0, 10, 0, 10, 10, 0, 10, 0, 0);
+    }
+
+    @Test
+    public void testNoPolygons() {
+        Assert.assertTrue(GeoJsonPolygons.read(" {\"type\": \"FeatureCollection\", \"features\": []} ", geometryFactory).isEmpty());
+        Assert.assertTrue(GeoJsonPolygons.read("{\"type\": \"Point\", \"coordinates\": [1, 2]}", geometryFactory).isEmpty());
+        Assert.assertTrue(GeoJsonPolygons.read("[]", geometryFactory).isEmpty());
+    }
+
+    @Test
+    public void testMalformedInput() {
+        String[] documents = {
+                "",
+                "   ",
+                "{",
+                "{\"type\": \"Polygon\", \"coordinates\": " + SQUARE,
+                "{\"type\": \"Polygon\" \"coordinates\": " + SQUARE + "}",
+                "{\"type\": \"Polygon\", \"coordinates\": " + SQUARE + ",}",
+                "{type: \"Polygon\"}",
+                "{\"type\": \"Polygon}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [10, 0], [10, 10], [0, 0],]]}",
+                "{\"type\": \"Polygon\", \"coordinates\": " + SQUARE + "} {}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [1-0, 0], [10, 10], [0, 0]]]}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [10, 0], [10, 10], [0, 0]]], \"bbox\": tru}",
+                "{\"type\": \"Polygon\", \"name\": \"\\u00g0\", \"coordinates\": " + SQUARE + "}",
+                "{\"type\": \"Polygon\", \"name\": \"\\u00\"}",
+                // valid JSON, but not valid polygons
+                "{\"type\": \"Polygon\"}",
+                "{\"type\": \"Polygon\", \"coordinates\": []}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [10, 0], [10, 10], [0, 10]]]}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [10, 0], [0, 0]]]}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[\"0\", 0], [10, 0], [10, 10], [0, 0]]]}",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0], [10, 0], [10, 10], [0]]]}",
+                "{\"type\": \"MultiPolygon\", \"coordinates\": " + SQUARE + "}",
+                "{\"type\": \"FeatureCollection\", \"features\": {}}",
+        };
+        for (String json : documents) {
+            try {
+                GeoJsonPolygons.read(json, geometryFactory);
+                Assert.fail("Expected an exception for " + json);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testErrorPosition() {
+        try {
+            GeoJsonPolygons.read("{\"type\": \"Polygon\", ]", geometryFactory);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Expected a member name at character 20 of the GeoJSON document", e.getMessage());
+        }
+    }
+
+    private static void assertRing(LinearRing ring, double... xy) {
+        Coordinate[] coordinates = ring.getCoordinates();
+        Assert.assertEquals(xy.length / 2, coordinates.length);
+        for (int i = 0; i < coordinates.length; i++) {
+            Assert.assertEquals(xy[2 * i], coordinates[i].x, 0.0);
+            Assert.assertEquals(xy[2 * i + 1], coordinates[i].y, 0.0);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IdInternerTest {
+
+    @Test
+    public void testIndicesSurviveRehash() {
+        IdInterner ids = new IdInterner(2);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            values.add(Integer.toString(i * 7919, 36));
+        }
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(i, ids.intern(values.get(i)));
+        }
+        Assert.assertEquals(values.size(), ids.size());
+        for (int i = 0; i < values.size(); i++) {
+            byte[] bytes = ("x" + values.get(i) + "x").getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(i, ids.intern(bytes, 1, bytes.length - 2));
+            Assert.assertEquals(i, ids.find(values.get(i)));
+            Assert.assertEquals(values.get(i), ids.toString(i));
+        }
+        Assert.assertEquals(-1, ids.find("not an id"));
+        Assert.assertEquals(values.size(), ids.size());
+    }
+
+    @Test
+    public void testEscapedIds() {
+        IdInterner ids = new IdInterner();
+        byte[] raw = "a&amp;b&lt;c&gt;&quot;&apos;".getBytes(StandardCharsets.UTF_8);
+        int index = ids.intern(raw, 0, raw.length);
+        Assert.assertEquals("a&b<c>\"'", ids.toString(index));
+        // a plain id is found under its escaped form
+        Assert.assertEquals(index, ids.find("a&b<c>\"'"));
+        Assert.assertEquals(index, ids.intern("a&b<c>\"'"));
+
+        Assert.assertEquals("&", IdInterner.unescape("&#38;"));
+        Assert.assertEquals("x&y", IdInterner.unescape("x&#x26;y"));
+        Assert.assertEquals("\u00e4", IdInterner.unescape("&#228;"));
+        Assert.assertEquals("&amp", IdInterner.unescape("&amp"));
+        Assert.assertEquals("&unknown;", IdInterner.unescape("&unknown;"));
+        Assert.assertEquals("&lt;", IdInterner.unescape("&amp;lt;"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testUnknownIndex() {
+        new IdInterner().toString(0);
+    }
+}
@@ -0,0 +1,274 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.facilities.ActivityFacilities;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.FacilitiesUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+public class LinkChainSimplifierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOneWayChain() {
+        // a -> b -> c -> d
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c", "d");
+        addLink(network, "ab", 100);
+        addLink(network, "bc", 50);
+        addLink(network, "cd", 25);
+
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+        Assert.assertEquals(1, result.getNumberOfChains());
+        assertLinks(network, "ab");
+        assertNodes(network, "a", "d");
+        Link merged = link(network, "ab");
+        Assert.assertEquals("a", merged.getFromNode().getId().toString());
+        Assert.assertEquals("d", merged.getToNode().getId().toString());
+        Assert.assertEquals(175, merged.getLength(), 0.0);
+        Assert.assertEquals(Arrays.asList(id("ab"), id("bc"), id("cd")), result.getOriginalLinkIds(id("ab")));
+        Assert.assertEquals(id("ab"), result.getSimplifiedLinkId(id("cd")));
+        Assert.assertEquals(0, result.getOffset(id("ab")), 0.0);
+        Assert.assertEquals(150, result.getOffset(id("cd")), 0.0);
+    }
+
+    @Test
+    public void testTwoWayRoad() throws IOException {
+        // a <-> b <-> c <-> d, and b <-> e, so that b is a junction and only c is passed through
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c", "d", "e");
+        for (String id : new String[]{"ab", "ba", "bc", "cb", "cd", "dc", "be", "eb"}) {
+            addLink(network, id, 100);
+        }
+
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+        Assert.assertEquals(2, result.getNumberOfChains());
+        assertLinks(network, "ab", "ba", "bc", "dc", "be", "eb");
+        assertNodes(network, "a", "b", "d", "e");
+        Assert.assertEquals("d", link(network, "bc").getToNode().getId().toString());
+        Assert.assertEquals("b", link(network, "dc").getToNode().getId().toString());
+        Assert.assertEquals(200, link(network, "bc").getLength(), 0.0);
+        Assert.assertEquals(Arrays.asList(id("dc"), id("cb")), result.getOriginalLinkIds(id("dc")));
+        Assert.assertEquals(Collections.singletonList(id("ab")), result.getOriginalLinkIds(id("ab")));
+        Assert.assertFalse(result.isMerged(id("ab")));
+        Assert.assertTrue(result.isMerged(id("bc")));
+        Assert.assertFalse(result.isRemoved(id("bc")));
+        Assert.assertTrue(result.isRemoved(id("cd")));
+
+        String mappingFile = new File(folder.getRoot(), "mapping.csv").getPath();
+        result.writeMapping(mappingFile);
+        List<String> lines = Files.readAllLines(new File(mappingFile).toPath());
+        Assert.assertEquals("OriginalLinkId,SimplifiedLinkId,Offset_m,Length_m", lines.get(0));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("bc,bc,0.0,100.0", "cd,bc,100.0,100.0", "dc,dc,0.0,100.0", "cb,dc,100.0,100.0")),
+                new HashSet<>(lines.subList(1, lines.size())));
+    }
+
+    @Test
+    public void testTwoWayRoadEnd() {
+        // a <-> b <-> c: at c the road ends, a vehicle would have to turn around
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c");
+        for (String id : new String[]{"ab", "ba", "bc", "cb"}) {
+            addLink(network, id, 100);
+        }
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+        Assert.assertEquals(2, result.getNumberOfChains());
+        assertLinks(network, "ab", "cb");
+        Assert.assertEquals("c", link(network, "ab").getToNode().getId().toString());
+        Assert.assertEquals("a", link(network, "cb").getToNode().getId().toString());
+    }
+
+    @Test
+    public void testRing() {
+        // a -> b -> c -> a: no link to start a chain at, the ring stays
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c", "x");
+        addLink(network, "ab", 100);
+        addLink(network, "bc", 100);
+        addLink(network, "ca", 100);
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+        Assert.assertEquals(0, result.getNumberOfChains());
+        assertLinks(network, "ab", "bc", "ca");
+
+        // with a two-way access road at a, the ring is merged up to a but not onto itself
+        addLink(network, "xa", 100);
+        addLink(network, "ax", 100);
+        result = new LinkChainSimplifier().simplify(network);
+        Assert.assertEquals(1, result.getNumberOfChains());
+        assertLinks(network, "ab", "ca", "xa", "ax");
+        assertNodes(network, "a", "c", "x");
+        Assert.assertEquals("c", link(network, "ab").getToNode().getId().toString());
+        Assert.assertEquals(200, link(network, "ab").getLength(), 0.0);
+    }
+
+    @Test
+    public void testAttributeMismatch() {
+        // a -> b -> c -> d -> e -> f with ab and bc differing only in the ignored origid
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c", "d", "e", "f");
+        Link ab = addLink(network, "ab", 100);
+        Link bc = addLink(network, "bc", 100);
+        Link cd = addLink(network, "cd", 100);
+        Link de = addLink(network, "de", 100);
+        Link ef = addLink(network, "ef", 100);
+        ab.getAttributes().putAttribute("origid", "1");
+        bc.getAttributes().putAttribute("origid", "2");
+        cd.getAttributes().putAttribute("type", "secondary");
+        de.getAttributes().putAttribute("type", "secondary");
+        de.setFreespeed(8.33);
+        ef.getAttributes().putAttribute("type", "secondary");
+        ef.setAllowedModes(new HashSet<>(Arrays.asList("car", "bike")));
+
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+        Assert.assertEquals(1, result.getNumberOfChains());
+        assertLinks(network, "ab", "cd", "de", "ef");
+        Assert.assertEquals("1", link(network, "ab").getAttributes().getAttribute("origid"));
+
+        // without ignored attributes the origid keeps them apart as well
+        network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c");
+        addLink(network, "ab", 100).getAttributes().putAttribute("origid", "1");
+        addLink(network, "bc", 100).getAttributes().putAttribute("origid", "2");
+        Assert.assertEquals(0, new LinkChainSimplifier(Collections.emptySet()).simplify(network).getNumberOfChains());
+        Assert.assertEquals(1, new LinkChainSimplifier().simplify(network).getNumberOfChains());
+
+        // nor are links of different capacity or lanes merged
+        network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c", "d");
+        addLink(network, "ab", 100);
+        addLink(network, "bc", 100).setCapacity(900);
+        addLink(network, "cd", 100).setNumberOfLanes(2);
+        Assert.assertEquals(0, new LinkChainSimplifier().simplify(network).getNumberOfChains());
+    }
+
+    @Test
+    public void testAdaptPopulation() {
+        // x -> a -> b -> c -> y, with ab and bc merged
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "x", "a", "b", "c", "y");
+        addLink(network, "xa", 100).setCapacity(2000);
+        addLink(network, "ab", 100);
+        addLink(network, "bc", 100);
+        addLink(network, "cy", 100).setCapacity(2000);
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+        assertLinks(network, "xa", "ab", "cy");
+
+        Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        PopulationFactory factory = population.getFactory();
+        Person person = factory.createPerson(Id.createPersonId("chain_person"));
+        Plan plan = factory.createPlan();
+        Activity home = factory.createActivityFromLinkId("home", id("bc"));
+        Leg car = factory.createLeg("car");
+        car.setRoute(RouteUtils.createLinkNetworkRouteImpl(id("bc"), Collections.singletonList(id("cy")), id("cy")));
+        Activity work = factory.createActivityFromLinkId("work", id("cy"));
+        Leg walk = factory.createLeg("walk");
+        walk.setRoute(RouteUtils.createGenericRouteImpl(id("cy"), id("xa")));
+        Activity shop = factory.createActivityFromLinkId("shop", id("xa"));
+        Leg carThrough = factory.createLeg("car");
+        carThrough.setRoute(RouteUtils.createLinkNetworkRouteImpl(id("xa"), Arrays.asList(id("ab"), id("bc")), id("cy")));
+        Activity home2 = factory.createActivityFromLinkId("home", id("ab"));
+        plan.addActivity(home);
+        plan.addLeg(car);
+        plan.addActivity(work);
+        plan.addLeg(walk);
+        plan.addActivity(shop);
+        plan.addLeg(carThrough);
+        plan.addActivity(home2);
+        person.addPlan(plan);
+        population.addPerson(person);
+
+        result.adaptPopulation(population);
+        Assert.assertEquals(id("ab"), home.getLinkId());
+        Assert.assertEquals(id("cy"), work.getLinkId());
+        Assert.assertEquals(id("xa"), shop.getLinkId());
+        Assert.assertEquals(id("ab"), home2.getLinkId());
+        // routes over merged links are routed again, others are kept
+        Assert.assertNull(car.getRoute());
+        Assert.assertNull(carThrough.getRoute());
+        Assert.assertNotNull(walk.getRoute());
+    }
+
+    @Test
+    public void testFacilities() {
+        Network network = NetworkUtils.createNetwork();
+        addNodes(network, "a", "b", "c");
+        addLink(network, "ab", 100);
+        addLink(network, "bc", 100);
+        LinkChainSimplifier.Result result = new LinkChainSimplifier().simplify(network);
+
+        ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
+        facilities.addActivityFacility(facilities.getFactory().createActivityFacility(
+                Id.create("on_first", ActivityFacility.class), new Coord(0, 0), id("ab")));
+        facilities.addActivityFacility(facilities.getFactory().createActivityFacility(
+                Id.create("without_link", ActivityFacility.class), new Coord(0, 0), null));
+        result.checkFacilities(facilities);
+
+        facilities.addActivityFacility(facilities.getFactory().createActivityFacility(
+                Id.create("on_removed", ActivityFacility.class), new Coord(150, 0), id("bc")));
+        try {
+            result.checkFacilities(facilities);
+            Assert.fail("Expected an exception for a facility on a removed link");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("on_removed"));
+        }
+    }
+
+    private static void addNodes(Network network, String... ids) {
+        for (int i = 0; i < ids.length; i++) {
+            network.addNode(network.getFactory().createNode(Id.createNodeId(ids[i]), new Coord(100 * i, 0)));
+        }
+    }
+
+    // Link named after its from and to node
+    private static Link addLink(Network network, String id, double length) {
+        Node from = network.getNodes().get(Id.createNodeId(id.substring(0, 1)));
+        Node to = network.getNodes().get(Id.createNodeId(id.substring(1)));
+        Link link = network.getFactory().createLink(id(id), from, to);
+        link.setLength(length);
+        link.setFreespeed(13.89);
+        link.setCapacity(1800);
+        link.setNumberOfLanes(1);
+        link.setAllowedModes(Collections.singleton("car"));
+        network.addLink(link);
+        return link;
+    }
+
+    private static Id<Link> id(String id) {
+        return Id.createLinkId(id);
+    }
+
+    private static Link link(Network network, String id) {
+        return network.getLinks().get(id(id));
+    }
+
+    private static void assertLinks(Network network, String... ids) {
+        Set<String> actual = new HashSet<>();
+        network.getLinks().keySet().forEach(linkId -> actual.add(linkId.toString()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(ids)), actual);
+    }
+
+    private static void assertNodes(Network network, String... ids) {
+        Set<String> actual = new HashSet<>();
+        network.getNodes().keySet().forEach(nodeId -> actual.add(nodeId.toString()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(ids)), actual);
+    }
+}
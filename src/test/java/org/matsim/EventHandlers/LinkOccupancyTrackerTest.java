@@ -0,0 +1,119 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class LinkOccupancyTrackerTest {
+
+    @Test
+    public void testRandomSequencesAgainstHashMap() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            LinkOccupancyTracker tracker = new LinkOccupancyTracker();
+            Map<Long, Double> reference = new HashMap<>();
+            List<long[]> occupied = new ArrayList<>();
+            // few links and vehicles in some runs, so that the same (vehicle, link) pairs come back
+            int vehicles = seed % 2 == 0 ? 50 : 1_000_000;
+            int links = seed % 2 == 0 ? 40 : 100_000;
+            // the occupancy rises far beyond the initial capacity and falls again
+            int target = 200 + random.nextInt(3000);
+            for (int step = 0; step < 30000; step++) {
+                if (step % 10000 == 9999) {
+                    target = 200 + random.nextInt(3000);
+                }
+                if (step == 20000 && seed % 4 == 1) {
+                    tracker.clear();
+                    reference.clear();
+                    occupied.clear();
+                }
+                boolean enter = occupied.isEmpty() || random.nextInt(reference.size() + target) < target;
+                if (enter) {
+                    int vehicle = random.nextInt(vehicles);
+                    int link = random.nextInt(links);
+                    double time = step;
+                    Double previous = reference.put(LinkOccupancyTracker.key(vehicle, link), time);
+                    if (previous == null) {
+                        occupied.add(new long[]{vehicle, link});
+                    }
+                    assertTime(previous, tracker.enter(vehicle, link, time));
+                } else {
+                    long[] entry = occupied.remove(random.nextInt(occupied.size()));
+                    Double expected = reference.remove(LinkOccupancyTracker.key((int) entry[0], (int) entry[1]));
+                    assertTime(expected, tracker.leave((int) entry[0], (int) entry[1]));
+                }
+                if (random.nextInt(10) == 0) {
+                    // leaving a link the vehicle is not on changes nothing
+                    int vehicle = random.nextInt(vehicles);
+                    int link = random.nextInt(links);
+                    Double expected = reference.remove(LinkOccupancyTracker.key(vehicle, link));
+                    if (expected != null) {
+                        occupied.removeIf(e -> e[0] == vehicle && e[1] == link);
+                    }
+                    assertTime(expected, tracker.leave(vehicle, link));
+                }
+                Assert.assertEquals(reference.size(), tracker.size());
+            }
+            for (long[] entry : occupied) {
+                assertTime(reference.get(LinkOccupancyTracker.key((int) entry[0], (int) entry[1])),
+                        tracker.leave((int) entry[0], (int) entry[1]));
+            }
+            Assert.assertEquals(0, tracker.size());
+        }
+    }
+
+    // Keys with the same home slot and with neighbouring home slots, including runs that wrap
+    // around the end of the table, removed in random orders
+    @Test
+    public void testCollidingKeys() {
+        LinkOccupancyTracker probe = new LinkOccupancyTracker();
+        int capacity = probe.capacity();
+        List<int[]> colliding = new ArrayList<>();
+        int[] homes = {capacity - 2, capacity - 1, 0, 1, 17};
+        int[] needed = {4, 3, 3, 2, 3};
+        for (int link = 0; colliding.size() < 15; link++) {
+            int home = probe.home(LinkOccupancyTracker.key(7, link));
+            for (int i = 0; i < homes.length; i++) {
+                if (home == homes[i] && needed[i] > 0) {
+                    needed[i]--;
+                    colliding.add(new int[]{7, link});
+                }
+            }
+        }
+
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            LinkOccupancyTracker tracker = new LinkOccupancyTracker();
+            Map<Long, Double> reference = new HashMap<>();
+            List<int[]> order = new ArrayList<>(colliding);
+            Collections.shuffle(order, random);
+            for (int[] entry : order) {
+                double time = random.nextInt(86400);
+                reference.put(LinkOccupancyTracker.key(entry[0], entry[1]), time);
+                Assert.assertTrue(Double.isNaN(tracker.enter(entry[0], entry[1], time)));
+            }
+            Collections.shuffle(order, random);
+            for (int i = 0; i < order.size(); i++) {
+                int[] entry = order.get(i);
+                assertTime(reference.remove(LinkOccupancyTracker.key(entry[0], entry[1])), tracker.leave(entry[0], entry[1]));
+                Assert.assertTrue(Double.isNaN(tracker.leave(entry[0], entry[1])));
+                // everything not removed yet is still found
+                for (int j = i + 1; j < order.size(); j++) {
+                    int[] remaining = order.get(j);
+                    double time = reference.get(LinkOccupancyTracker.key(remaining[0], remaining[1]));
+                    Assert.assertEquals(time, tracker.enter(remaining[0], remaining[1], time), 0.0);
+                }
+                Assert.assertEquals(order.size() - i - 1, tracker.size());
+            }
+        }
+    }
+
+    private static void assertTime(Double expected, double actual) {
+        if (expected == null) {
+            Assert.assertTrue("expected no enter time, got " + actual, Double.isNaN(actual));
+        } else {
+            Assert.assertEquals(expected, actual, 0.0);
+        }
+    }
+}
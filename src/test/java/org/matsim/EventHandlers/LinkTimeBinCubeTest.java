@@ -0,0 +1,211 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+public class LinkTimeBinCubeTest {
+
+    private static final Id<Link> L1 = Id.createLinkId("cube_l1");
+    private static final Id<Link> L2 = Id.createLinkId("cube_l2");
+    private static final Id<Link> OUTSIDE = Id.createLinkId("cube_outside");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBins() {
+        // 8 bins of 15 minutes
+        LinkTimeBinCube cube = new LinkTimeBinCube(createNetwork(), 900, 7200);
+        Assert.assertEquals(8, cube.getNumberOfBins());
+        Assert.assertEquals(Arrays.asList(L1, L2), new ArrayList<>(cube.getLinks()));
+        handleEvents(cube);
+
+        int[] flows = new int[8];
+        int[] traversals = new int[8];
+        for (int bin = 0; bin < 8; bin++) {
+            flows[bin] = cube.getFlow(L1, bin);
+            traversals[bin] = cube.getTraversals(L1, bin);
+        }
+        // flow in the bin a vehicle leaves the link, traversals in the bin it entered it
+        Assert.assertArrayEquals(new int[]{0, 1, 1, 0, 2, 1, 1, 0}, flows);
+        Assert.assertArrayEquals(new int[]{1, 0, 0, 1, 0, 1, 0, 0}, traversals);
+        Assert.assertEquals(20, cube.getTotalTravelTime(L1, 0), 1e-9);
+        Assert.assertEquals(10, cube.getTotalDelay(L1, 0), 1e-9);
+        Assert.assertEquals(1000, cube.getTotalTravelTime(L1, 3), 1e-9);
+        Assert.assertEquals(990, cube.getTotalDelay(L1, 3), 1e-9);
+        Assert.assertEquals(0, cube.getTotalTravelTime(L1, 4), 1e-9);
+
+        // vehicle seconds split at the bin edges
+        double[] occupancies = {10, 810, 100, 900, 160, 20, 70, 0};
+        for (int bin = 0; bin < 8; bin++) {
+            Assert.assertEquals("bin " + bin, occupancies[bin] / 900, cube.getMeanOccupancy(L1, bin), 1e-9);
+        }
+
+        // a traversal that ends after the end time counts in its enter bin, its flow is dropped
+        // and its occupancy is cut at the end time
+        Assert.assertEquals(1, cube.getFlow(L2, 0, 7200));
+        Assert.assertEquals(1, cube.getTraversals(L2, 7));
+        Assert.assertEquals(150, cube.getTotalTravelTime(L2, 7), 1e-9);
+        Assert.assertEquals(140, cube.getTotalDelay(L2, 7), 1e-9);
+        Assert.assertEquals(50.0 / 900, cube.getMeanOccupancy(L2, 7), 1e-9);
+        Assert.assertEquals(20.0 / 900, cube.getMeanOccupancy(L2, 1), 1e-9);
+        Assert.assertEquals(15.0 / 900, cube.getMeanOccupancy(L2, 2), 1e-9);
+    }
+
+    @Test
+    public void testWindows() {
+        LinkTimeBinCube cube = new LinkTimeBinCube(createNetwork(), 900, 7200);
+        handleEvents(cube);
+
+        Assert.assertEquals(1, cube.getFlow(L1, 900, 1800));
+        Assert.assertEquals(2, cube.getFlow(L1, 0, 3600));
+        Assert.assertEquals(4, cube.getFlow(L1, 3600, 7200));
+        // a window covers the bins starting in it, times outside the day are clipped
+        Assert.assertEquals(2, cube.getFlow(L1, 899, 1801));
+        Assert.assertEquals(0, cube.getFlow(L1, 1800, 1800));
+        Assert.assertEquals(6, cube.getFlow(L1, -3600, 100000));
+
+        Assert.assertEquals(3, cube.getTraversals(L1, 0, 7200));
+        Assert.assertEquals(1040.0 / 3, cube.getMeanTravelTime(L1, 0, 7200), 1e-9);
+        Assert.assertEquals(1010.0 / 3, cube.getMeanDelay(L1, 0, 7200), 1e-9);
+        Assert.assertEquals(0, cube.getMeanDelay(L1, 900, 2700), 0.0);
+        Assert.assertEquals((10 + 810 + 100 + 900) / 3600.0, cube.getMeanOccupancy(L1, 0, 3600), 1e-9);
+        Assert.assertEquals(0, cube.getMeanOccupancy(L1, 7200, 9000), 0.0);
+
+        // hourly flows from 15 minute bins
+        Assert.assertArrayEquals(new int[]{2, 4}, cube.getFlowProfile(L1, 3600));
+        Assert.assertArrayEquals(new int[]{1, 0}, cube.getFlowProfile(L2, 3600));
+        Assert.assertArrayEquals(new int[]{1, 1, 3, 1}, cube.getFlowProfile(L1, 1800));
+        try {
+            cube.getFlowProfile(L1, 1000);
+            Assert.fail("Expected an exception for a profile bin size that is not a multiple of the bin size");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testUnknownLinkAndBin() {
+        LinkTimeBinCube cube = new LinkTimeBinCube(createNetwork(), 900, 7200);
+        handleEvents(cube);
+        try {
+            cube.getFlow(OUTSIDE, 0);
+            Assert.fail("Expected an exception for a link outside the network");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            cube.getFlow(L1, 8);
+            Assert.fail("Expected an exception for a bin after the end time");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void testResetAndWriteResults() throws IOException {
+        LinkTimeBinCube cube = new LinkTimeBinCube(createNetwork(), 900, 7200);
+        handleEvents(cube);
+        File file = folder.newFile();
+        cube.writeResults(file.getPath());
+        List<String> lines = Files.readAllLines(file.toPath());
+        // l1 in bins 0 - 6, l2 in bins 1, 2 and 7
+        Assert.assertEquals(11, lines.size());
+        Assert.assertEquals("cube_l1,0.0,0,1,20.0,10.0," + 10.0 / 900, lines.get(1));
+
+        // the same events again after a reset give the same cube, nothing left on the links
+        cube.getEventHandler().reset(1);
+        Assert.assertEquals(0, cube.getFlow(L1, 0, 7200));
+        handleEvents(cube);
+        cube.writeResults(file.getPath());
+        Assert.assertEquals(lines, Files.readAllLines(file.toPath()));
+    }
+
+    private static void handleEvents(LinkTimeBinCube cube) {
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        eventsManager.addHandler(cube.getEventHandler());
+        Id<Vehicle> v1 = Id.createVehicleId("cube_v1");
+        Id<Vehicle> v2 = Id.createVehicleId("cube_v2");
+        Id<Vehicle> v3 = Id.createVehicleId("cube_v3");
+        Id<Vehicle> v4 = Id.createVehicleId("cube_v4");
+        Id<Vehicle> v5 = Id.createVehicleId("cube_v5");
+
+        // v1 traverses l1 across the first bin edge and arrives on l2
+        eventsManager.processEvent(new LinkEnterEvent(890, v1, L1));
+        eventsManager.processEvent(new LinkLeaveEvent(910, v1, L1));
+        eventsManager.processEvent(new LinkEnterEvent(910, v1, L2));
+        eventsManager.processEvent(leavesTraffic(930, v1, L2));
+        // v2 enters traffic on l1, traverses l2 and drives on outside the network
+        eventsManager.processEvent(entersTraffic(1000, v2, L1));
+        eventsManager.processEvent(new LinkLeaveEvent(1900, v2, L1));
+        eventsManager.processEvent(new LinkEnterEvent(1900, v2, L2));
+        eventsManager.processEvent(new LinkLeaveEvent(1915, v2, L2));
+        eventsManager.processEvent(new LinkEnterEvent(1915, v2, OUTSIDE));
+        eventsManager.processEvent(new LinkLeaveEvent(1930, v2, OUTSIDE));
+        // v3 is stuck on l1 for more than a bin
+        eventsManager.processEvent(new LinkEnterEvent(2700, v3, L1));
+        eventsManager.processEvent(new LinkLeaveEvent(3700, v3, L1));
+        // v4 enters and leaves traffic on l1, enters traffic on it again and leaves it, later traverses
+        // it, then arrives on it and enters traffic on it once more: every leave takes the right enter time
+        eventsManager.processEvent(entersTraffic(4000, v4, L1));
+        eventsManager.processEvent(leavesTraffic(4050, v4, L1));
+        eventsManager.processEvent(entersTraffic(4100, v4, L1));
+        eventsManager.processEvent(new LinkLeaveEvent(4110, v4, L1));
+        eventsManager.processEvent(new LinkEnterEvent(4500, v4, L1));
+        eventsManager.processEvent(new LinkLeaveEvent(4520, v4, L1));
+        eventsManager.processEvent(new LinkEnterEvent(5400, v4, L1));
+        eventsManager.processEvent(leavesTraffic(5460, v4, L1));
+        eventsManager.processEvent(entersTraffic(5500, v4, L1));
+        eventsManager.processEvent(new LinkLeaveEvent(5510, v4, L1));
+        // v5 leaves l2 after the end time
+        eventsManager.processEvent(new LinkEnterEvent(7150, v5, L2));
+        eventsManager.processEvent(new LinkLeaveEvent(7300, v5, L2));
+    }
+
+    private static VehicleEntersTrafficEvent entersTraffic(double time, Id<Vehicle> vehicle, Id<Link> link) {
+        return new VehicleEntersTrafficEvent(time, Id.createPersonId(vehicle.toString()), link, vehicle, "car", 1.0);
+    }
+
+    private static VehicleLeavesTrafficEvent leavesTraffic(double time, Id<Vehicle> vehicle, Id<Link> link) {
+        return new VehicleLeavesTrafficEvent(time, Id.createPersonId(vehicle.toString()), link, vehicle, "car", 1.0);
+    }
+
+    // Two links with a free-flow travel time of 10 s each
+    private static Network createNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        NetworkFactory factory = network.getFactory();
+        Node a = factory.createNode(Id.createNodeId("cube_a"), new Coord(0, 0));
+        Node b = factory.createNode(Id.createNodeId("cube_b"), new Coord(100, 0));
+        network.addNode(a);
+        network.addNode(b);
+        network.addLink(createLink(factory, L1, a, b));
+        network.addLink(createLink(factory, L2, b, a));
+        return network;
+    }
+
+    private static Link createLink(NetworkFactory factory, Id<Link> id, Node from, Node to) {
+        Link link = factory.createLink(id, from, to);
+        link.setLength(100);
+        link.setFreespeed(10);
+        link.setCapacity(1000);
+        link.setAllowedModes(Collections.singleton("car"));
+        return link;
+    }
+}
@@ -0,0 +1,332 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+// The presets on two links with hand-computed results. Both links have a free-flow travel time
+// of 10 s; the peak window is 15:00 - 17:00 = 54000 - 61200 s:
+//
+//   vehicle  link  enter   leave   travel time
+//   v3       l1    30000   32000   2000  200 x free flow: abnormal, still in the vehicle totals
+//   v3       l2    32000   52000  20000  2000 x free flow: extreme, not in the vehicle totals
+//   v1       l1    53980   54010     30  enters before the peak
+//   v1       l2    54010   54040     30
+//   v4       l1    55000   55012     12  after a link outside of the study area
+//   v4       l2    55012   55022     10
+//   v2       l1    60000   60015     15
+//   v2       l2    60015   61230   1215  leaves after the peak, 121.5 x free flow: abnormal
+public class MetricEngineTest {
+
+    private static final String CONGESTION_HEADER = "LinkId,AverageDelay_sec,VehicleCount,CongestionIndex";
+    private static final String DELAY_HEADER = "VehicleId,AverageDelayRatio,TotalDelay_s,TotalTravelTime_s,TotalFreeFlowTime_s";
+    private static final String SPEED_HEADER = "VehicleId,AverageTravelSpeed_mps,TotalTravelTime_s,TotalDistance_m";
+    private static final double L1_CAPACITY = 1000;
+    private static final double L2_CAPACITY = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Network network;
+    private String eventsFile;
+
+    @Before
+    public void setUp() throws IOException {
+        network = NetworkUtils.createNetwork();
+        NetworkFactory factory = network.getFactory();
+        Node a = factory.createNode(Id.createNodeId("metric_a"), new Coord(0, 0));
+        Node b = factory.createNode(Id.createNodeId("metric_b"), new Coord(100, 0));
+        Node c = factory.createNode(Id.createNodeId("metric_c"), new Coord(300, 0));
+        network.addNode(a);
+        network.addNode(b);
+        network.addNode(c);
+        network.addLink(createLink(factory, "l1", a, b, 100, 10, L1_CAPACITY));
+        network.addLink(createLink(factory, "l2", b, c, 200, 20, L2_CAPACITY));
+        eventsFile = writeEvents();
+    }
+
+    @Test
+    public void testCongestionAnalyzer() throws IOException {
+        Map<String, String[]> rows = run(new CongestionAnalyzer(network), CONGESTION_HEADER);
+        Assert.assertEquals(2, rows.size());
+        assertRow(rows.get("l1"), (30 + 15 + 2000 + 12) / 4.0, 4, 20.0 / 24 * 4 / L1_CAPACITY);
+        assertRow(rows.get("l2"), (30 + 1215 + 20000 + 10) / 4.0, 4, 20.0 / 24 * 4 / L2_CAPACITY);
+
+        rows = run(new CongestionAnalyzer1(network), CONGESTION_HEADER);
+        assertRow(rows.get("l1"), (30 + 15 + 2000 + 12) / 4.0, 4, 20 * 4 / L1_CAPACITY);
+        assertRow(rows.get("l2"), (30 + 1215 + 20000 + 10) / 4.0, 4, 20 * 4 / L2_CAPACITY);
+    }
+
+    @Test
+    public void testCongestionAnalyzerPeak() throws IOException {
+        // vehicles entering within the window, and traversals entering and leaving within it
+        Map<String, String[]> rows = run(new CongestionAnalyzerPeak(network), CONGESTION_HEADER);
+        Assert.assertEquals(2, rows.size());
+        assertRow(rows.get("l1"), (15 + 12) / 2.0, 2, 10 * 2 / L1_CAPACITY);
+        assertRow(rows.get("l2"), (30 + 10) / 3.0, 3, 10 * 3 / L2_CAPACITY);
+        // no time index is built next to the events
+        Assert.assertFalse(new File(eventsFile + EventsTimeIndex.SUFFIX).exists());
+
+        // read from the window on through an index built on request
+        EventsTimeIndex.main(new String[]{eventsFile, "3600"});
+        Assert.assertTrue(new File(eventsFile + EventsTimeIndex.SUFFIX).isFile());
+        rows = run(new CongestionAnalyzerPeak(network), CONGESTION_HEADER);
+        Assert.assertEquals(2, rows.size());
+        assertRow(rows.get("l1"), (15 + 12) / 2.0, 2, 10 * 2 / L1_CAPACITY);
+        assertRow(rows.get("l2"), (30 + 10) / 3.0, 3, 10 * 3 / L2_CAPACITY);
+    }
+
+    @Test
+    public void testCongestionAnalyzerPeak1() throws IOException {
+        // every vehicle entering before the end of the window, with its time on the link clipped
+        // to the window: v1 on l1 from 54000, v2 on l2 until 61200, nothing of v3
+        Map<String, String[]> rows = run(new CongestionAnalyzerPeak1(network), CONGESTION_HEADER);
+        Assert.assertEquals(2, rows.size());
+        assertRow(rows.get("l1"), (10 + 15 + 12) / 4.0, 4, 20 * 4 / L1_CAPACITY);
+        assertRow(rows.get("l2"), (30 + 1185 + 10) / 4.0, 4, 20 * 4 / L2_CAPACITY);
+    }
+
+    @Test
+    public void testDelayRatio() throws IOException {
+        String outputFile = new File(folder.getRoot(), "vehicle_average_delay.csv").getPath();
+        new AverageDelayCalculator1(network).processEvents(eventsFile, outputFile);
+        Map<String, String[]> rows = readCsv(outputFile, DELAY_HEADER);
+        Assert.assertEquals(4, rows.size());
+        assertRow(rows.get("v1"), 60.0 / 20 - 1, 40, 60, 20);
+        assertRow(rows.get("v2"), 1230.0 / 20 - 1, 1210, 1230, 20);
+        assertRow(rows.get("v3"), 2000.0 / 10 - 1, 1990, 2000, 10);
+        assertRow(rows.get("v4"), 22.0 / 20 - 1, 2, 22, 20);
+
+        List<String> report = Files.readAllLines(new File(AnomalyCollector.reportFileFor(outputFile)).toPath());
+        Assert.assertEquals("# Abnormal delays detected: 2 abnormal delay, 1 extremely long travel time on 2 links", report.get(0));
+        Assert.assertFalse(new File(LinkQuantileSketches.quantilesFileFor(outputFile)).exists());
+    }
+
+    @Test
+    public void testDelayQuantiles() throws IOException {
+        String outputFile = new File(folder.getRoot(), "vehicle_average_delay.csv").getPath();
+        new org.matsim.EventHandlers.AverageDelayCalculator(network).processEvents(eventsFile, outputFile);
+        Assert.assertEquals(4, readCsv(outputFile, DELAY_HEADER).size());
+
+        // delays of all traversals except the extreme one
+        List<String[]> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(LinkQuantileSketches.quantilesFileFor(outputFile)).toPath())) {
+            lines.add(line.split(","));
+        }
+        Assert.assertEquals("LinkId,BinStart_sec,Count,Mean,P50,P85,P95,Max", String.join(",", lines.get(0)));
+        Map<String, String[]> daily = new HashMap<>();
+        for (String[] line : lines.subList(1, lines.size())) {
+            if (line[1].equals("all")) {
+                daily.put(line[0], line);
+            }
+        }
+        Assert.assertEquals(2, daily.size());
+        assertQuantiles(daily.get("l1"), 4, (20 + 5 + 1990 + 2) / 4.0, 1990);
+        assertQuantiles(daily.get("l2"), 3, (20 + 1205 + 0) / 3.0, 1205);
+    }
+
+    @Test
+    public void testAverageSpeed() throws IOException {
+        Map<String, String[]> rows = run(new AverageTravelTimeCalculator1(network), SPEED_HEADER);
+        Assert.assertEquals(4, rows.size());
+        assertRow(rows.get("v1"), 300.0 / 60, 60, 300);
+        assertRow(rows.get("v2"), 300.0 / 1230, 1230, 300);
+        assertRow(rows.get("v3"), 100.0 / 2000, 2000, 100);
+        assertRow(rows.get("v4"), 300.0 / 22, 22, 300);
+    }
+
+    @Test
+    public void testVehicleMetricsInWindow() throws IOException {
+        // both metrics share the totals of the traversals entering and leaving within the window
+        MetricEngine engine = new MetricEngine(network,
+                MetricDefinition.parse("delay_ratio,window=15:00-17:00,name=peak_delay"),
+                MetricDefinition.parse("average_speed,window=54000-61200,name=peak_speed"));
+        engine.readEvents(eventsFile);
+        String outputDirectory = new File(folder.getRoot(), "output").getPath();
+        engine.writeResults(outputDirectory);
+
+        Map<String, String[]> delays = readCsv(new File(outputDirectory, "peak_delay.csv").getPath(), DELAY_HEADER);
+        Assert.assertEquals(3, delays.size());
+        assertRow(delays.get("v1"), 30.0 / 10 - 1, 20, 30, 10);
+        assertRow(delays.get("v2"), 15.0 / 10 - 1, 5, 15, 10);
+        assertRow(delays.get("v4"), 22.0 / 20 - 1, 2, 22, 20);
+
+        Map<String, String[]> speeds = readCsv(new File(outputDirectory, "peak_speed.csv").getPath(), SPEED_HEADER);
+        Assert.assertEquals(3, speeds.size());
+        assertRow(speeds.get("v1"), 200.0 / 30, 30, 200);
+        assertRow(speeds.get("v2"), 100.0 / 15, 15, 100);
+        assertRow(speeds.get("v4"), 300.0 / 22, 22, 300);
+    }
+
+    @Test
+    public void testParsedSpecMatchesPreset() throws IOException {
+        MetricDefinition metric = MetricDefinition.parse(" congestion_index, window=15:00-17:00:00, clip=true, factor=20, name=peak ");
+        Assert.assertEquals(MetricDefinition.Kind.CONGESTION_INDEX, metric.getKind());
+        Assert.assertEquals("peak", metric.getName());
+        Assert.assertEquals(15 * 3600, metric.getWindowStart(), 0.0);
+        Assert.assertEquals(17 * 3600, metric.getWindowEnd(), 0.0);
+        Assert.assertTrue(metric.isClipped());
+        Assert.assertEquals(20, metric.getFactor(), 0.0);
+
+        MetricEngine engine = new MetricEngine(network, metric);
+        engine.readEvents(eventsFile);
+        String outputDirectory = new File(folder.getRoot(), "output").getPath();
+        engine.writeResults(outputDirectory);
+        Map<String, String[]> rows = readCsv(new File(outputDirectory, "peak.csv").getPath(), CONGESTION_HEADER);
+        assertRow(rows.get("l1"), (10 + 15 + 12) / 4.0, 4, 20 * 4 / L1_CAPACITY);
+        assertRow(rows.get("l2"), (30 + 1185 + 10) / 4.0, 4, 20 * 4 / L2_CAPACITY);
+    }
+
+    @Test
+    public void testPipelineSharesOneEngine() throws IOException {
+        EventsAnalysisPipeline pipeline = new EventsAnalysisPipeline(network);
+        EventsAnalyzer congestion = pipeline.addAnalysis(EventsAnalysisPipeline.Analysis.CONGESTION);
+        EventsAnalyzer delay = pipeline.addAnalysis(EventsAnalysisPipeline.Analysis.DELAY);
+        EventsAnalyzer travelTime = pipeline.addAnalysis(EventsAnalysisPipeline.Analysis.TRAVEL_TIME);
+        File outputDirectory = folder.newFolder("pipeline");
+        pipeline.run(eventsFile, outputDirectory.getPath());
+
+        Assert.assertSame(congestion.getEventHandler(), delay.getEventHandler());
+        Assert.assertSame(congestion.getEventHandler(), travelTime.getEventHandler());
+        // the same results as every preset on its own
+        assertSameResults(new CongestionAnalyzer(network), outputDirectory, EventsAnalysisPipeline.Analysis.CONGESTION, CONGESTION_HEADER);
+        assertSameResults(new org.matsim.EventHandlers.AverageDelayCalculator(network), outputDirectory,
+                EventsAnalysisPipeline.Analysis.DELAY, DELAY_HEADER);
+        assertSameResults(new AverageTravelTimeCalculator3(network), outputDirectory, EventsAnalysisPipeline.Analysis.TRAVEL_TIME, SPEED_HEADER);
+    }
+
+    private void assertSameResults(MetricPreset preset, File outputDirectory, EventsAnalysisPipeline.Analysis analysis,
+                                   String header) throws IOException {
+        Map<String, String[]> expected = run(preset, header);
+        Map<String, String[]> actual = readCsv(new File(outputDirectory, analysis.getOutputFileName()).getPath(), header);
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (String key : expected.keySet()) {
+            Assert.assertArrayEquals(expected.get(key), actual.get(key));
+        }
+    }
+
+    @Test
+    public void testParseTime() {
+        Assert.assertEquals(15 * 3600, MetricDefinition.parseTime("15:00"), 0.0);
+        Assert.assertEquals(7 * 3600 + 30 * 60, MetricDefinition.parseTime(" 7:30 "), 0.0);
+        Assert.assertEquals(15 * 3600 + 30, MetricDefinition.parseTime("15:00:30"), 0.0);
+        Assert.assertEquals(25 * 3600 + 59 * 60 + 59, MetricDefinition.parseTime("25:59:59"), 0.0);
+        Assert.assertEquals(3600, MetricDefinition.parseTime("3600"), 0.0);
+        Assert.assertEquals(90.5, MetricDefinition.parseTime("90.5"), 0.0);
+    }
+
+    @Test
+    public void testParseDefaults() {
+        MetricDefinition metric = MetricDefinition.parse("delay_ratio");
+        Assert.assertEquals("delay_ratio", metric.getName());
+        Assert.assertFalse(metric.hasWindow());
+        Assert.assertFalse(metric.isClipped());
+        Assert.assertFalse(metric.hasQuantiles());
+        Assert.assertTrue(MetricDefinition.parse("average_speed,quantiles=true").hasQuantiles());
+    }
+
+    @Test
+    public void testInvalidSpecs() {
+        for (String spec : new String[]{"travel_time", "delay_ratio,window", "delay_ratio,window=15:00",
+                "delay_ratio,window=17:00-15:00", "delay_ratio,color=red", "delay_ratio,clip=true",
+                "congestion_index,quantiles=true", "congestion_index,factor=ten"}) {
+            try {
+                MetricDefinition.parse(spec);
+                Assert.fail("Expected an exception for '" + spec + "'");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private Map<String, String[]> run(MetricPreset preset, String header) throws IOException {
+        String outputFile = folder.newFile().getPath();
+        preset.processEvents(eventsFile, outputFile);
+        return readCsv(outputFile, header);
+    }
+
+    // Rows by their first column, after checking the header
+    private static Map<String, String[]> readCsv(String file, String header) throws IOException {
+        List<String> lines = Files.readAllLines(new File(file).toPath());
+        Assert.assertEquals(header, lines.get(0));
+        Map<String, String[]> rows = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            Assert.assertEquals(line, header.split(",").length, fields.length);
+            Assert.assertNull("duplicate row " + line, rows.put(fields[0], fields));
+        }
+        return rows;
+    }
+
+    private static void assertRow(String[] row, double... expected) {
+        Assert.assertNotNull(row);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(String.join(",", row), expected[i], Double.parseDouble(row[i + 1]), 1e-9);
+        }
+    }
+
+    private static void assertQuantiles(String[] line, int count, double mean, double max) {
+        Assert.assertEquals(count, Integer.parseInt(line[2]));
+        Assert.assertEquals(mean, Double.parseDouble(line[3]), 1e-9);
+        Assert.assertEquals(max, Double.parseDouble(line[7]), 0.0);
+    }
+
+    private static Link createLink(NetworkFactory factory, String id, Node from, Node to, double length, double freespeed, double capacity) {
+        Link link = factory.createLink(Id.createLinkId(id), from, to);
+        link.setLength(length);
+        link.setFreespeed(freespeed);
+        link.setCapacity(capacity);
+        link.setAllowedModes(Collections.singleton("car"));
+        return link;
+    }
+
+    private String writeEvents() throws IOException {
+        File file = folder.newFile("output_events.xml");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            enterTraffic(writer, 30000, "v3", "l1");
+            traverse(writer, 32000, "v3", "l1", "l2");
+            leaveTraffic(writer, 52000, "v3", "l2");
+            enterTraffic(writer, 53980, "v1", "l1");
+            traverse(writer, 54010, "v1", "l1", "l2");
+            leaveTraffic(writer, 54040, "v1", "l2");
+            enterTraffic(writer, 54990, "v4", "outside");
+            traverse(writer, 55000, "v4", "outside", "l1");
+            traverse(writer, 55012, "v4", "l1", "l2");
+            leaveTraffic(writer, 55022, "v4", "l2");
+            enterTraffic(writer, 60000, "v2", "l1");
+            traverse(writer, 60015, "v2", "l1", "l2");
+            leaveTraffic(writer, 61230, "v2", "l2");
+            writer.write("</events>\n");
+        }
+        return file.getPath();
+    }
+
+    private static void enterTraffic(Writer writer, double time, String vehicle, String link) throws IOException {
+        writer.write("\t<event time=\"" + time + "\" type=\"vehicle enters traffic\" person=\"" + vehicle + "\" link=\"" + link
+                + "\" vehicle=\"" + vehicle + "\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+    }
+
+    private static void traverse(Writer writer, double time, String vehicle, String from, String to) throws IOException {
+        writer.write("\t<event time=\"" + time + "\" type=\"left link\" link=\"" + from + "\" vehicle=\"" + vehicle + "\"  />\n");
+        writer.write("\t<event time=\"" + time + "\" type=\"entered link\" link=\"" + to + "\" vehicle=\"" + vehicle + "\"  />\n");
+    }
+
+    private static void leaveTraffic(Writer writer, double time, String vehicle, String link) throws IOException {
+        writer.write("\t<event time=\"" + time + "\" type=\"vehicle leaves traffic\" person=\"" + vehicle + "\" link=\"" + link
+                + "\" vehicle=\"" + vehicle + "\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+    }
+}
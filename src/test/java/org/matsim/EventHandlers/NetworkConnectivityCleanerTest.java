@@ -0,0 +1,162 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.*;
+
+public class NetworkConnectivityCleanerTest {
+
+    @Test
+    public void testChain() {
+        // 0 -> 1 -> 2 -> 3: every node is its own component
+        int[] components = new int[4];
+        Assert.assertEquals(4, components(4, components, 0, 1, 1, 2, 2, 3));
+        Assert.assertEquals(4, new HashSet<>(Arrays.asList(boxed(components))).size());
+    }
+
+    @Test
+    public void testTwoComponents() {
+        // cycle 0 -> 1 -> 2 -> 0, an edge 2 -> 3 into the cycle 3 -> 4 -> 3, and node 5 pointing into both
+        int[] components = new int[6];
+        Assert.assertEquals(3, components(6, components, 0, 1, 1, 2, 2, 0, 2, 3, 3, 4, 4, 3, 5, 0, 5, 4));
+        Assert.assertEquals(components[0], components[1]);
+        Assert.assertEquals(components[0], components[2]);
+        Assert.assertEquals(components[3], components[4]);
+        Assert.assertNotEquals(components[0], components[3]);
+        Assert.assertNotEquals(components[5], components[0]);
+        Assert.assertNotEquals(components[5], components[3]);
+    }
+
+    @Test
+    public void testSelfLoop() {
+        // a self-loop connects a node only to itself
+        int[] components = new int[3];
+        Assert.assertEquals(3, components(3, components, 0, 0, 0, 1, 1, 1, 2, 2));
+        Assert.assertEquals(3, new HashSet<>(Arrays.asList(boxed(components))).size());
+        Assert.assertEquals(0, components(0, new int[0]));
+    }
+
+    @Test
+    public void testLongChainDoesNotRecurse() {
+        // far deeper than a recursive implementation gets with the default thread stack
+        int n = 1_000_000;
+        int[] edges = new int[2 * n];
+        for (int v = 0; v < n; v++) {
+            edges[2 * v] = v;
+            edges[2 * v + 1] = v + 1 < n ? v + 1 : -1;
+        }
+        int[] components = new int[n];
+        // an open chain first, then closed to one cycle
+        Assert.assertEquals(n, components(n, components, Arrays.copyOf(edges, 2 * n - 2)));
+        edges[2 * n - 1] = 0;
+        Assert.assertEquals(1, components(n, components, edges));
+        for (int component : components) {
+            Assert.assertEquals(0, component);
+        }
+    }
+
+    @Test
+    public void testCleanCarByDefault() {
+        Network network = createNetwork();
+        NetworkConnectivityCleaner.Report report = new NetworkConnectivityCleaner().clean(network);
+
+        // the car dead end to d goes, the one-way pt link is not touched
+        Assert.assertEquals(new HashSet<>(Arrays.asList("cleaner_ab", "cleaner_ba", "cleaner_bc", "cleaner_cb", "cleaner_be", "cleaner_ce")),
+                linkIds(network));
+        Assert.assertEquals(Collections.singleton(Id.createLinkId("cleaner_bd")), report.getRemovedLinks());
+        Assert.assertEquals(1, report.getRemovedNodes());
+        Assert.assertNull(network.getNodes().get(Id.createNodeId("cleaner_d")));
+        Assert.assertEquals(3, report.getNodesInLargestComponent("car"));
+        Assert.assertEquals(3, report.getNumberOfComponents("car"));
+        Assert.assertEquals(2, report.getDroppedLinks("car"));
+        // the car link to e keeps its bike mode
+        Assert.assertEquals(Collections.singleton("bike"), network.getLinks().get(Id.createLinkId("cleaner_be")).getAllowedModes());
+        Assert.assertEquals(Collections.singleton("pt"), network.getLinks().get(Id.createLinkId("cleaner_ce")).getAllowedModes());
+    }
+
+    @Test
+    public void testCleanAllModes() {
+        Network network = createNetwork();
+        NetworkConnectivityCleaner.Report report = new NetworkConnectivityCleaner().cleanAllModes(network);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("cleaner_ab", "cleaner_ba", "cleaner_bc", "cleaner_cb")), linkIds(network));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(Id.createLinkId("cleaner_bd"), Id.createLinkId("cleaner_be"),
+                Id.createLinkId("cleaner_ce"))), report.getRemovedLinks());
+        Assert.assertEquals(2, report.getRemovedNodes());
+        Assert.assertEquals(1, report.getDroppedLinks("pt"));
+        Assert.assertEquals(1, report.getDroppedLinks("bike"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("car", "bike")), report.getDroppedModes().get(Id.createLinkId("cleaner_be")));
+    }
+
+    // Car in both directions between a, b and c, a car dead end b -> d, a one-way car and bike
+    // link b -> e and a one-way pt link c -> e
+    private static Network createNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        NetworkFactory factory = network.getFactory();
+        Map<String, Node> nodes = new HashMap<>();
+        for (String id : new String[]{"a", "b", "c", "d", "e"}) {
+            Node node = factory.createNode(Id.createNodeId("cleaner_" + id), new Coord(nodes.size() * 100, 0));
+            network.addNode(node);
+            nodes.put(id, node);
+        }
+        addLink(network, nodes, "ab", "car");
+        addLink(network, nodes, "ba", "car");
+        addLink(network, nodes, "bc", "car");
+        addLink(network, nodes, "cb", "car");
+        addLink(network, nodes, "bd", "car");
+        addLink(network, nodes, "be", "car", "bike");
+        addLink(network, nodes, "ce", "pt");
+        return network;
+    }
+
+    private static void addLink(Network network, Map<String, Node> nodes, String id, String... modes) {
+        Link link = network.getFactory().createLink(Id.createLinkId("cleaner_" + id),
+                nodes.get(id.substring(0, 1)), nodes.get(id.substring(1)));
+        link.setLength(100);
+        link.setFreespeed(10);
+        link.setCapacity(1000);
+        link.setAllowedModes(new HashSet<>(Arrays.asList(modes)));
+        network.addLink(link);
+    }
+
+    private static Set<String> linkIds(Network network) {
+        Set<String> ids = new HashSet<>();
+        for (Id<Link> id : network.getLinks().keySet()) {
+            ids.add(id.toString());
+        }
+        return ids;
+    }
+
+    // Components of a graph given as (from, to) pairs, in the adjacency arrays of the cleaner
+    private static int components(int numberOfNodes, int[] components, int... edges) {
+        int[] edgeStarts = new int[numberOfNodes + 1];
+        for (int i = 0; i < edges.length; i += 2) {
+            edgeStarts[edges[i] + 1]++;
+        }
+        for (int v = 0; v < numberOfNodes; v++) {
+            edgeStarts[v + 1] += edgeStarts[v];
+        }
+        int[] edgeTargets = new int[edges.length / 2];
+        int[] fill = Arrays.copyOf(edgeStarts, numberOfNodes);
+        for (int i = 0; i < edges.length; i += 2) {
+            edgeTargets[fill[edges[i]]++] = edges[i + 1];
+        }
+        return NetworkConnectivityCleaner.stronglyConnectedComponents(numberOfNodes, edgeStarts, edgeTargets, components);
+    }
+
+    private static Integer[] boxed(int[] values) {
+        Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
+}
@@ -0,0 +1,155 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+public class NetworkOverlayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testApply() throws IOException {
+        Network network = createNetwork();
+        NetworkOverlay overlay = read("Links,Attribute,Operation,Value",
+                "# a closure and a speed limit",
+                "@type=residential,freespeed,scale,0.5",
+                "overlay_ab,capacity,set,0",
+                "*,lanes,add,1",
+                "overlay_bc,modes,set,bike| walk",
+                "",
+                "@type=primary,toll,add,0.5",
+                "overlay_ab,type,set,closed",
+                "*,note,remove,",
+                "overlay_ca,,remove,");
+        Assert.assertEquals(8, overlay.getPatches().size());
+
+        int[] changedLinks = overlay.apply(network);
+        Assert.assertArrayEquals(new int[]{2, 1, 3, 1, 1, 1, 3, 1}, changedLinks);
+
+        Link ab = network.getLinks().get(Id.createLinkId("overlay_ab"));
+        Link bc = network.getLinks().get(Id.createLinkId("overlay_bc"));
+        Assert.assertEquals(5, ab.getFreespeed(), 0.0);
+        Assert.assertEquals(0, ab.getCapacity(), 0.0);
+        Assert.assertEquals(2, ab.getNumberOfLanes(), 0.0);
+        Assert.assertEquals("closed", ab.getAttributes().getAttribute("type"));
+        Assert.assertEquals(5, bc.getFreespeed(), 0.0);
+        Assert.assertEquals(1000, bc.getCapacity(), 0.0);
+        Assert.assertEquals(2, bc.getNumberOfLanes(), 0.0);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("bike", "walk")), bc.getAllowedModes());
+        Assert.assertEquals(Collections.singleton("car"), ab.getAllowedModes());
+
+        // remove with an attribute removes only that attribute, without one the link
+        Assert.assertNull(ab.getAttributes().getAttribute("note"));
+        Assert.assertNull(bc.getAttributes().getAttribute("note"));
+        Assert.assertNull(network.getLinks().get(Id.createLinkId("overlay_ca")));
+        Assert.assertEquals(2, network.getLinks().size());
+        Assert.assertEquals(3, network.getNodes().size());
+
+        Assert.assertTrue(overlay.getSummary(changedLinks).contains("\n  *,note,remove,: 3 links"));
+    }
+
+    @Test
+    public void testAddToAttribute() throws IOException {
+        Network network = createNetwork();
+        read("@type=primary,toll,scale,2", "@type=primary,toll,add,0.5").apply(network);
+        Link ca = network.getLinks().get(Id.createLinkId("overlay_ca"));
+        Assert.assertEquals(2.5, (Double) ca.getAttributes().getAttribute("toll"), 0.0);
+
+        // the note is a string
+        try {
+            read("overlay_ab,note,scale,2").apply(network);
+            Assert.fail("Expected an exception for a non-numeric attribute");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith(":1: attribute note of link overlay_ab is not a number"));
+        }
+    }
+
+    @Test
+    public void testUnknownLink() throws IOException {
+        Network network = createNetwork();
+        try {
+            read("overlay_xy,capacity,set,0").apply(network);
+            Assert.fail("Expected an exception for an unknown link");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith(":1: no link overlay_xy in the network"));
+        }
+        // patches selecting by attribute may select nothing
+        Assert.assertArrayEquals(new int[]{0}, read("@type=motorway,capacity,set,0").apply(network));
+    }
+
+    @Test
+    public void testMalformedPatches() throws IOException {
+        String[] lines = {
+                "overlay_ab,capacity,set",
+                "overlay_ab,capacity,set,0,1",
+                "overlay_ab,capacity,multiply,2",
+                "overlay_ab,,set,0",
+                "overlay_ab,capacity,scale,half",
+                "overlay_ab,modes,add,bike",
+                "overlay_ab,modes,remove,",
+                "overlay_ab,modes,remove,bike",
+                "overlay_ab,capacity,remove,",
+                "overlay_ab,toll,remove,1",
+                "overlay_ab,,remove,overlay_ab",
+        };
+        for (String line : lines) {
+            try {
+                read(line);
+                Assert.fail("Expected an exception for " + line);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private NetworkOverlay read(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return NetworkOverlay.read(file.getPath());
+    }
+
+    // A triangle a -> b -> c -> a of residential links ab and bc and a primary link ca, all with a note
+    private static Network createNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        NetworkFactory factory = network.getFactory();
+        Map<String, Node> nodes = new HashMap<>();
+        for (String id : new String[]{"a", "b", "c"}) {
+            Node node = factory.createNode(Id.createNodeId("overlay_" + id), new Coord(nodes.size() * 100, 0));
+            network.addNode(node);
+            nodes.put(id, node);
+        }
+        addLink(network, nodes, "ab", "residential");
+        addLink(network, nodes, "bc", "residential");
+        addLink(network, nodes, "ca", "primary").getAttributes().putAttribute("toll", 1.0);
+        return network;
+    }
+
+    private static Link addLink(Network network, Map<String, Node> nodes, String id, String type) {
+        Link link = network.getFactory().createLink(Id.createLinkId("overlay_" + id),
+                nodes.get(id.substring(0, 1)), nodes.get(id.substring(1)));
+        link.setLength(100);
+        link.setFreespeed(10);
+        link.setCapacity(1000);
+        link.setNumberOfLanes(1);
+        link.setAllowedModes(Collections.singleton("car"));
+        link.getAttributes().putAttribute("type", type);
+        link.getAttributes().putAttribute("note", "surveyed");
+        network.addLink(link);
+        return link;
+    }
+}
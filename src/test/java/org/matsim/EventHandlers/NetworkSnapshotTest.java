@@ -0,0 +1,192 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class NetworkSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Network network = createNetwork();
+        Path snapshotFile = folder.getRoot().toPath().resolve("network.xml" + NetworkLoader.SNAPSHOT_SUFFIX);
+        NetworkSnapshot.write(network, writeNetworkXml(), snapshotFile);
+
+        Network copy = NetworkSnapshot.read(snapshotFile);
+        assertEqualNetworks(network, copy);
+        Assert.assertNull(copy.getName());
+
+        // a snapshot file given directly is read as it is
+        assertEqualNetworks(network, NetworkLoader.load(snapshotFile.toString()));
+    }
+
+    @Test
+    public void testNamedNetwork() throws IOException {
+        Network network = createNetwork();
+        network.setName("M\u00fcnchen study area");
+        Path snapshotFile = folder.getRoot().toPath().resolve("named" + NetworkLoader.SNAPSHOT_SUFFIX);
+        NetworkSnapshot.write(network, writeNetworkXml(), snapshotFile);
+        Network copy = NetworkSnapshot.read(snapshotFile);
+        assertEqualNetworks(network, copy);
+        Assert.assertEquals("M\u00fcnchen study area", copy.getName());
+    }
+
+    @Test
+    public void testIsCurrent() throws IOException {
+        File xmlFile = writeNetworkXml();
+        Path snapshotFile = folder.getRoot().toPath().resolve("network.xml" + NetworkLoader.SNAPSHOT_SUFFIX);
+        Assert.assertFalse(NetworkSnapshot.isCurrent(snapshotFile, xmlFile));
+        NetworkSnapshot.write(createNetwork(), xmlFile, snapshotFile);
+        Assert.assertTrue(NetworkSnapshot.isCurrent(snapshotFile, xmlFile));
+
+        // a changed network file outdates the snapshot
+        Files.write(xmlFile.toPath(), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertFalse(NetworkSnapshot.isCurrent(snapshotFile, xmlFile));
+    }
+
+    @Test
+    public void testLoadWritesSnapshotOnlyWhenAsked() throws IOException {
+        File xmlFile = writeNetworkXml();
+        File snapshotFile = new File(NetworkLoader.snapshotFileFor(xmlFile.getPath()));
+        NetworkLoader.load(xmlFile.getPath());
+        Assert.assertFalse(snapshotFile.exists());
+        Assert.assertEquals(1, folder.getRoot().listFiles().length);
+
+        Network network = NetworkLoader.load(xmlFile.getPath(), true);
+        Assert.assertTrue(NetworkSnapshot.isCurrent(snapshotFile.toPath(), xmlFile));
+        Assert.assertEquals(2, folder.getRoot().listFiles().length);
+        // later loads read the snapshot
+        assertEqualNetworks(network, NetworkLoader.load(xmlFile.getPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAttribute() throws IOException {
+        Network network = createNetwork();
+        network.getLinks().values().iterator().next().getAttributes().putAttribute("list", new ArrayList<>());
+        NetworkSnapshot.write(network, writeNetworkXml(), folder.getRoot().toPath().resolve("network.snapshot"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptSnapshot() throws IOException {
+        Path snapshotFile = folder.getRoot().toPath().resolve("network.snapshot");
+        NetworkSnapshot.write(createNetwork(), writeNetworkXml(), snapshotFile);
+        byte[] bytes = Files.readAllBytes(snapshotFile);
+        Files.write(snapshotFile, Arrays.copyOf(bytes, bytes.length / 2));
+        NetworkSnapshot.read(snapshotFile);
+    }
+
+    // Nodes with and without z coordinates, links sharing and not sharing mode sets, and attributes
+    // of every supported type on the network, nodes and links
+    private static Network createNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        network.setCapacityPeriod(7200);
+        network.setEffectiveLaneWidth(3.5);
+        network.getAttributes().putAttribute("coordinateReferenceSystem", "EPSG:31468");
+        network.getAttributes().putAttribute("version", 3);
+
+        NetworkFactory factory = network.getFactory();
+        Node a = factory.createNode(Id.createNodeId("snapshot_a"), new Coord(4468000.5, 5333000.25));
+        Node b = factory.createNode(Id.createNodeId("snapshot_b"), new Coord(4468100, 5333000, 519.5));
+        Node c = factory.createNode(Id.createNodeId("snapshot_c"), new Coord(-1, 0, 0));
+        b.getAttributes().putAttribute("signalized", true);
+        c.getAttributes().putAttribute("origid", "\u00dcberf\u00fchrung");
+        network.addNode(a);
+        network.addNode(b);
+        network.addNode(c);
+
+        Link ab = createLink(factory, "snapshot_ab", a, b, 100.5, 13.89, 1800, 2, "car", "bus");
+        ab.getAttributes().putAttribute("type", "primary");
+        ab.getAttributes().putAttribute("osm:way:lanes", 2L);
+        ab.getAttributes().putAttribute("allowed_speed", 13.89f);
+        ab.getAttributes().putAttribute("hbefa", 0.25);
+        Link ba = createLink(factory, "snapshot_ba", b, a, 100.5, 13.89, 1800, 1, "bus", "car");
+        ba.getAttributes().putAttribute("type", "primary");
+        Link bc = createLink(factory, "snapshot_bc", b, c, 0, 1, 0, 0.5, "pt");
+        Link cc = createLink(factory, "snapshot_cc", c, c, 10, 5, 600, 1);
+        network.addLink(ab);
+        network.addLink(ba);
+        network.addLink(bc);
+        network.addLink(cc);
+        return network;
+    }
+
+    private static Link createLink(NetworkFactory factory, String id, Node from, Node to, double length, double freespeed,
+                                   double capacity, double lanes, String... modes) {
+        Link link = factory.createLink(Id.createLinkId(id), from, to);
+        link.setLength(length);
+        link.setFreespeed(freespeed);
+        link.setCapacity(capacity);
+        link.setNumberOfLanes(lanes);
+        link.setAllowedModes(new HashSet<>(Arrays.asList(modes)));
+        return link;
+    }
+
+    private File writeNetworkXml() throws IOException {
+        File file = new File(folder.getRoot(), "network.xml");
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v2.dtd\">\n"
+                + "<network>\n"
+                + "\t<nodes>\n"
+                + "\t\t<node id=\"xml_a\" x=\"0.0\" y=\"0.0\" />\n"
+                + "\t\t<node id=\"xml_b\" x=\"100.0\" y=\"0.0\" />\n"
+                + "\t</nodes>\n"
+                + "\t<links capperiod=\"01:00:00\" effectivecellsize=\"7.5\" effectivelanewidth=\"3.75\">\n"
+                + "\t\t<link id=\"xml_ab\" from=\"xml_a\" to=\"xml_b\" length=\"100.0\" freespeed=\"13.89\" capacity=\"1800.0\" permlanes=\"1.0\" oneway=\"1\" modes=\"car\" />\n"
+                + "\t</links>\n"
+                + "</network>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void assertEqualNetworks(Network expected, Network actual) {
+        Assert.assertEquals(expected.getCapacityPeriod(), actual.getCapacityPeriod(), 0.0);
+        Assert.assertEquals(expected.getEffectiveLaneWidth(), actual.getEffectiveLaneWidth(), 0.0);
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getAttributes().getAsMap(), actual.getAttributes().getAsMap());
+
+        Assert.assertEquals(expected.getNodes().keySet(), actual.getNodes().keySet());
+        for (Node node : expected.getNodes().values()) {
+            Node copy = actual.getNodes().get(node.getId());
+            Assert.assertEquals(node.getCoord().getX(), copy.getCoord().getX(), 0.0);
+            Assert.assertEquals(node.getCoord().getY(), copy.getCoord().getY(), 0.0);
+            Assert.assertEquals(node.getId().toString(), node.getCoord().hasZ(), copy.getCoord().hasZ());
+            if (node.getCoord().hasZ()) {
+                Assert.assertEquals(node.getCoord().getZ(), copy.getCoord().getZ(), 0.0);
+            }
+            Assert.assertEquals(node.getAttributes().getAsMap(), copy.getAttributes().getAsMap());
+        }
+
+        Assert.assertEquals(expected.getLinks().keySet(), actual.getLinks().keySet());
+        for (Link link : expected.getLinks().values()) {
+            Link copy = actual.getLinks().get(link.getId());
+            Assert.assertEquals(link.getFromNode().getId(), copy.getFromNode().getId());
+            Assert.assertEquals(link.getToNode().getId(), copy.getToNode().getId());
+            Assert.assertSame(actual.getNodes().get(link.getFromNode().getId()), copy.getFromNode());
+            Assert.assertEquals(link.getLength(), copy.getLength(), 0.0);
+            Assert.assertEquals(link.getFreespeed(), copy.getFreespeed(), 0.0);
+            Assert.assertEquals(link.getCapacity(), copy.getCapacity(), 0.0);
+            Assert.assertEquals(link.getNumberOfLanes(), copy.getNumberOfLanes(), 0.0);
+            Assert.assertEquals(link.getAllowedModes(), copy.getAllowedModes());
+            Assert.assertEquals(link.getAttributes().getAsMap(), copy.getAttributes().getAsMap());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+public class OnlineLinkKpiCollectorTest {
+
+    private static final String KPI_HEADER = "LinkId,Flow,Traversals,AverageTravelTime_sec,AverageDelay_sec,FreeFlowTravelTime_sec";
+    private static final String SUMMARY_HEADER = "Iteration,LinksUsed,Flow,Traversals,AverageTravelTime_sec,AverageDelay_sec,TotalDelay_h";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLinkKpis() throws IOException {
+        OnlineLinkKpiCollector collector = new OnlineLinkKpiCollector(createNetwork(), null);
+        collector.reset(0);
+        handleEvents(collector);
+
+        // k1: v1 entered traffic on it, v2 traversed it in 20 s
+        // k2: v1 and v3 traversed it in 20 s and 12 s, v2 left traffic on it and later left it
+        // after entering traffic on it again
+        Map<String, String[]> rows = writeLinkKpis(collector);
+        Assert.assertEquals(2, rows.size());
+        assertRow(rows.get("kpi_k1"), 2, 1, 20, 10, 10);
+        assertRow(rows.get("kpi_k2"), 3, 2, 16, 6, 10);
+
+        String summaryFile = new File(folder.getRoot(), OnlineLinkKpiCollector.SUMMARY_FILE).getPath();
+        collector.writeSummary(0, summaryFile);
+        List<String> summary = Files.readAllLines(new File(summaryFile).toPath());
+        Assert.assertEquals(Arrays.asList(SUMMARY_HEADER, "0,2,5,3," + 52.0 / 3 + "," + 22.0 / 3 + "," + 22.0 / 3600), summary);
+    }
+
+    @Test
+    public void testWriteInterval() throws IOException {
+        String summaryFile = new File(folder.getRoot(), OnlineLinkKpiCollector.SUMMARY_FILE).getPath();
+        OnlineLinkKpiCollector collector = new OnlineLinkKpiCollector(createNetwork(), null).setWriteInterval(2);
+        for (int iteration = 0; iteration <= 3; iteration++) {
+            collector.reset(iteration);
+            handleEvents(collector);
+            Map<String, String[]> rows = writeLinkKpis(collector);
+            if (iteration % 2 == 0) {
+                Assert.assertEquals(2, rows.size());
+                // nothing left over from the iterations before
+                assertRow(rows.get("kpi_k2"), 3, 2, 16, 6, 10);
+                collector.writeSummary(iteration, summaryFile);
+            } else {
+                Assert.assertTrue("iteration " + iteration, rows.isEmpty());
+            }
+        }
+        List<String> summary = Files.readAllLines(new File(summaryFile).toPath());
+        Assert.assertEquals(3, summary.size());
+        Assert.assertTrue(summary.get(1).startsWith("0,2,5,3,"));
+        Assert.assertTrue(summary.get(2).startsWith("2,2,5,3,"));
+
+        // 0 disables the KPIs in every iteration
+        collector = new OnlineLinkKpiCollector(createNetwork(), null).setWriteInterval(0);
+        collector.reset(0);
+        handleEvents(collector);
+        Assert.assertTrue(writeLinkKpis(collector).isEmpty());
+    }
+
+    private static void handleEvents(OnlineLinkKpiCollector collector) {
+        Id<Link> k1 = Id.createLinkId("kpi_k1");
+        Id<Link> k2 = Id.createLinkId("kpi_k2");
+        Id<Vehicle> v1 = Id.createVehicleId("kpi_v1");
+        Id<Vehicle> v2 = Id.createVehicleId("kpi_v2");
+        Id<Vehicle> v3 = Id.createVehicleId("kpi_v3");
+        // v1 entered traffic on k1
+        collector.handleEvent(new LinkLeaveEvent(5, v1, k1));
+        collector.handleEvent(new LinkEnterEvent(5, v1, k2));
+        collector.handleEvent(new LinkEnterEvent(10, v2, k1));
+        collector.handleEvent(new LinkLeaveEvent(25, v1, k2));
+        collector.handleEvent(new LinkLeaveEvent(30, v2, k1));
+        collector.handleEvent(new LinkEnterEvent(30, v2, k2));
+        collector.handleEvent(new VehicleLeavesTrafficEvent(35, Id.createPersonId("kpi_p2"), k2, v2, "car", 1.0));
+        collector.handleEvent(new LinkEnterEvent(40, v3, k2));
+        collector.handleEvent(new LinkLeaveEvent(52, v3, k2));
+        // v2 entered traffic on k2 again
+        collector.handleEvent(new LinkLeaveEvent(60, v2, k2));
+    }
+
+    private Map<String, String[]> writeLinkKpis(OnlineLinkKpiCollector collector) throws IOException {
+        File file = folder.newFile();
+        collector.writeLinkKpis(file.getPath());
+        List<String> lines = Files.readAllLines(file.toPath());
+        Assert.assertEquals(KPI_HEADER, lines.get(0));
+        Map<String, String[]> rows = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            rows.put(fields[0], fields);
+        }
+        return rows;
+    }
+
+    private static void assertRow(String[] row, double... expected) {
+        Assert.assertNotNull(row);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(String.join(",", row), expected[i], Double.parseDouble(row[i + 1]), 1e-9);
+        }
+    }
+
+    // Two links with a free-flow travel time of 10 s each
+    private static Network createNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        NetworkFactory factory = network.getFactory();
+        Node a = factory.createNode(Id.createNodeId("kpi_a"), new Coord(0, 0));
+        Node b = factory.createNode(Id.createNodeId("kpi_b"), new Coord(100, 0));
+        Node c = factory.createNode(Id.createNodeId("kpi_c"), new Coord(300, 0));
+        network.addNode(a);
+        network.addNode(b);
+        network.addNode(c);
+        network.addLink(createLink(factory, "kpi_k1", a, b, 100, 10));
+        network.addLink(createLink(factory, "kpi_k2", b, c, 200, 20));
+        return network;
+    }
+
+    private static Link createLink(NetworkFactory factory, String id, Node from, Node to, double length, double freespeed) {
+        Link link = factory.createLink(Id.createLinkId(id), from, to);
+        link.setLength(length);
+        link.setFreespeed(freespeed);
+        link.setCapacity(1000);
+        link.setAllowedModes(Collections.singleton("car"));
+        return link;
+    }
+}
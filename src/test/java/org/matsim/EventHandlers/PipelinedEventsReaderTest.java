@@ -0,0 +1,184 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+public class PipelinedEventsReaderTest {
+
+    private static final Set<String> CODED_TYPES = new HashSet<>(Arrays.asList(LinkEnterEvent.EVENT_TYPE,
+            LinkLeaveEvent.EVENT_TYPE, VehicleEntersTrafficEvent.EVENT_TYPE, VehicleLeavesTrafficEvent.EVENT_TYPE));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameEventsAsXmlReader() throws IOException {
+        File eventsFile = writeEvents("output_events.xml");
+        // more than a few blocks and batches, so that both are recycled
+        Assert.assertTrue(eventsFile.length() > 3 * PipelinedEventsReader.BLOCK_SIZE);
+        List<Map<String, String>> expected = readWithXmlReader(eventsFile.getPath());
+        Assert.assertTrue(expected.size() > 5 * PipelinedEventsReader.BATCH_SIZE);
+
+        for (int queueCapacity : new int[]{1, 8}) {
+            EventRecorder recorder = new EventRecorder();
+            PipelinedEventsReader reader = new PipelinedEventsReader(eventsManager(recorder), queueCapacity);
+            reader.readFile(eventsFile.getPath());
+            Assert.assertEquals(expected.size(), recorder.events.size());
+            Assert.assertEquals(expected, recorder.events);
+
+            List<PipelinedEventsReader.StageStatistics> statistics = reader.getStatistics();
+            Assert.assertEquals(eventsFile.length(), statistics.get(0).getItems());
+            Assert.assertEquals(expected.size(), statistics.get(1).getItems());
+            Assert.assertEquals(expected.size(), statistics.get(2).getItems());
+        }
+    }
+
+    @Test
+    public void testGzippedInput() throws IOException {
+        File eventsFile = writeEvents("output_events.xml");
+        File gzipped = gzip(eventsFile, false);
+        EventRecorder recorder = new EventRecorder();
+        new PipelinedEventsReader(eventsManager(recorder)).readFile(gzipped.getPath());
+        Assert.assertEquals(readWithXmlReader(eventsFile.getPath()), recorder.events);
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        File eventsFile = folder.newFile("empty_events.xml");
+        Files.write(eventsFile.toPath(), "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n</events>\n"
+                .getBytes(StandardCharsets.UTF_8));
+        EventRecorder recorder = new EventRecorder();
+        new PipelinedEventsReader(eventsManager(recorder)).readFile(eventsFile.getPath());
+        Assert.assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test(timeout = 60000)
+    public void testHandlerFailure() throws IOException {
+        File eventsFile = writeEvents("output_events.xml");
+        final EventRecorder recorder = new EventRecorder();
+        IllegalStateException failure = new IllegalStateException("handler failed");
+        int failAt = 2 * PipelinedEventsReader.BATCH_SIZE + 10;
+        EventsManagerImpl eventsManager = eventsManager(recorder);
+        eventsManager.addHandler((BasicEventHandler) event -> {
+            if (recorder.events.size() == failAt) {
+                throw failure;
+            }
+        });
+        PipelinedEventsReader reader = new PipelinedEventsReader(eventsManager, 1);
+        try {
+            reader.readFile(eventsFile.getPath());
+            Assert.fail("Expected the handler's exception");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+        Assert.assertEquals(readWithXmlReader(eventsFile.getPath()).subList(0, failAt), recorder.events);
+
+        // nothing is left running that keeps the next read from completing
+        EventRecorder nextRecorder = new EventRecorder();
+        new PipelinedEventsReader(eventsManager(nextRecorder), 1).readFile(eventsFile.getPath());
+        Assert.assertEquals(readWithXmlReader(eventsFile.getPath()), nextRecorder.events);
+    }
+
+    @Test(timeout = 60000)
+    public void testTruncatedInput() throws IOException {
+        File eventsFile = writeEvents("output_events.xml");
+        File truncated = gzip(eventsFile, true);
+        EventRecorder recorder = new EventRecorder();
+        try {
+            new PipelinedEventsReader(eventsManager(recorder), 1).readFile(truncated.getPath());
+            Assert.fail("Expected an exception for a truncated file");
+        } catch (IOException expected) {
+        }
+
+        // a file that does not exist fails in the decompression stage
+        try {
+            new PipelinedEventsReader(eventsManager(recorder)).readFile(new File(folder.getRoot(), "missing.xml.gz").getPath());
+            Assert.fail("Expected an exception for a missing file");
+        } catch (IOException expected) {
+        }
+    }
+
+    // Records the coded events, the only ones the pipelined reader passes on
+    private static final class EventRecorder implements BasicEventHandler {
+        final List<Map<String, String>> events = new ArrayList<>();
+
+        @Override
+        public void handleEvent(Event event) {
+            if (CODED_TYPES.contains(event.getEventType())) {
+                events.add(event.getAttributes());
+            }
+        }
+    }
+
+    private static EventsManagerImpl eventsManager(EventRecorder recorder) {
+        EventsManagerImpl eventsManager = new EventsManagerImpl();
+        eventsManager.addHandler(recorder);
+        return eventsManager;
+    }
+
+    private static List<Map<String, String>> readWithXmlReader(String eventsFile) {
+        EventRecorder recorder = new EventRecorder();
+        new EventsReaderXMLv1(eventsManager(recorder)).readFile(eventsFile);
+        return recorder.events;
+    }
+
+    // Trips of many vehicles on a few hundred links, with activity events in between
+    private File writeEvents(String name) throws IOException {
+        File file = folder.newFile(name);
+        Random random = new Random(4711);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            double time = 0;
+            for (int trip = 0; trip < 2500; trip++) {
+                String person = "person_" + trip;
+                String vehicle = "veh_" + trip;
+                String link = "link_" + random.nextInt(400);
+                time += random.nextInt(3);
+                writer.write("\t<event time=\"" + time + "\" type=\"actend\" person=\"" + person + "\" link=\"" + link + "\" actType=\"home\"  />\n");
+                writer.write("\t<event time=\"" + time + "\" type=\"vehicle enters traffic\" person=\"" + person + "\" link=\"" + link
+                        + "\" vehicle=\"" + vehicle + "\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+                for (int i = 0; i < 6; i++) {
+                    time += random.nextInt(2);
+                    writer.write("\t<event time=\"" + time + "\" type=\"left link\" link=\"" + link + "\" vehicle=\"" + vehicle + "\"  />\n");
+                    link = "link_" + random.nextInt(400);
+                    writer.write("\t<event time=\"" + time + "\" type=\"entered link\" link=\"" + link + "\" vehicle=\"" + vehicle + "\"  />\n");
+                }
+                writer.write("\t<event time=\"" + time + "\" type=\"vehicle leaves traffic\" person=\"" + person + "\" link=\"" + link
+                        + "\" vehicle=\"" + vehicle + "\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+                writer.write("\t<event time=\"" + time + "\" type=\"actstart\" person=\"" + person + "\" link=\"" + link
+                        + "\" actType=\"work with a rather long activity type to make the file larger\"  />\n");
+            }
+            writer.write("</events>\n");
+        }
+        return file;
+    }
+
+    // The file gzipped, truncated to half of its compressed bytes if asked for
+    private File gzip(File file, boolean truncated) throws IOException {
+        File gzipped = new File(folder.getRoot(), file.getName() + ".gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipped))) {
+            Files.copy(file.toPath(), out);
+        }
+        if (truncated) {
+            byte[] bytes = Files.readAllBytes(gzipped.toPath());
+            Files.write(gzipped.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        }
+        return gzipped;
+    }
+}
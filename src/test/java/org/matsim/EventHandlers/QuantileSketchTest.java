@@ -0,0 +1,126 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0.0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.85, 0.9, 0.95, 0.99, 1.0};
+
+    @Test
+    public void testTravelTimes() {
+        // log-normal travel times around a minute
+        Random random = new Random(4711);
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(4 + 0.6 * random.nextGaussian());
+        }
+        checkQuantiles(values, new QuantileSketch());
+    }
+
+    @Test
+    public void testDelaysAroundZero() {
+        // delays of uncongested links: mostly below one second, many slightly negative through rounding
+        Random random = new Random(42);
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 0.3 + 0.5 * random.nextGaussian();
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        checkQuantiles(values, sketch);
+        Assert.assertTrue(sketch.getQuantile(0.5) > 0.2);
+        Assert.assertTrue(sketch.getQuantile(0.1) < -0.2);
+    }
+
+    @Test
+    public void testUniformIntegers() {
+        double[] values = new double[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 7919) % values.length + 1;
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        checkQuantiles(values, sketch);
+        Assert.assertEquals(5000, sketch.getQuantile(0.5), 5000 * QuantileSketch.RELATIVE_ACCURACY);
+        Assert.assertEquals(1, sketch.getMin(), 0.0);
+        Assert.assertEquals(10000, sketch.getMax(), 0.0);
+        Assert.assertEquals(5000.5, sketch.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testMinimumValue() {
+        QuantileSketch sketch = new QuantileSketch(1.0);
+        for (double value : new double[]{-0.9, -0.5, 0.2, 0.5, 0.7, 3.0}) {
+            sketch.add(value);
+        }
+        // everything closer to 0 than the minimum value is reported as 0
+        Assert.assertEquals(0.0, sketch.getQuantile(0.5), 0.0);
+        Assert.assertEquals(3.0, sketch.getQuantile(1.0), 3.0 * QuantileSketch.RELATIVE_ACCURACY);
+
+        QuantileSketch fine = new QuantileSketch(0.001);
+        for (double value : new double[]{0.002, 0.003, 0.004}) {
+            fine.add(value);
+        }
+        Assert.assertEquals(0.003, fine.getQuantile(0.5), 0.003 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(1);
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < 10_000; i++) {
+            double value = i % 3 == 0 ? -random.nextDouble() * 100 : random.nextDouble() * 1000;
+            all.add(value);
+            (i % 2 == 0 ? first : second).add(value);
+        }
+        first.merge(second);
+        first.merge(new QuantileSketch());
+        Assert.assertEquals(all.getCount(), first.getCount());
+        for (double quantile : QUANTILES) {
+            Assert.assertEquals(all.getQuantile(quantile), first.getQuantile(quantile), 0.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentMinimumValues() {
+        QuantileSketch sketch = new QuantileSketch(0.1);
+        sketch.add(1);
+        new QuantileSketch(0.01).merge(sketch);
+    }
+
+    @Test
+    public void testExtremesAndNaN() {
+        QuantileSketch sketch = new QuantileSketch();
+        Assert.assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        sketch.add(Double.NaN);
+        Assert.assertEquals(0, sketch.getCount());
+        sketch.add(10 * QuantileSketch.MAX_VALUE);
+        sketch.add(-10 * QuantileSketch.MAX_VALUE);
+        Assert.assertEquals(10 * QuantileSketch.MAX_VALUE, sketch.getQuantile(1.0), 0.0);
+        Assert.assertEquals(-10 * QuantileSketch.MAX_VALUE, sketch.getQuantile(0.0), 0.0);
+        sketch.clear();
+        Assert.assertEquals(0, sketch.getCount());
+        Assert.assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+    }
+
+    // Every quantile is within the relative accuracy of the exact one, or within the minimum
+    // value of it for values in the zero bucket
+    private static void checkQuantiles(double[] values, QuantileSketch sketch) {
+        for (double value : values) {
+            sketch.add(value);
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double quantile : QUANTILES) {
+            double exact = sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+            double estimate = sketch.getQuantile(quantile);
+            double tolerance = Math.max(Math.abs(exact) * QuantileSketch.RELATIVE_ACCURACY, sketch.getMinValue()) + 1e-12;
+            Assert.assertEquals("quantile " + quantile, exact, estimate, tolerance);
+        }
+        Assert.assertEquals(values.length, sketch.getCount());
+    }
+}
@@ -0,0 +1,160 @@
+package EventHandlers;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+public class VehicleTrajectoryIndexTest {
+
+    private static final int VEHICLES = 60;
+    private static final int LINKS_PER_TRIP = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // traversals per vehicle as {link, enter time, leave time}
+    private final Map<String, List<String[]>> expectedTrajectories = new HashMap<>();
+
+    @Test
+    public void testLookupInOnePartition() throws IOException {
+        String eventsFile = writeEvents();
+        VehicleTrajectoryIndex.build(eventsFile, eventsFile + VehicleTrajectoryIndex.SUFFIX);
+        checkIndex(eventsFile, VehicleTrajectoryIndex.open(eventsFile + VehicleTrajectoryIndex.SUFFIX));
+    }
+
+    @Test
+    public void testLookupInPartitionsAndChunks() throws IOException {
+        String eventsFile = writeEvents();
+        // many partitions and mapped chunks, with vehicles spanning partition and chunk boundaries
+        VehicleTrajectoryIndex.build(eventsFile, eventsFile + VehicleTrajectoryIndex.SUFFIX, 50);
+        checkIndex(eventsFile, VehicleTrajectoryIndex.open(eventsFile + VehicleTrajectoryIndex.SUFFIX, 64));
+
+        File[] files = folder.getRoot().listFiles();
+        Assert.assertEquals("temporary files are left behind: " + Arrays.toString(files), 2, files.length);
+    }
+
+    @Test
+    public void testLoadOrBuild() throws IOException {
+        String eventsFile = writeEvents();
+        VehicleTrajectoryIndex index = VehicleTrajectoryIndex.loadOrBuild(eventsFile);
+        Assert.assertTrue(new File(eventsFile + VehicleTrajectoryIndex.SUFFIX).isFile());
+        Assert.assertTrue(index.isValidFor(eventsFile));
+        checkIndex(eventsFile, VehicleTrajectoryIndex.loadOrBuild(eventsFile));
+    }
+
+    @Test
+    public void testVehiclesWithoutLinkEvents() throws IOException {
+        // more vehicles than the initial counts hold, the highest ones only boarded and never moved
+        int boardedOnly = 1 << 16;
+        File file = folder.newFile("output_events.xml");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            writer.write("\t<event time=\"10.0\" type=\"vehicle enters traffic\" person=\"p\" link=\"l1\" vehicle=\"moving\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+            writer.write("\t<event time=\"20.0\" type=\"left link\" link=\"l1\" vehicle=\"moving\"  />\n");
+            writer.write("\t<event time=\"20.0\" type=\"entered link\" link=\"l2\" vehicle=\"moving\"  />\n");
+            writer.write("\t<event time=\"30.0\" type=\"vehicle leaves traffic\" person=\"p\" link=\"l2\" vehicle=\"moving\" networkMode=\"car\" relativePosition=\"1.0\"  />\n");
+            for (int v = 0; v < boardedOnly; v++) {
+                writer.write("\t<event time=\"40.0\" type=\"PersonEntersVehicle\" person=\"p" + v + "\" vehicle=\"parked_" + v + "\"  />\n");
+            }
+            writer.write("</events>\n");
+        }
+        String indexFile = file.getPath() + VehicleTrajectoryIndex.SUFFIX;
+        VehicleTrajectoryIndex.build(file.getPath(), indexFile);
+        VehicleTrajectoryIndex index = VehicleTrajectoryIndex.open(indexFile);
+
+        Assert.assertEquals(boardedOnly + 1, index.getNumberOfVehicles());
+        List<VehicleTrajectoryIndex.LinkTraversal> trajectory = index.getTrajectory("moving", null);
+        Assert.assertEquals(2, trajectory.size());
+        Assert.assertEquals("l2", trajectory.get(1).getLinkId().toString());
+        Assert.assertEquals(4, index.getNumberOfEvents("moving"));
+        Assert.assertEquals(0, index.getNumberOfEvents("parked_" + (boardedOnly - 1)));
+        Assert.assertTrue(index.getTrajectory("parked_" + (boardedOnly - 1), null).isEmpty());
+    }
+
+    private void checkIndex(String eventsFile, VehicleTrajectoryIndex index) throws IOException {
+        byte[] events = Files.readAllBytes(new File(eventsFile).toPath());
+        Assert.assertEquals(VEHICLES, index.getNumberOfVehicles());
+        for (Map.Entry<String, List<String[]>> vehicle : expectedTrajectories.entrySet()) {
+            List<String[]> expected = vehicle.getValue();
+            List<VehicleTrajectoryIndex.LinkTraversal> trajectory = index.getTrajectory(vehicle.getKey(), null);
+            Assert.assertEquals(vehicle.getKey(), expected.size(), trajectory.size());
+            for (int i = 0; i < expected.size(); i++) {
+                VehicleTrajectoryIndex.LinkTraversal traversal = trajectory.get(i);
+                Assert.assertEquals(expected.get(i)[0], traversal.getLinkId().toString());
+                Assert.assertEquals(Double.parseDouble(expected.get(i)[1]), traversal.getEnterTime(), 0.0);
+                Assert.assertEquals(Double.parseDouble(expected.get(i)[2]), traversal.getLeaveTime(), 0.0);
+                Assert.assertTrue(Double.isNaN(traversal.getLength()));
+            }
+
+            // enters and leaves of traffic and of every link, all pointing at an event of the vehicle
+            Assert.assertEquals(2 * expected.size(), index.getNumberOfEvents(vehicle.getKey()));
+            long[] offsets = index.getEventOffsets(vehicle.getKey());
+            Assert.assertEquals(2 * expected.size(), offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                String event = new String(events, (int) offsets[i], Math.min(200, events.length - (int) offsets[i]), StandardCharsets.UTF_8);
+                Assert.assertTrue(event, event.startsWith("<event "));
+                Assert.assertTrue(event, event.substring(0, event.indexOf('>')).contains("vehicle=\"" + vehicle.getKey() + "\""));
+                if (i > 0) {
+                    Assert.assertTrue(offsets[i] > offsets[i - 1]);
+                }
+            }
+        }
+        Assert.assertTrue(index.getTrajectory("unknown", null).isEmpty());
+        Assert.assertEquals(0, index.getNumberOfEvents("unknown"));
+        Assert.assertEquals(0, index.getEventOffsets("unknown").length);
+    }
+
+    // Trips of all vehicles interleaved in time, with person events in between that are not indexed
+    private String writeEvents() throws IOException {
+        expectedTrajectories.clear();
+        List<double[]> order = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        for (int v = 0; v < VEHICLES; v++) {
+            // ids not in first-seen order when sorted
+            String vehicle = "veh_" + (v * 37 % VEHICLES);
+            String person = "person_" + v;
+            List<String[]> trajectory = new ArrayList<>();
+            double time = 3600 + v * 7.5;
+            String link = "link_" + v;
+            add(order, lines, time, "<event time=\"" + (time - 1) + "\" type=\"actend\" person=\"" + person + "\" link=\"" + link + "\" actType=\"home\"  />");
+            add(order, lines, time, "<event time=\"" + time + "\" type=\"vehicle enters traffic\" person=\"" + person + "\" link=\"" + link
+                    + "\" vehicle=\"" + vehicle + "\" networkMode=\"car\" relativePosition=\"1.0\"  />");
+            double enterTime = time;
+            for (int i = 1; i <= LINKS_PER_TRIP; i++) {
+                time += 10 + (v + i) % 5;
+                add(order, lines, time, "<event time=\"" + time + "\" type=\"left link\" link=\"" + link + "\" vehicle=\"" + vehicle + "\"  />");
+                trajectory.add(new String[]{link, Double.toString(enterTime), Double.toString(time)});
+                link = "link_" + ((v + i * 13) % 40);
+                add(order, lines, time, "<event time=\"" + time + "\" type=\"entered link\" link=\"" + link + "\" vehicle=\"" + vehicle + "\"  />");
+                enterTime = time;
+            }
+            time += 4;
+            add(order, lines, time, "<event time=\"" + time + "\" type=\"vehicle leaves traffic\" person=\"" + person + "\" link=\"" + link
+                    + "\" vehicle=\"" + vehicle + "\" networkMode=\"car\" relativePosition=\"1.0\"  />");
+            trajectory.add(new String[]{link, Double.toString(enterTime), Double.toString(time)});
+            expectedTrajectories.put(vehicle, trajectory);
+        }
+        order.sort(Comparator.comparingDouble((double[] entry) -> entry[0]).thenComparingDouble(entry -> entry[1]));
+
+        File file = folder.newFile("output_events.xml");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            for (double[] entry : order) {
+                writer.write("\t" + lines.get((int) entry[1]) + "\n");
+            }
+            writer.write("</events>\n");
+        }
+        return file.getPath();
+    }
+
+    private static void add(List<double[]> order, List<String> lines, double time, String line) {
+        order.add(new double[]{time, lines.size()});
+        lines.add(line);
+    }
+}
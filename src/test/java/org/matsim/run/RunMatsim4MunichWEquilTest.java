@@ -30,6 +30,8 @@ import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.testcases.MatsimTestUtils;
 
+import java.io.File;
+
 /**
  * @author nagel
  *
@@ -54,8 +56,52 @@ public class RunMatsim4MunichWEquilTest{
 			// if one catches an exception, then one needs to explicitly fail the test:
 			Assert.fail();
 		}
+		// the link KPIs are opt-in
+		Assert.assertFalse( new File( utils.getOutputDirectory(), "link_kpis_summary.csv" ).exists() );
+
+	}
 
+	@Test
+	public final void testLinkKpis() {
+		try {
+			RunMatsim4Munich matsim = new RunMatsim4Munich( new String [] {"scenarios/equil/config.xml"} ) ;
+			Config config = matsim.prepareConfig() ;
+			ConfigUtils.addOrGetModule( config, MunichNetworkConfigGroup.class ).setLinkKpiInterval( 1 );
+			// the KPIs do not need the events file
+			config.controler().setWriteEventsInterval(0);
+			config.controler().setLastIteration(1);
+			config.controler().setOutputDirectory( utils.getOutputDirectory() );
+			config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+			matsim.run() ;
+		} catch ( Exception ee ) {
+			Logger.getLogger(this.getClass()).fatal("there was an exception: \n" + ee ) ;
+			ee.printStackTrace();
+			Assert.fail();
+		}
+		for ( int iteration = 0 ; iteration <= 1 ; iteration++ ) {
+			Assert.assertTrue( new File( utils.getOutputDirectory(), "ITERS/it." + iteration + "/" + iteration + ".link_kpis.csv" ).isFile() );
+		}
+		Assert.assertTrue( new File( utils.getOutputDirectory(), "link_kpis_summary.csv" ).isFile() );
+	}
 
+	@Test
+	public final void testSimplifiedNetwork() {
+		try {
+			RunMatsim4Munich matsim = new RunMatsim4Munich( new String [] {"scenarios/equil/config.xml"} ) ;
+			Config config = matsim.prepareConfig() ;
+			ConfigUtils.addOrGetModule( config, MunichNetworkConfigGroup.class ).setSimplifyNetwork( true );
+			config.controler().setWriteEventsInterval(1);
+			config.controler().setLastIteration(1);
+			config.controler().setOutputDirectory( utils.getOutputDirectory() );
+			config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+			matsim.run() ;
+		} catch ( Exception ee ) {
+			Logger.getLogger(this.getClass()).fatal("there was an exception: \n" + ee ) ;
+			ee.printStackTrace();
+			Assert.fail();
+		}
+		// the simulation ran on the simplified network, with the mapping back to the original links next to the output
+		Assert.assertTrue( new File( utils.getOutputDirectory(), "output_link_mapping.csv" ).isFile() );
 	}
 
 }